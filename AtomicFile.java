@@ -0,0 +1,101 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The AtomicFile class replaces the content of a file so that a crash leaves
+ * either the complete old content or the complete new content, never a
+ * truncated file.
+ *
+ * The new content is written to a temporary file next to the target, forced to
+ * disk, and then renamed over the target. The directory is forced as well so
+ * the rename itself survives a power loss on file systems that support it.
+ */
+class AtomicFile {
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Writes the content of a file.
+     */
+    interface ContentWriter {
+        void writeTo(BufferedWriter writer) throws IOException;
+    }
+
+    /**
+     * Writes the binary content of a file.
+     */
+    interface StreamWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private AtomicFile() {
+    }
+
+    /**
+     * Atomically replaces the content of the target file.
+     *
+     * @param target  The file to replace.
+     * @param content Writes the new content.
+     * @throws IOException If the content could not be written or the file could
+     *                     not be renamed. The target is left untouched.
+     */
+    static void write(File target, ContentWriter content) throws IOException {
+        writeBytes(target, out -> {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+            content.writeTo(writer);
+            writer.flush();
+        });
+    }
+
+    /**
+     * Atomically replaces the content of the target file with binary content.
+     * The stream passed to the writer is not buffered.
+     *
+     * @param target  The file to replace.
+     * @param content Writes the new content.
+     * @throws IOException If the content could not be written or the file could
+     *                     not be renamed. The target is left untouched.
+     */
+    static void writeBytes(File target, StreamWriter content) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            content.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Forces the directory entry of a rename to disk. Not every platform allows
+     * opening a directory, so failures are ignored.
+     */
+    private static void syncDirectory(File directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here, for example on Windows
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The BloomFilter class answers "is this key possibly in the set?" with no
+ * false negatives and a small share of false positives. Each {@link Segment}
+ * has one over its (date, habit) keys, so a lookup of a key the segment does
+ * not hold usually returns without reading the segment file. The store serves
+ * its reads from memory, so these lookups are the ones of
+ * {@link HabitEngine#getAll(java.util.Collection)}, made for the keys another
+ * process changed.
+ *
+ * The filter uses about ten bits and seven hash probes per key, which gives a
+ * false-positive rate of roughly 1%. The probes are derived from one 64-bit
+ * hash by double hashing.
+ */
+class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] words;
+    private final int hashes;
+
+    /**
+     * Constructs an empty filter sized for the given number of keys.
+     *
+     * @param expectedKeys The number of keys that will be added.
+     */
+    BloomFilter(int expectedKeys) {
+        this(new long[Math.max(1, (int) (((long) Math.max(1, expectedKeys) * BITS_PER_KEY + 63) / 64))], HASHES);
+    }
+
+    private BloomFilter(long[] words, int hashes) {
+        this.words = words;
+        this.hashes = hashes;
+    }
+
+    void add(HabitEngine.Key key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) words.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param key The key to test.
+     * @return False if the key was certainly never added; true if it may have
+     *         been.
+     */
+    boolean mightContain(HabitEngine.Key key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) words.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bits;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The size of the bit array in bytes.
+     */
+    int getByteSize() {
+        return words.length * 8;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(hashes);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(DataInputStream in) throws IOException {
+        int hashes = in.readInt();
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return new BloomFilter(words, hashes);
+    }
+
+    /**
+     * Mixes the epoch day and the name hash into 64 well-spread bits (the
+     * finalizer of MurmurHash3).
+     */
+    private static long hash(HabitEngine.Key key) {
+        long hash = key.epochDay * 0x9E3779B97F4A7C15L ^ key.name.hashCode();
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
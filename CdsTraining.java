@@ -0,0 +1,144 @@
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The CdsTraining class makes a class data sharing (AppCDS) archive of the
+ * classes Wellnest loads when it starts, so that later starts map them from
+ * the archive instead of loading and verifying them again:
+ *
+ * <pre>
+ * java -cp .:lib/jcalendar-1.4.jar Main --cds-archive
+ * java -XX:SharedArchiveFile=wellnest.jsa -cp wellnest.jar:lib/jcalendar-1.4.jar Main
+ * </pre>
+ *
+ * The JVM only archives classes from jar files, so the class directories of
+ * the class path are first packed into {@code wellnest.jar}. A training run,
+ * a second JVM on that class path, then opens the window, visits every view
+ * and closes again, and writes the classes it loaded to {@code wellnest.jsa}
+ * when it exits. The classes of {@code jcalendar-1.4.jar} are too old a class
+ * file version to be archived; they are only loaded when a task is added.
+ *
+ * The archive is only used with the class path and the JDK it was made with;
+ * the JVM ignores it otherwise, so it has to be made again after an upgrade or
+ * a change to Wellnest.
+ */
+class CdsTraining {
+
+    static final String ARCHIVE_FILE_PATH = "wellnest.jsa";
+    static final String JAR_FILE_PATH = "wellnest.jar";
+
+    /**
+     * Packs the class directories of the class path of this JVM into a jar and
+     * runs the training run in a new JVM with that jar in their place.
+     *
+     * @return The exit status of the training run: 0 if the archive was made.
+     */
+    static int createArchive() {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath;
+        try {
+            classPath = packClassDirectories(System.getProperty("java.class.path"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+            return 1;
+        }
+        ProcessBuilder builder = new ProcessBuilder(java, "-XX:ArchiveClassesAtExit=" + ARCHIVE_FILE_PATH,
+                "-cp", classPath, "Main", "--cds-training");
+        builder.inheritIO();
+        try {
+            int status = builder.start().waitFor();
+            if (status == 0) {
+                System.out.println("Wrote " + ARCHIVE_FILE_PATH + "; start Wellnest with:");
+                System.out.println("  java -XX:SharedArchiveFile=" + ARCHIVE_FILE_PATH + " -cp " + classPath
+                        + " Main");
+            } else {
+                new File(ARCHIVE_FILE_PATH).delete(); // Missing the classes of the window
+                System.out.println("The training run failed with status " + status);
+            }
+            return status;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    /**
+     * Writes the classes of the directories of a class path to
+     * {@link #JAR_FILE_PATH}.
+     *
+     * @param classPath The class path.
+     * @return The class path with the jar in place of the directories.
+     * @throws IOException If a directory cannot be read or the jar written.
+     */
+    private static String packClassDirectories(String classPath) throws IOException {
+        List<String> entries = new ArrayList<>();
+        List<Path> directories = new ArrayList<>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (new File(entry).isDirectory()) {
+                directories.add(new File(entry).toPath());
+            } else if (!entry.isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        if (directories.isEmpty()) {
+            return classPath;
+        }
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(JAR_FILE_PATH))) {
+            Set<String> added = new HashSet<>();
+            for (Path directory : directories) {
+                List<Path> classFiles;
+                try (Stream<Path> files = Files.walk(directory)) {
+                    classFiles = files.filter(file -> file.toString().endsWith(".class")).sorted()
+                            .collect(Collectors.toList());
+                }
+                for (Path file : classFiles) {
+                    String name = directory.relativize(file).toString().replace(File.separatorChar, '/');
+                    if (!added.add(name)) {
+                        continue; // The earlier directory wins, as on the class path
+                    }
+                    jar.putNextEntry(new JarEntry(name));
+                    Files.copy(file, jar);
+                    jar.closeEntry();
+                }
+            }
+        }
+        entries.add(0, JAR_FILE_PATH);
+        return String.join(File.pathSeparator, entries);
+    }
+
+    /**
+     * Opens the window of a training run, visits every view and closes it once
+     * the events this queued have been handled. Closing the window exits the
+     * JVM, which writes the archive. Called on the event dispatch thread.
+     */
+    static void train() {
+        try {
+            Wellnest window = new Wellnest();
+            window.showEveryView();
+            SwingUtilities.invokeLater(
+                    () -> window.dispatchEvent(new WindowEvent(window, WindowEvent.WINDOW_CLOSING)));
+        } catch (RuntimeException e) {
+            // Without a display, for one; the archive would miss the classes of the window
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
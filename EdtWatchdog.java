@@ -0,0 +1,242 @@
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The EdtWatchdog class detects event dispatch thread (EDT) tasks that run
+ * longer than a threshold and reports which method caused the stall.
+ *
+ * The watchdog is opt-in. It is enabled with {@code -Dwellnest.watchdog=true}
+ * and the threshold is set with {@code -Dwellnest.watchdog.thresholdMs}
+ * (100 ms by default). It replaces the system event queue with one that
+ * timestamps each dispatched event, and a daemon thread samples the EDT stack
+ * while a dispatch is over the threshold.
+ *
+ * Each stall is written as a short report to {@code wellnest-stalls.log},
+ * which is rotated when it grows too large. A summary of the stalls of the
+ * session is appended when the application exits.
+ */
+class EdtWatchdog {
+
+    private static final String LOG_FILE_PATH = "wellnest-stalls.log";
+    private static final long MAX_LOG_BYTES = 512 * 1024;
+    private static final int KEPT_LOG_FILES = 3;
+    private static final long SAMPLE_INTERVAL_MS = 10;
+    private static final int REPORTED_FRAMES = 6;
+
+    private final long thresholdNanos;
+
+    // Written by the EDT, read by the watchdog thread
+    private volatile Thread edt;
+    private volatile long dispatchStart; // 0 while the EDT is idle
+    private final AtomicLong dispatchSequence = new AtomicLong();
+    private int dispatchDepth; // Only touched by the EDT
+
+    // Only touched by the watchdog thread
+    private long trackedSequence = -1;
+    private long trackedStart;
+    private int samples;
+    private final Map<String, Integer> offenderSamples = new HashMap<>();
+    private final Map<String, StackTraceElement[]> offenderStacks = new HashMap<>();
+
+    // Session summary, read by the shutdown hook
+    private final Map<String, long[]> stallsByMethod = new TreeMap<>(); // method -> {count, totalNanos}
+    private long stallCount;
+    private long stallTotalNanos;
+    private long stallMaxNanos;
+
+    private EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+    }
+
+    /**
+     * Installs the watchdog if {@code wellnest.watchdog} is set to true.
+     * Must be called before the first window is created.
+     */
+    static void installIfEnabled() {
+        if (!Boolean.getBoolean("wellnest.watchdog")) {
+            return;
+        }
+        EdtWatchdog watchdog = new EdtWatchdog(Long.getLong("wellnest.watchdog.thresholdMs", 100));
+        Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog.new MonitoringEventQueue());
+
+        Thread thread = new Thread(watchdog::run, "wellnest-edt-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(watchdog::writeSessionSummary, "wellnest-edt-watchdog-summary"));
+    }
+
+    /**
+     * Event queue that records when each event starts and finishes dispatching.
+     * Nested dispatch loops, such as the one run by a modal dialog, restart the
+     * clock so the waiting outer event is not reported as a stall.
+     */
+    private class MonitoringEventQueue extends EventQueue {
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            edt = Thread.currentThread();
+            dispatchDepth++;
+            dispatchStart = System.nanoTime();
+            dispatchSequence.incrementAndGet();
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                dispatchDepth--;
+                dispatchStart = dispatchDepth > 0 ? System.nanoTime() : 0;
+                dispatchSequence.incrementAndGet();
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            poll();
+        }
+    }
+
+    /**
+     * Checks the current dispatch, samples the EDT stack if it is over the
+     * threshold, and reports a stall once the dispatch it was tracking is over.
+     */
+    private void poll() {
+        long sequence = dispatchSequence.get();
+        long start = dispatchStart;
+        long now = System.nanoTime();
+
+        if (trackedSequence >= 0 && sequence != trackedSequence) {
+            finishStall(now);
+        }
+        if (start == 0 || now - start < thresholdNanos) {
+            return;
+        }
+
+        Thread thread = edt;
+        StackTraceElement[] stack = thread != null ? thread.getStackTrace() : new StackTraceElement[0];
+        if (isWaitingForEvents(stack)) {
+            // A modal dialog is pumping events; the EDT is idle, not stalled
+            resetTracking();
+            return;
+        }
+        if (trackedSequence < 0) {
+            trackedSequence = sequence;
+            trackedStart = start;
+        }
+        String offender = findOffender(stack);
+        samples++;
+        offenderSamples.merge(offender, 1, Integer::sum);
+        offenderStacks.putIfAbsent(offender, stack);
+    }
+
+    private void finishStall(long now) {
+        long duration = now - trackedStart;
+        String offender = null;
+        int best = -1;
+        for (Map.Entry<String, Integer> entry : offenderSamples.entrySet()) {
+            if (entry.getValue() > best) {
+                best = entry.getValue();
+                offender = entry.getKey();
+            }
+        }
+
+        synchronized (this) {
+            stallCount++;
+            stallTotalNanos += duration;
+            stallMaxNanos = Math.max(stallMaxNanos, duration);
+            long[] perMethod = stallsByMethod.computeIfAbsent(offender, k -> new long[2]);
+            perMethod[0]++;
+            perMethod[1] += duration;
+        }
+        Metrics.increment("edt.stalls");
+        Metrics.record("edt.stall", duration);
+
+        StringBuilder report = new StringBuilder();
+        report.append(LocalDateTime.now()).append(" EDT stall ").append(duration / 1_000_000).append(" ms in ")
+                .append(offender).append(" (").append(samples).append(" samples)\n");
+        for (Map.Entry<String, Integer> entry : offenderSamples.entrySet()) {
+            report.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append(" samples\n");
+            StackTraceElement[] stack = offenderStacks.get(entry.getKey());
+            for (int i = 0; i < Math.min(REPORTED_FRAMES, stack.length); i++) {
+                report.append("    at ").append(stack[i]).append('\n');
+            }
+        }
+        appendToLog(report.toString());
+        resetTracking();
+    }
+
+    private void resetTracking() {
+        trackedSequence = -1;
+        samples = 0;
+        offenderSamples.clear();
+        offenderStacks.clear();
+    }
+
+    /**
+     * Returns the top-most application frame of the stack as "Class.method".
+     * Application classes live in the default package, so they are the frames
+     * whose class name has no dot.
+     */
+    private static String findOffender(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            if (frame.getClassName().indexOf('.') < 0 && !frame.getClassName().startsWith("EdtWatchdog")) {
+                return frame.getClassName() + "." + frame.getMethodName();
+            }
+        }
+        return stack.length > 0 ? stack[0].getClassName() + "." + stack[0].getMethodName() : "unknown";
+    }
+
+    private static boolean isWaitingForEvents(StackTraceElement[] stack) {
+        for (int i = 0; i < Math.min(8, stack.length); i++) {
+            if ("java.awt.EventQueue".equals(stack[i].getClassName()) && "getNextEvent".equals(stack[i].getMethodName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void writeSessionSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(LocalDateTime.now()).append(" session summary: ").append(stallCount).append(" stalls, ")
+                .append(stallTotalNanos / 1_000_000).append(" ms total, ").append(stallMaxNanos / 1_000_000)
+                .append(" ms max\n");
+        for (Map.Entry<String, long[]> entry : stallsByMethod.entrySet()) {
+            summary.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()[0]).append(" stalls, ")
+                    .append(entry.getValue()[1] / 1_000_000).append(" ms\n");
+        }
+        appendToLog(summary.toString());
+    }
+
+    /**
+     * Appends text to the stall log, rotating the log first if it is too large.
+     * The rotated files are named wellnest-stalls.log.1, .2 and so on.
+     */
+    private static synchronized void appendToLog(String text) {
+        File log = new File(LOG_FILE_PATH);
+        if (log.length() > MAX_LOG_BYTES) {
+            new File(LOG_FILE_PATH + "." + KEPT_LOG_FILES).delete();
+            for (int i = KEPT_LOG_FILES - 1; i >= 1; i--) {
+                new File(LOG_FILE_PATH + "." + i).renameTo(new File(LOG_FILE_PATH + "." + (i + 1)));
+            }
+            log.renameTo(new File(LOG_FILE_PATH + ".1"));
+        }
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(LOG_FILE_PATH, true))) {
+            writer.write(text);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
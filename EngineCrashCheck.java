@@ -0,0 +1,357 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Command-line tool that checks that the {@link HabitEngine} recovers from a
+ * crash with every write it acknowledged and nothing else.
+ *
+ * The writes are a random mix of puts, deletes and batches made from a seed,
+ * so the expected content after any number of them can be computed again. Over
+ * a few thousand keys they fill the memtable several times, so the engine
+ * flushes and merges segments along the way. The check then
+ * <ul>
+ * <li>kills a writer process at a random point and requires the reopened
+ * database to hold the writes it acknowledged, and possibly a few more, in
+ * order;</li>
+ * <li>cuts the last entry of the write-ahead log in half, as a crash while
+ * appending leaves it, and requires the entry to be dropped and the next write
+ * to survive;</li>
+ * <li>asks for the tail of the log to be cut at an offset that complete
+ * entries follow, as a failed read of the log leaves it, and requires nothing
+ * to be cut;</li>
+ * <li>leaves the files of an interrupted flush: a partly written segment and
+ * a complete one the MANIFEST does not list yet;</li>
+ * <li>leaves a partly written MANIFEST next to the real one. The MANIFEST is
+ * replaced by renaming a complete copy, so a torn replacement is the only way
+ * a crash can tear it.</li>
+ * </ul>
+ * Exits with status 1 if the database does not hold what it should.
+ *
+ * Usage: {@code java EngineCrashCheck [kills] [writes]}
+ */
+class EngineCrashCheck {
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2024, 1, 1);
+    private static final int DAYS = 1000;
+    private static final String[] HABITS = { "Read", "Run", "Stretch", "Journal", "Meditate", "Walk", "Water",
+            "Sleep" };
+    private static final String[] STATUSES = { null, "Completed", "Skipped" };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 4 && args[0].equals("--writer")) {
+            write(new File(args[1]), Long.parseLong(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        int kills = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int writes = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        boolean passed = true;
+        for (long seed = 1; seed <= kills; seed++) {
+            passed &= checkKill(seed, writes);
+        }
+        passed &= checkTornLogEntry();
+        passed &= checkStaleLogOffset();
+        passed &= checkInterruptedFlush(writes);
+        passed &= checkTornManifest(writes);
+        System.out.println(passed ? "The engine recovered every time" : "The engine lost or invented writes");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Runs in the writer process: makes the writes of a seed and prints the
+     * number of each one once the engine has acknowledged it.
+     */
+    private static void write(File directory, long seed, int writes) {
+        HabitEngine engine = new HabitEngine(directory);
+        engine.open();
+        Random random = new Random(seed);
+        for (int i = 1; i <= writes; i++) {
+            engine.write(nextWrite(random));
+            System.out.println(i);
+            System.out.flush();
+        }
+        engine.close();
+    }
+
+    /**
+     * Kills a writer process after a random number of acknowledged writes.
+     */
+    private static boolean checkKill(long seed, int writes) throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("wellnest-crash").toFile();
+        int killAfter = writes / 10 + new Random(-seed).nextInt(writes - writes / 10);
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process writer = new ProcessBuilder(java, "-Dwellnest.fsync=os", "-cp", System.getProperty("java.class.path"),
+                "EngineCrashCheck", "--writer", directory.getPath(), String.valueOf(seed), String.valueOf(writes))
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        int acknowledged = 0;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(writer.getInputStream()))) {
+            String line;
+            while (acknowledged < killAfter && (line = out.readLine()) != null) {
+                acknowledged = Integer.parseInt(line);
+            }
+            writer.destroyForcibly();
+        }
+        writer.waitFor();
+
+        // The writer may have made more writes than were read before it died
+        Random random = new Random(seed);
+        Map<HabitEngine.Key, String> expected = new TreeMap<>();
+        for (int i = 0; i < acknowledged; i++) {
+            apply(expected, nextWrite(random));
+        }
+        Map<HabitEngine.Key, String> recovered = read(directory);
+        Set<HabitEngine.Key> differing = new HashSet<>();
+        for (HabitEngine.Key key : union(expected, recovered)) {
+            if (!Objects.equals(expected.get(key), recovered.get(key))) {
+                differing.add(key);
+            }
+        }
+        int recoveredWrites = acknowledged;
+        while (!differing.isEmpty() && recoveredWrites < writes) {
+            List<HabitEngine.Entry> next = nextWrite(random);
+            apply(expected, next);
+            recoveredWrites++;
+            for (HabitEngine.Entry entry : next) {
+                if (Objects.equals(expected.get(entry.key), recovered.get(entry.key))) {
+                    differing.remove(entry.key);
+                } else {
+                    differing.add(entry.key);
+                }
+            }
+        }
+        boolean passed = differing.isEmpty();
+        System.out.println("kill after " + acknowledged + " acknowledged writes: "
+                + (passed ? "recovered " + recoveredWrites + " writes" : "no prefix of the writes matches"));
+        delete(directory);
+        return passed;
+    }
+
+    /**
+     * Cuts the last entry of the write-ahead log in half. The database is kept
+     * below a flush, so the entry is the last one of the log.
+     */
+    private static boolean checkTornLogEntry() throws IOException {
+        File directory = Files.createTempDirectory("wellnest-crash").toFile();
+        Map<HabitEngine.Key, String> expected = fill(directory, 100, false);
+        HabitRecord last = new HabitRecord(FIRST_DATE.minusDays(1), "Torn", 1, 50.0f, null);
+        HabitEngine engine = new HabitEngine(directory);
+        engine.open();
+        engine.put(last);
+        engine.close();
+
+        File log = newestLog(directory);
+        int entryLength = ("put|" + last.toLine() + "\n").length();
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - entryLength / 2);
+        }
+        boolean passed = compare("torn log entry", expected, read(directory));
+
+        HabitRecord next = new HabitRecord(FIRST_DATE.minusDays(2), "After", 2, 0.0f, "Skipped");
+        engine = new HabitEngine(directory);
+        engine.open();
+        engine.put(next);
+        engine.close();
+        expected.put(HabitEngine.Key.of(next.getDate(), next.getName()), next.toLine());
+        passed &= compare("write after a torn log entry", expected, read(directory));
+        delete(directory);
+        return passed;
+    }
+
+    /**
+     * Cutting a torn entry at a stale offset, before complete entries or past
+     * the end of the log, must leave the log as it is.
+     */
+    private static boolean checkStaleLogOffset() throws IOException {
+        File directory = Files.createTempDirectory("wellnest-crash").toFile();
+        Map<HabitEngine.Key, String> expected = fill(directory, 100, false);
+        File log = newestLog(directory);
+        long length = log.length();
+        boolean cut = HabitJournal.truncateTornEntry(log, 0) | HabitJournal.truncateTornEntry(log, length / 2)
+                | HabitJournal.truncateTornEntry(log, length + 1);
+        boolean passed = !cut && log.length() == length;
+        if (!passed) {
+            System.out.println("stale log offset: the log was cut from " + length + " to " + log.length() + " bytes");
+        }
+        passed &= compare("stale log offset", expected, read(directory));
+        delete(directory);
+        return passed;
+    }
+
+    /**
+     * Leaves a partly written segment and a complete but unlisted one, as a
+     * flush interrupted before or after writing its segment does.
+     */
+    private static boolean checkInterruptedFlush(int writes) throws IOException {
+        File directory = Files.createTempDirectory("wellnest-crash").toFile();
+        Map<HabitEngine.Key, String> expected = fill(directory, writes, true);
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        Arrays.sort(segments);
+        if (segments.length == 0) {
+            System.out.println("interrupted flush: no segment was written");
+            delete(directory);
+            return false;
+        }
+        long next = nextSegmentId(directory);
+        byte[] first = Files.readAllBytes(segments[0].toPath());
+        File complete = new File(directory, String.format("segment-%06d.seg", next));
+        File partial = new File(directory, String.format("segment-%06d.seg%s", next + 1, AtomicFile.TEMP_SUFFIX));
+        Files.write(complete.toPath(), first); // Older values under a newer name
+        Files.write(partial.toPath(), Arrays.copyOf(first, first.length / 2));
+
+        boolean passed = compare("interrupted flush", expected, read(directory));
+        if (complete.exists() || partial.exists()) {
+            System.out.println("interrupted flush: the files of the flush were not deleted");
+            passed = false;
+        }
+        passed &= flushAndCompare("flush after an interrupted flush", directory, expected);
+        delete(directory);
+        return passed;
+    }
+
+    /**
+     * Leaves half of a MANIFEST replacement next to the MANIFEST.
+     */
+    private static boolean checkTornManifest(int writes) throws IOException {
+        File directory = Files.createTempDirectory("wellnest-crash").toFile();
+        Map<HabitEngine.Key, String> expected = fill(directory, writes, true);
+        File manifest = new File(directory, HabitEngine.MANIFEST_FILE_NAME);
+        byte[] bytes = Files.readAllBytes(manifest.toPath());
+        File torn = new File(directory, HabitEngine.MANIFEST_FILE_NAME + AtomicFile.TEMP_SUFFIX);
+        Files.write(torn.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+        boolean passed = compare("torn MANIFEST", expected, read(directory));
+        passed &= flushAndCompare("flush after a torn MANIFEST", directory, expected);
+        delete(directory);
+        return passed;
+    }
+
+    /**
+     * Makes the writes of seed 0 in a new database and closes it.
+     *
+     * @param flush True to flush before the last tenth of the writes, so the
+     *              database has segments and a log.
+     * @return The expected content.
+     */
+    private static Map<HabitEngine.Key, String> fill(File directory, int writes, boolean flush) {
+        Map<HabitEngine.Key, String> expected = new TreeMap<>();
+        HabitEngine engine = new HabitEngine(directory);
+        engine.open();
+        Random random = new Random(0);
+        for (int i = 0; i < writes; i++) {
+            if (flush && i == writes - writes / 10) {
+                engine.flush();
+            }
+            List<HabitEngine.Entry> write = nextWrite(random);
+            engine.write(write);
+            apply(expected, write);
+        }
+        engine.close();
+        return expected;
+    }
+
+    private static boolean flushAndCompare(String name, File directory, Map<HabitEngine.Key, String> expected) {
+        HabitEngine engine = new HabitEngine(directory);
+        engine.open();
+        engine.flush();
+        engine.close();
+        return compare(name, expected, read(directory));
+    }
+
+    /**
+     * A random put, delete or batch of both.
+     */
+    private static List<HabitEngine.Entry> nextWrite(Random random) {
+        List<HabitEngine.Entry> entries = new ArrayList<>();
+        int count = random.nextInt(10) == 0 ? 2 + random.nextInt(19) : 1;
+        for (int i = 0; i < count; i++) {
+            LocalDate date = FIRST_DATE.plusDays(random.nextInt(DAYS));
+            String habit = HABITS[random.nextInt(HABITS.length)];
+            HabitRecord record = random.nextInt(5) == 0 ? null
+                    : new HabitRecord(date, habit, 1 + random.nextInt(3), 25.0f * random.nextInt(5),
+                            STATUSES[random.nextInt(STATUSES.length)]);
+            entries.add(new HabitEngine.Entry(HabitEngine.Key.of(date, habit), record));
+        }
+        return entries;
+    }
+
+    private static void apply(Map<HabitEngine.Key, String> content, List<HabitEngine.Entry> write) {
+        for (HabitEngine.Entry entry : write) {
+            if (entry.record != null) {
+                content.put(entry.key, entry.record.toLine());
+            } else {
+                content.remove(entry.key);
+            }
+        }
+    }
+
+    /**
+     * Opens the database as after a crash and reads all of it.
+     */
+    private static Map<HabitEngine.Key, String> read(File directory) {
+        Map<HabitEngine.Key, String> content = new TreeMap<>();
+        HabitEngine engine = new HabitEngine(directory);
+        engine.open();
+        engine.forEach(record -> content.put(HabitEngine.Key.of(record.getDate(), record.getName()), record.toLine()));
+        engine.close();
+        return content;
+    }
+
+    private static boolean compare(String name, Map<HabitEngine.Key, String> expected,
+            Map<HabitEngine.Key, String> recovered) {
+        int differing = 0;
+        for (HabitEngine.Key key : union(expected, recovered)) {
+            if (!Objects.equals(expected.get(key), recovered.get(key))) {
+                if (differing++ < 5) {
+                    System.out.println("  " + key + ": expected " + expected.get(key) + ", found "
+                            + recovered.get(key));
+                }
+            }
+        }
+        System.out.println(name + ": " + (differing == 0 ? "recovered" : differing + " records differ"));
+        return differing == 0;
+    }
+
+    private static Set<HabitEngine.Key> union(Map<HabitEngine.Key, String> a, Map<HabitEngine.Key, String> b) {
+        Set<HabitEngine.Key> keys = new HashSet<>(a.keySet());
+        keys.addAll(b.keySet());
+        return keys;
+    }
+
+    private static File newestLog(File directory) {
+        File[] logs = directory.listFiles((dir, name) -> name.startsWith("wal-"));
+        return Stream.of(logs).max(Comparator.comparing(File::getName)).get();
+    }
+
+    private static long nextSegmentId(File directory) throws IOException {
+        for (String line : Files.readAllLines(new File(directory, HabitEngine.MANIFEST_FILE_NAME).toPath())) {
+            if (line.startsWith("next ")) {
+                return Long.parseLong(line.substring(5));
+            }
+        }
+        throw new IOException("The MANIFEST has no next segment id");
+    }
+
+    private static void delete(File directory) {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,388 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The HabitArchive class keeps the records of old months out of the live
+ * database. Each sealed month is one immutable GZIP file, {@code 2021-03.gz},
+ * holding the records in the habits-file line format, next to a small index,
+ * {@code 2021-03.idx}.
+ *
+ * The index holds what the views need without decompressing the month: the
+ * number of records and of completed tasks, and per habit three day masks
+ * (scheduled, completed and skipped days). The habit summaries and the streak
+ * are built from the indexes; the records themselves are only decompressed
+ * when a view or an export asks for a day of the month.
+ *
+ * The index is written after the data file and removed before it, so a month
+ * is sealed exactly when its index exists.
+ */
+class HabitArchive {
+
+    static final String DIRECTORY_NAME = "habits.archive";
+    private static final String DATA_SUFFIX = ".gz";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * The index of one sealed month.
+     */
+    static final class MonthIndex {
+        private final YearMonth month;
+        private int records;
+        private int completedStatuses;
+        private long rawBytes;
+        private long compressedBytes;
+        private int dayMask; // Days with any task, bit 0 for the 1st
+        // Per habit: scheduled, completed and skipped day masks
+        private final Map<String, int[]> habitMasks = new TreeMap<>();
+
+        private MonthIndex(YearMonth month) {
+            this.month = month;
+        }
+
+        YearMonth getMonth() {
+            return month;
+        }
+
+        int getRecordCount() {
+            return records;
+        }
+
+        /**
+         * @return The number of records with the status "Completed".
+         */
+        int getCompletedStatusCount() {
+            return completedStatuses;
+        }
+
+        boolean hasTasks(LocalDate date) {
+            return (dayMask & (1 << (date.getDayOfMonth() - 1))) != 0;
+        }
+
+        /**
+         * @return The names of the habits scheduled in the month.
+         */
+        NavigableSet<String> getHabits() {
+            return Collections.unmodifiableNavigableSet(new TreeSet<>(habitMasks.keySet()));
+        }
+
+        List<LocalDate> getScheduledDates(String taskName) {
+            return dates(habitMasks.get(taskName)[0]);
+        }
+
+        List<LocalDate> getCompletedDates(String taskName) {
+            return dates(habitMasks.get(taskName)[1]);
+        }
+
+        List<LocalDate> getSkippedDates(String taskName) {
+            return dates(habitMasks.get(taskName)[2]);
+        }
+
+        private List<LocalDate> dates(int mask) {
+            List<LocalDate> dates = new ArrayList<>(Integer.bitCount(mask));
+            for (int day = 0; day < 31; day++) {
+                if ((mask & (1 << day)) != 0) {
+                    dates.add(month.atDay(day + 1));
+                }
+            }
+            return dates;
+        }
+
+        private void add(HabitRecord record) {
+            int bit = 1 << (record.getDate().getDayOfMonth() - 1);
+            int[] masks = habitMasks.computeIfAbsent(record.getName(), k -> new int[3]);
+            masks[0] |= bit;
+            if (record.isCompleted()) {
+                masks[1] |= bit;
+            } else if ("Skipped".equals(record.getStatus())) {
+                masks[2] |= bit;
+            }
+            dayMask |= bit;
+            records++;
+            if ("Completed".equals(record.getStatus())) {
+                completedStatuses++;
+            }
+        }
+    }
+
+    private final File directory;
+    private final int ageMonths;
+    private final TreeMap<YearMonth, MonthIndex> indexes = new TreeMap<>();
+
+    /**
+     * Constructs the archive in the given data directory.
+     *
+     * @param dataDirectory The directory holding the data files.
+     * @param ageMonths     How many months back the live database reaches;
+     *                      older months are sealed. 0 turns archiving off.
+     */
+    HabitArchive(File dataDirectory, int ageMonths) {
+        this.directory = new File(dataDirectory, DIRECTORY_NAME);
+        this.ageMonths = ageMonths;
+    }
+
+    /**
+     * Constructs the archive with the age given by the
+     * {@code wellnest.archive.months} system property (12 by default).
+     *
+     * @param dataDirectory The directory holding the data files.
+     * @return The archive.
+     */
+    static HabitArchive fromSystemProperties(File dataDirectory) {
+        return new HabitArchive(dataDirectory, Integer.getInteger("wellnest.archive.months", 12));
+    }
+
+    /**
+     * @param today The current date.
+     * @return The first month that stays in the live database, or null if
+     *         archiving is turned off.
+     */
+    YearMonth getCutoff(LocalDate today) {
+        return ageMonths > 0 ? YearMonth.from(today).minusMonths(ageMonths) : null;
+    }
+
+    /**
+     * Reads the indexes of the sealed months. Data files without an index are
+     * left over from an interrupted seal or unseal and are deleted.
+     */
+    void load() {
+        indexes.clear();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(INDEX_SUFFIX)) {
+                MonthIndex index = readIndex(file);
+                if (index != null) {
+                    indexes.put(index.month, index);
+                }
+            }
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(DATA_SUFFIX) && !new File(directory, fileName.replace(DATA_SUFFIX, INDEX_SUFFIX))
+                    .exists()) {
+                file.delete();
+            }
+        }
+        updateGauges();
+    }
+
+    boolean isSealed(YearMonth month) {
+        return indexes.containsKey(month);
+    }
+
+    /**
+     * @return True if another process sealed the month since {@link #load()}.
+     */
+    boolean isSealedOnDisk(YearMonth month) {
+        return indexFile(month).exists();
+    }
+
+    MonthIndex getIndex(YearMonth month) {
+        return indexes.get(month);
+    }
+
+    /**
+     * @return The indexes of all sealed months, oldest first.
+     */
+    Collection<MonthIndex> getIndexes() {
+        return Collections.unmodifiableCollection(indexes.values());
+    }
+
+    /**
+     * Seals the records of a month into a compressed archive file and its
+     * index. Sealing a month again replaces its archive.
+     *
+     * @param month   The month.
+     * @param records All records of the month.
+     * @return The index of the month.
+     * @throws IOException If the archive could not be written.
+     */
+    MonthIndex seal(YearMonth month, List<HabitRecord> records) throws IOException {
+        long start = System.nanoTime();
+        directory.mkdirs();
+        MonthIndex index = new MonthIndex(month);
+        long[] rawBytes = new long[1];
+        File dataFile = dataFile(month);
+        AtomicFile.writeBytes(dataFile, out -> {
+            GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(gzip));
+            for (HabitRecord record : records) {
+                String line = record.toLine();
+                writer.write(line);
+                writer.newLine();
+                rawBytes[0] += line.length() + 1;
+                index.add(record);
+            }
+            writer.flush();
+            gzip.finish();
+        });
+        index.rawBytes = rawBytes[0];
+        index.compressedBytes = dataFile.length();
+        writeIndex(index);
+        indexes.put(month, index);
+        Metrics.increment("archive.sealed");
+        Metrics.recordSince("archive.seal", start);
+        updateGauges();
+        return index;
+    }
+
+    /**
+     * Decompresses the records of a sealed month.
+     *
+     * @param month The month.
+     * @return The records, in the order they were sealed.
+     */
+    List<HabitRecord> read(YearMonth month) {
+        long start = System.nanoTime();
+        List<HabitRecord> records = new ArrayList<>();
+        File file = dataFile(month);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new FileInputStream(file), 64 * 1024)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                HabitRecord record = HabitRecord.fromLine(line);
+                if (record != null) {
+                    records.add(record);
+                } else {
+                    System.out.println("Archive format is incorrect: " + line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        Metrics.recordFileRead(file.getPath());
+        Metrics.recordSince("archive.read", start);
+        return records;
+    }
+
+    /**
+     * Removes a sealed month from the archive, once its records are back in
+     * the live database.
+     *
+     * @param month The month.
+     */
+    void delete(YearMonth month) {
+        indexFile(month).delete();
+        dataFile(month).delete();
+        indexes.remove(month);
+        Metrics.increment("archive.unsealed");
+        updateGauges();
+    }
+
+    /**
+     * Drops a month from the sealed months without touching its files, after
+     * another process removed it from the archive.
+     *
+     * @param month The month.
+     */
+    void forget(YearMonth month) {
+        indexes.remove(month);
+        updateGauges();
+    }
+
+    private File dataFile(YearMonth month) {
+        return new File(directory, month + DATA_SUFFIX);
+    }
+
+    private File indexFile(YearMonth month) {
+        return new File(directory, month + INDEX_SUFFIX);
+    }
+
+    /**
+     * Writes the index: "records|completed|rawBytes|compressedBytes", then one
+     * "scheduled|completed|skipped|name" line of day masks per habit.
+     */
+    private void writeIndex(MonthIndex index) throws IOException {
+        AtomicFile.write(indexFile(index.month), writer -> {
+            writer.write(index.records + "|" + index.completedStatuses + "|" + index.rawBytes + "|"
+                    + index.compressedBytes);
+            writer.newLine();
+            for (Map.Entry<String, int[]> entry : index.habitMasks.entrySet()) {
+                int[] masks = entry.getValue();
+                writer.write(masks[0] + "|" + masks[1] + "|" + masks[2] + "|" + entry.getKey());
+                writer.newLine();
+            }
+        });
+    }
+
+    private MonthIndex readIndex(File file) {
+        String fileName = file.getName();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            MonthIndex index = new MonthIndex(YearMonth.parse(fileName.substring(0, fileName.length()
+                    - INDEX_SUFFIX.length())));
+            String[] header = reader.readLine().split("\\|");
+            index.records = Integer.parseInt(header[0]);
+            index.completedStatuses = Integer.parseInt(header[1]);
+            index.rawBytes = Long.parseLong(header[2]);
+            index.compressedBytes = Long.parseLong(header[3]);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|", 4);
+                int[] masks = { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]) };
+                index.habitMasks.put(parts[3], masks);
+                index.dayMask |= masks[0];
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Archive index format is incorrect: " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the estimated size of the month indexes to a memory report, as
+     * {@code archive.indexes}.
+     *
+     * @param report The report.
+     */
+    void reportMemory(MemoryReport report) {
+        long bytes = MemoryReport.treeMap(indexes.size());
+        for (MonthIndex index : indexes.values()) {
+            bytes += MemoryReport.YEAR_MONTH_BYTES + MemoryReport.object(2 * MemoryReport.REFERENCE_BYTES + 3 * 4
+                    + 2 * 8) + MemoryReport.treeMap(index.habitMasks.size());
+            for (String taskName : index.habitMasks.keySet()) {
+                bytes += report.string(taskName) + MemoryReport.array(3, 4);
+            }
+        }
+        report.add("archive.indexes", indexes.size(), bytes);
+    }
+
+    private void updateGauges() {
+        long raw = 0;
+        long compressed = 0;
+        for (MonthIndex index : indexes.values()) {
+            raw += index.rawBytes;
+            compressed += index.compressedBytes;
+        }
+        Metrics.setGauge("archive.months", indexes.size());
+        Metrics.setGauge("archive.rawBytes", raw);
+        Metrics.setGauge("archive.compressedBytes", compressed);
+    }
+}
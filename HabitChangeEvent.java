@@ -0,0 +1,158 @@
+import java.time.LocalDate;
+
+/**
+ * Base class of the change events published on the {@link HabitEventBus} each
+ * time a task is added, removed, progressed or given a status, or the rollups
+ * of a habit are removed.
+ *
+ * Every event names the date and task it applies to; for rollups, which span
+ * months, the date is the first day of the oldest one. The subclasses carry
+ * the delta, including the previous value where a listener needs it to keep a
+ * running aggregate.
+ */
+abstract class HabitChangeEvent {
+
+    private final LocalDate date;
+    private final String taskName;
+
+    HabitChangeEvent(LocalDate date, String taskName) {
+        this.date = date;
+        this.taskName = taskName;
+    }
+
+    LocalDate getDate() {
+        return date;
+    }
+
+    String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * Calls the listener method matching the type of this event.
+     *
+     * @param listener The listener to notify.
+     */
+    abstract void dispatchTo(HabitChangeListener listener);
+
+    /**
+     * A task was scheduled on a date.
+     */
+    static final class TaskAdded extends HabitChangeEvent {
+        private final int steps;
+
+        TaskAdded(LocalDate date, String taskName, int steps) {
+            super(date, taskName);
+            this.steps = steps;
+        }
+
+        int getSteps() {
+            return steps;
+        }
+
+        @Override
+        void dispatchTo(HabitChangeListener listener) {
+            listener.taskAdded(this);
+        }
+    }
+
+    /**
+     * A task was removed from a date, together with its status and progress.
+     */
+    static final class TaskRemoved extends HabitChangeEvent {
+        private final String previousStatus;
+
+        TaskRemoved(LocalDate date, String taskName, String previousStatus) {
+            super(date, taskName);
+            this.previousStatus = previousStatus;
+        }
+
+        String getPreviousStatus() {
+            return previousStatus;
+        }
+
+        @Override
+        void dispatchTo(HabitChangeListener listener) {
+            listener.taskRemoved(this);
+        }
+    }
+
+    /**
+     * The monthly rollups of a habit were removed, together with the days they
+     * count.
+     */
+    static final class RollupsRemoved extends HabitChangeEvent {
+        private final int completions;
+
+        RollupsRemoved(LocalDate date, String taskName, int completions) {
+            super(date, taskName);
+            this.completions = completions;
+        }
+
+        /**
+         * @return The number of completed days the rollups counted.
+         */
+        int getCompletions() {
+            return completions;
+        }
+
+        @Override
+        void dispatchTo(HabitChangeListener listener) {
+            listener.rollupsRemoved(this);
+        }
+    }
+
+    /**
+     * The progress of a task changed.
+     */
+    static final class ProgressChanged extends HabitChangeEvent {
+        private final float previousProgress;
+        private final float progress;
+
+        ProgressChanged(LocalDate date, String taskName, float previousProgress, float progress) {
+            super(date, taskName);
+            this.previousProgress = previousProgress;
+            this.progress = progress;
+        }
+
+        float getPreviousProgress() {
+            return previousProgress;
+        }
+
+        float getProgress() {
+            return progress;
+        }
+
+        @Override
+        void dispatchTo(HabitChangeListener listener) {
+            listener.progressChanged(this);
+        }
+    }
+
+    /**
+     * The status of a task changed, for example to "Completed" or "Skipped".
+     */
+    static final class StatusChanged extends HabitChangeEvent {
+        private final String previousStatus;
+        private final String status;
+
+        StatusChanged(LocalDate date, String taskName, String previousStatus, String status) {
+            super(date, taskName);
+            this.previousStatus = previousStatus;
+            this.status = status;
+        }
+
+        String getPreviousStatus() {
+            return previousStatus;
+        }
+
+        String getStatus() {
+            return status;
+        }
+
+        @Override
+        void dispatchTo(HabitChangeListener listener) {
+            listener.statusChanged(this);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Listener for the change events published on the {@link HabitEventBus}.
+ *
+ * The per-event methods are called on the event dispatch thread as soon as
+ * each change happens and should only apply the delta to the listener's own
+ * state. {@link #changesApplied()} is called once per frame after a burst of
+ * changes, and is where views revalidate and repaint.
+ */
+interface HabitChangeListener {
+
+    default void taskAdded(HabitChangeEvent.TaskAdded event) {
+    }
+
+    default void taskRemoved(HabitChangeEvent.TaskRemoved event) {
+    }
+
+    default void progressChanged(HabitChangeEvent.ProgressChanged event) {
+    }
+
+    default void statusChanged(HabitChangeEvent.StatusChanged event) {
+    }
+
+    default void rollupsRemoved(HabitChangeEvent.RollupsRemoved event) {
+    }
+
+    /**
+     * Called once after a burst of changes has been delivered.
+     */
+    default void changesApplied() {
+    }
+}
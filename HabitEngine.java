@@ -0,0 +1,1092 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The HabitEngine class is a small log-structured storage engine for habit
+ * records, keyed by (epoch day, habit name). It keeps the data of the
+ * {@link HabitStore} in the {@code habits.db} directory.
+ *
+ * A write is appended to a write-ahead log (a {@link HabitJournal}) and put
+ * into the memtable, a sorted in-memory map. When the memtable is large enough
+ * it is flushed to a new immutable {@link Segment} file and a new log is
+ * started. Nothing is ever rewritten in place.
+ *
+ * Reads merge the memtable with the segments, newest first, so the latest
+ * version of a key wins and deleted keys (tombstones) hide older versions. A
+ * range scan by date reads each segment sequentially from the block holding its
+ * first date.
+ *
+ * Once there are enough segments, a background thread merges them into one,
+ * dropping overwritten versions and tombstones. The MANIFEST file lists the live
+ * segments in order; it is replaced atomically, so after a crash the engine
+ * finds either the segments before a flush or merge or the ones after it, and
+ * files that are not listed are deleted when the engine is opened.
+ *
+ * Several processes may share the directory, for example two Wellnest windows.
+ * Every operation holds an exclusive {@link FileLock} on the LOCK file and
+ * first catches up: it reads the log from where this process stopped, picks up
+ * segments another process flushed or merged, and reports the changed keys to
+ * the {@link ExternalChangeListener}. A {@link WatchService} thread polls the
+ * same way when the files change, so other processes' writes show up without
+ * a local write and without a full reload.
+ *
+ * All public methods are thread-safe.
+ */
+class HabitEngine {
+
+    static final String MANIFEST_FILE_NAME = "MANIFEST";
+    static final String LOCK_FILE_NAME = "LOCK";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String LEGACY_LOG_FILE_NAME = "wal.log";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // Memtable entries, including tombstones, after which it is flushed
+    private static final int FLUSH_ENTRIES = 4096;
+    // Number of segments that triggers a background merge
+    private static final int MERGE_SEGMENTS = 4;
+    // Delay between a change in the directory and the poll it triggers
+    private static final long WATCH_SETTLE_MILLIS = 50;
+
+    private static final String PUT_ENTRY = "put";
+    private static final String DELETE_ENTRY = "del";
+
+    /**
+     * The key of a record: the date as an epoch day, then the habit name.
+     */
+    static final class Key implements Comparable<Key> {
+        static final long BYTES = MemoryReport.object(8 + MemoryReport.REFERENCE_BYTES);
+
+        final long epochDay;
+        final String name;
+
+        Key(long epochDay, String name) {
+            this.epochDay = epochDay;
+            this.name = name;
+        }
+
+        static Key of(LocalDate date, String name) {
+            return new Key(date.toEpochDay(), name);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byDay = Long.compare(epochDay, other.epochDay);
+            return byDay != 0 ? byDay : name.compareTo(other.name);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).epochDay == epochDay && ((Key) other).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(epochDay) * 31 + name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return LocalDate.ofEpochDay(epochDay) + "|" + name;
+        }
+    }
+
+    /**
+     * A key with its record; the record is null for a tombstone.
+     */
+    static final class Entry {
+        final Key key;
+        final HabitRecord record;
+
+        Entry(Key key, HabitRecord record) {
+            this.key = key;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Iterates over entries in key order. The record is null for a tombstone.
+     */
+    interface Cursor extends Closeable {
+        boolean next() throws IOException;
+
+        Key key();
+
+        HabitRecord record();
+    }
+
+    /**
+     * Receives the keys another process changed, found while catching up with
+     * the shared files. Called on an engine thread with the engine locked, so it
+     * must not call back into the engine directly.
+     */
+    interface ExternalChangeListener {
+        /**
+         * @param keys The changed keys, or null if the engine lost track and
+         *             any key may have changed.
+         */
+        void externalChanges(Set<Key> keys);
+    }
+
+    /**
+     * The content of the MANIFEST file.
+     */
+    private static final class Manifest {
+        long nextSegmentId = 1;
+        long logNumber;
+        final List<String> segmentNames = new ArrayList<>();
+    }
+
+    private final File directory;
+    private final File manifestFile;
+    private final HabitJournal log;
+
+    // Guarded by this
+    private TreeMap<Key, HabitRecord> memtable = new TreeMap<>();
+    private final List<Segment> segments = new ArrayList<>(); // Oldest first
+    private long nextSegmentId = 1;
+    private long logNumber;
+    private long logOffset; // Bytes of the current log applied to the memtable
+    private long manifestStamp;
+    private FileChannel lockChannel;
+    private ExternalChangeListener externalChangeListener;
+    private WatchService watchService;
+    private boolean merging;
+    private boolean closed;
+    private long bloomLookups;
+    private long bloomNegatives;
+    private long bloomFalsePositives;
+
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wellnest-segment-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs an engine for the given directory. Call {@link #open()} before
+     * using it.
+     *
+     * @param directory The database directory; created if it does not exist.
+     */
+    HabitEngine(File directory) {
+        this.directory = directory;
+        this.manifestFile = new File(directory, MANIFEST_FILE_NAME);
+        this.log = HabitJournal.fromSystemProperties(logFile(0));
+    }
+
+    void setExternalChangeListener(ExternalChangeListener listener) {
+        this.externalChangeListener = listener;
+    }
+
+    /**
+     * Opens the database: reads the manifest and the indexes of its segments,
+     * deletes files left over by an interrupted flush or merge, replays the
+     * write-ahead log into the memtable and starts watching the directory for
+     * changes made by other processes.
+     *
+     * @return True if the database already existed, false if it is new.
+     */
+    @SuppressWarnings("try")
+    synchronized boolean open() {
+        directory.mkdirs();
+        boolean existed = false;
+        try {
+            lockChannel = FileChannel.open(new File(directory, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+
+        try (FileLock lock = acquireLock()) {
+            Manifest manifest = readManifest();
+            existed = manifest != null;
+            Set<String> listed = new HashSet<>();
+            if (manifest != null) {
+                reloadSegments(manifest);
+                logNumber = manifest.logNumber;
+                listed.addAll(manifest.segmentNames);
+            }
+
+            // Databases written before the log was rotated have a single wal.log
+            File unnumberedLog = new File(directory, LEGACY_LOG_FILE_NAME);
+            if (unnumberedLog.exists() && !logFile(logNumber).exists()) {
+                unnumberedLog.renameTo(logFile(logNumber));
+            }
+
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String fileName = file.getName();
+                    boolean orphanSegment = fileName.startsWith(SEGMENT_PREFIX) && !listed.contains(fileName);
+                    boolean oldLog = fileName.startsWith(LOG_PREFIX) && logNumberOf(fileName) < logNumber - 1;
+                    if (orphanSegment || oldLog || fileName.endsWith(AtomicFile.TEMP_SUFFIX)) {
+                        file.delete();
+                    }
+                }
+            }
+
+            log.rotate(logFile(logNumber));
+            logOffset = replay(logFile(logNumber), 0, null);
+            dropTornEntry();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        updateGauges();
+        startWatcher();
+        return existed;
+    }
+
+    /**
+     * Inserts or replaces a record.
+     *
+     * @param record The record; the engine keeps a copy.
+     */
+    @SuppressWarnings("try")
+    synchronized void put(HabitRecord record) {
+        try (FileLock lock = lockAndCatchUp()) {
+            append(PUT_ENTRY + "|" + record.toLine());
+            memtable.put(Key.of(record.getDate(), record.getName()), record.copy());
+            flushIfFull();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    /**
+     * Deletes a record.
+     *
+     * @param date     The date of the record.
+     * @param taskName The habit name of the record.
+     */
+    @SuppressWarnings("try")
+    synchronized void delete(LocalDate date, String taskName) {
+        try (FileLock lock = lockAndCatchUp()) {
+            append(DELETE_ENTRY + "|" + date + "|" + taskName);
+            memtable.put(Key.of(date, taskName), null);
+            flushIfFull();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    /**
+     * Puts and deletes a batch of records under one lock, with a single append
+     * to the write-ahead log and at most one sync.
+     *
+     * @param entries The entries in the order they were made; an entry without
+     *                a record deletes its key. The engine keeps copies.
+     */
+    @SuppressWarnings("try")
+    synchronized void write(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        try (FileLock lock = lockAndCatchUp()) {
+            List<String> lines = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                lines.add(entry.record != null ? PUT_ENTRY + "|" + entry.record.toLine()
+                        : DELETE_ENTRY + "|" + entry.key);
+            }
+            log.appendAll(lines);
+            logOffset = log.length();
+            for (Entry entry : entries) {
+                memtable.put(entry.key, entry.record != null ? entry.record.copy() : null);
+            }
+            flushIfFull();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    /**
+     * Applies the entries of a journal written by an earlier version of the
+     * store, as if they had been put or deleted now.
+     *
+     * @param journalFile The journal file.
+     * @return The number of entries applied.
+     */
+    @SuppressWarnings("try")
+    synchronized int importJournal(File journalFile) {
+        List<String> entries = new ArrayList<>();
+        HabitJournal.readEntries(journalFile, 0, entries);
+        int applied = 0;
+        try (FileLock lock = lockAndCatchUp()) {
+            for (String entry : entries) {
+                if (applyLogEntry(entry, null)) {
+                    append(entry);
+                    applied++;
+                }
+            }
+            flushIfFull();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        return applied;
+    }
+
+    /**
+     * Looks up several records at once.
+     *
+     * @param keys The keys to look up.
+     * @return Copies of the records by key; the value is null for a key that has
+     *         no record.
+     */
+    @SuppressWarnings("try")
+    synchronized Map<Key, HabitRecord> getAll(Collection<Key> keys) {
+        Map<Key, HabitRecord> records = new HashMap<>();
+        try (FileLock lock = lockAndCatchUp()) {
+            for (Key key : keys) {
+                records.put(key, find(key));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        return records;
+    }
+
+    private HabitRecord find(Key key) {
+        if (memtable.containsKey(key)) {
+            HabitRecord record = memtable.get(key);
+            return record != null ? record.copy() : null;
+        }
+        HabitRecord found = null;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            bloomLookups++;
+            if (!segment.mightContain(key)) {
+                bloomNegatives++;
+                continue;
+            }
+            try {
+                Entry entry = segment.find(key);
+                if (entry != null) {
+                    found = entry.record;
+                    break;
+                }
+                bloomFalsePositives++;
+            } catch (IOException e) {
+                e.printStackTrace();
+                Metrics.increment("io.errors");
+            }
+        }
+        updateBloomMetrics();
+        return found;
+    }
+
+    /**
+     * Publishes how often segment filters answer a lookup without reading the
+     * file, and how often a filter lets a lookup through for a key the segment
+     * does not hold. Rates are in per mille of segment lookups.
+     */
+    private void updateBloomMetrics() {
+        Metrics.setGauge("bloom.lookups", bloomLookups);
+        Metrics.setGauge("bloom.negatives", bloomNegatives);
+        Metrics.setGauge("bloom.falsePositives", bloomFalsePositives);
+        if (bloomLookups > 0) {
+            Metrics.setGauge("bloom.negativeRatePermille", bloomNegatives * 1000 / bloomLookups);
+            Metrics.setGauge("bloom.falsePositiveRatePermille", bloomFalsePositives * 1000 / bloomLookups);
+        }
+    }
+
+    /**
+     * Returns the records between two dates, inclusive, by date and then by
+     * habit name.
+     *
+     * @param from The first date.
+     * @param to   The last date.
+     * @return The records; the caller may change them.
+     */
+    synchronized List<HabitRecord> scan(LocalDate from, LocalDate to) {
+        List<HabitRecord> records = new ArrayList<>();
+        scan(Key.of(from, ""), to.toEpochDay(), records::add);
+        return records;
+    }
+
+    /**
+     * Passes every record to the consumer, by date and then by habit name.
+     *
+     * @param consumer Receives the records; it may keep and change them.
+     */
+    synchronized void forEach(Consumer<HabitRecord> consumer) {
+        scan(new Key(Long.MIN_VALUE, ""), Long.MAX_VALUE, consumer);
+    }
+
+    @SuppressWarnings("try")
+    private void scan(Key from, long toEpochDay, Consumer<HabitRecord> consumer) {
+        long start = System.nanoTime();
+        List<Cursor> sources = new ArrayList<>();
+        try (FileLock lock = lockAndCatchUp()) {
+            sources.add(new MemtableCursor(memtable.tailMap(from, true).entrySet().iterator()));
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                if (segments.get(i).overlaps(from.epochDay, toEpochDay)) {
+                    sources.add(segments.get(i).cursor(from));
+                }
+            }
+            try (Cursor cursor = new MergingCursor(sources)) {
+                while (cursor.next() && cursor.key().epochDay <= toEpochDay) {
+                    if (cursor.record() != null) {
+                        consumer.accept(cursor.record().copy());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+            closeQuietly(sources);
+        }
+        Metrics.recordSince("engine.scan", start);
+    }
+
+    /**
+     * Writes the memtable to a new segment and starts a new write-ahead log.
+     */
+    @SuppressWarnings("try")
+    synchronized void flush() {
+        try (FileLock lock = lockAndCatchUp()) {
+            flushLocked();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    /**
+     * Flushes the memtable and merges all segments into one on the merge
+     * thread, which drops deleted records. Used after a large share of the
+     * records was deleted at once.
+     */
+    synchronized void compact() {
+        flush();
+        if (!segments.isEmpty() && !merging && !closed) {
+            merging = true;
+            merger.execute(this::merge);
+        }
+    }
+
+    /**
+     * Picks up changes another process made to the shared files. Called by the
+     * directory watcher; cheap when nothing changed.
+     */
+    @SuppressWarnings("try")
+    synchronized void poll() {
+        if (closed || (manifestFile.lastModified() == manifestStamp && logFile(logNumber).length() == logOffset)) {
+            return;
+        }
+        try (FileLock lock = lockAndCatchUp()) {
+            // Catching up is all there is to do
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    /**
+     * Stops watching the directory, syncs the write-ahead log and waits for a
+     * running merge to finish. The memtable is not flushed; the log already
+     * holds it.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        merger.shutdown();
+        try {
+            merger.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        synchronized (this) {
+            if (lockChannel != null) {
+                try {
+                    lockChannel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Adds the estimated size of the memtable, as {@code engine.memtable},
+     * and of the segment indexes and Bloom filters, as
+     * {@code engine.segments}, to a memory report.
+     *
+     * @param report The report.
+     */
+    synchronized void reportMemory(MemoryReport report) {
+        long bytes = MemoryReport.treeMap(memtable.size());
+        for (Map.Entry<Key, HabitRecord> entry : memtable.entrySet()) {
+            bytes += Key.BYTES + report.string(entry.getKey().name);
+            if (entry.getValue() != null) {
+                bytes += report.record(entry.getValue());
+            }
+        }
+        report.add("engine.memtable", memtable.size(), bytes);
+        long segmentBytes = MemoryReport.ARRAY_LIST_BYTES + MemoryReport.array(segments.size(),
+                MemoryReport.REFERENCE_BYTES);
+        for (Segment segment : segments) {
+            segmentBytes += segment.estimateBytes(report);
+        }
+        report.add("engine.segments", segments.size(), segmentBytes);
+    }
+
+    private void append(String entry) {
+        log.append(entry);
+        logOffset = log.length();
+    }
+
+    private void flushIfFull() {
+        if (memtable.size() >= FLUSH_ENTRIES) {
+            flushLocked();
+        }
+    }
+
+    /**
+     * Writes the memtable to a new segment, then lists the segment and the next
+     * log in the manifest. The log before the current one is deleted; it is kept
+     * until then so a process that is one flush behind can still read its tail.
+     * Must be called with the file lock held.
+     */
+    private void flushLocked() {
+        if (memtable.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        File output = segmentFile(nextSegmentId++);
+        StoreOperationEvent event = StoreOperationEvent.start("flush", output.getPath());
+        int entries = memtable.size();
+        try {
+            Segment segment = Segment.write(output,
+                    new MemtableCursor(memtable.entrySet().iterator()), entries, segments.isEmpty());
+            segments.add(segment);
+            logNumber++;
+            try {
+                writeManifest();
+            } catch (IOException e) {
+                segments.remove(segment);
+                logNumber--;
+                throw e;
+            }
+            log.rotate(logFile(logNumber));
+            logOffset = 0;
+            logFile(logNumber - 2).delete();
+            memtable = new TreeMap<>();
+            Metrics.increment("engine.flushes");
+        } catch (IOException e) {
+            // The log still holds every entry, so nothing is lost
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        Metrics.recordSince("engine.flush", start);
+        updateGauges();
+        event.finish(entries);
+
+        if (segments.size() >= MERGE_SEGMENTS && !merging && !closed) {
+            merging = true;
+            merger.execute(this::merge);
+        }
+    }
+
+    /**
+     * Merges every segment that exists when it starts into one. The merge itself
+     * runs on the merge thread without holding any lock; segments are
+     * immutable, and only the swap at the end is done under the locks. Segments
+     * flushed meanwhile are newer than the merged one and are kept after it. If
+     * another process merged the same segments first, the result is dropped.
+     */
+    @SuppressWarnings("try")
+    private void merge() {
+        long start = System.nanoTime();
+        List<Segment> inputs;
+        File output;
+        int expectedEntries = 0;
+        synchronized (this) {
+            try (FileLock lock = lockAndCatchUp()) {
+                inputs = new ArrayList<>(segments);
+                // Reserve the segment number so no other process can use it
+                output = segmentFile(nextSegmentId++);
+                writeManifest();
+            } catch (IOException e) {
+                e.printStackTrace();
+                Metrics.increment("io.errors");
+                merging = false;
+                return;
+            }
+        }
+        for (Segment input : inputs) {
+            expectedEntries += input.getEntryCount();
+        }
+        StoreOperationEvent event = StoreOperationEvent.start("merge", output.getPath());
+
+        Segment merged = null;
+        List<Cursor> sources = new ArrayList<>();
+        try {
+            for (int i = inputs.size() - 1; i >= 0; i--) {
+                sources.add(inputs.get(i).cursor(new Key(Long.MIN_VALUE, "")));
+            }
+            // The inputs include the oldest segment, so tombstones can go
+            try (Cursor cursor = new MergingCursor(sources)) {
+                merged = Segment.write(output, cursor, expectedEntries, true);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+            closeQuietly(sources);
+        }
+
+        synchronized (this) {
+            merging = false;
+            if (merged == null) {
+                return;
+            }
+            try (FileLock lock = lockAndCatchUp()) {
+                if (!segments.containsAll(inputs) || !output.exists()) {
+                    output.delete();
+                    return;
+                }
+                segments.removeAll(inputs);
+                segments.add(0, merged);
+                try {
+                    writeManifest();
+                } catch (IOException e) {
+                    // The manifest still lists the inputs; the merged file is an orphan
+                    segments.remove(merged);
+                    segments.addAll(0, inputs);
+                    throw e;
+                }
+                for (Segment input : inputs) {
+                    input.getFile().delete();
+                }
+                Metrics.increment("engine.merges");
+                Metrics.recordSince("engine.merge", start);
+                event.finish(merged.getEntryCount());
+            } catch (IOException e) {
+                e.printStackTrace();
+                Metrics.increment("io.errors");
+            }
+            updateGauges();
+        }
+    }
+
+    /**
+     * Takes the cross-process file lock, then applies whatever other processes
+     * wrote since this one last looked and tells the listener which keys they
+     * changed. Every read and write of the shared files happens between this
+     * call and closing the returned lock. The callers hold the lock in a
+     * try-with-resources block that does not use it otherwise, so they
+     * suppress the {@code try} lint warning.
+     *
+     * @return The lock, or null if the lock file could not be opened.
+     */
+    private FileLock lockAndCatchUp() throws IOException {
+        FileLock lock = acquireLock();
+        Set<Key> changed = new HashSet<>();
+        Manifest manifest = readManifest();
+        if (manifest != null && manifest.logNumber != logNumber) {
+            if (manifest.logNumber == logNumber + 1) {
+                // Another process flushed; finish reading the log it flushed
+                replay(logFile(logNumber), logOffset, changed);
+            } else {
+                // Too far behind to know what changed
+                changed = null;
+            }
+            memtable = new TreeMap<>();
+            logNumber = manifest.logNumber;
+            logOffset = 0;
+            log.rotate(logFile(logNumber));
+        }
+        if (manifest != null) {
+            reloadSegments(manifest);
+        }
+        logOffset = replay(logFile(logNumber), logOffset, changed);
+        dropTornEntry();
+
+        if (changed == null || !changed.isEmpty()) {
+            Metrics.increment("engine.externalChanges", changed != null ? changed.size() : 1);
+            if (externalChangeListener != null) {
+                externalChangeListener.externalChanges(changed);
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Cuts off a last log entry without its line separator. Entries are
+     * appended whole under the file lock, so with the lock held such a tail is
+     * left by a process that crashed while appending; the next append would
+     * otherwise run into it and both entries would be lost. Must be called
+     * with the file lock held, after the log was replayed. Nothing is cut if
+     * complete entries follow the replayed offset, as after a failed read, or
+     * if the tail cannot be read.
+     */
+    private void dropTornEntry() {
+        try {
+            if (HabitJournal.truncateTornEntry(logFile(logNumber), logOffset)) {
+                Metrics.increment("engine.tornEntries");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    private FileLock acquireLock() throws IOException {
+        if (lockChannel == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        FileLock lock = lockChannel.lock();
+        Metrics.recordSince("engine.lockWait", start);
+        return lock;
+    }
+
+    /**
+     * Applies the complete log entries from an offset on to the memtable.
+     *
+     * @param changed Receives the keys of the applied entries; may be null.
+     * @return The offset after the last complete entry.
+     */
+    private long replay(File logFile, long offset, Set<Key> changed) {
+        List<String> entries = new ArrayList<>();
+        long end = HabitJournal.readEntries(logFile, offset, entries);
+        for (String entry : entries) {
+            if (!applyLogEntry(entry, changed)) {
+                System.out.println("Log entry format is incorrect: " + entry);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return The manifest, or null if the database has none yet.
+     */
+    private Manifest readManifest() throws IOException {
+        if (!manifestFile.exists()) {
+            return null;
+        }
+        long stamp = manifestFile.lastModified();
+        Manifest manifest = new Manifest();
+        try (BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("next ")) {
+                    manifest.nextSegmentId = Long.parseLong(line.substring(5));
+                } else if (line.startsWith("log ")) {
+                    manifest.logNumber = Long.parseLong(line.substring(4));
+                } else if (line.startsWith("segment ")) {
+                    manifest.segmentNames.add(line.substring(8));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Manifest is corrupt: " + manifestFile, e);
+        }
+        manifestStamp = stamp;
+        return manifest;
+    }
+
+    /**
+     * Makes the segment list match the manifest, keeping the segments that are
+     * already open.
+     */
+    private void reloadSegments(Manifest manifest) throws IOException {
+        nextSegmentId = Math.max(nextSegmentId, manifest.nextSegmentId);
+        List<String> current = new ArrayList<>();
+        for (Segment segment : segments) {
+            current.add(segment.getFile().getName());
+        }
+        if (current.equals(manifest.segmentNames)) {
+            return;
+        }
+        Map<String, Segment> open = new HashMap<>();
+        for (Segment segment : segments) {
+            open.put(segment.getFile().getName(), segment);
+        }
+        List<Segment> reloaded = new ArrayList<>();
+        for (String name : manifest.segmentNames) {
+            Segment segment = open.get(name);
+            reloaded.add(segment != null ? segment : Segment.open(new File(directory, name)));
+        }
+        segments.clear();
+        segments.addAll(reloaded);
+        updateGauges();
+    }
+
+    private void writeManifest() throws IOException {
+        AtomicFile.write(manifestFile, writer -> {
+            writer.write("next " + nextSegmentId);
+            writer.newLine();
+            writer.write("log " + logNumber);
+            writer.newLine();
+            for (Segment segment : segments) {
+                writer.write("segment " + segment.getFile().getName());
+                writer.newLine();
+            }
+        });
+        manifestStamp = manifestFile.lastModified();
+    }
+
+    /**
+     * Watches the database directory on a daemon thread and polls whenever a
+     * log or the manifest changes. Changes made by this process trigger a poll
+     * as well, which returns at once.
+     */
+    private void startWatcher() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        WatchService service = watchService;
+        Thread thread = new Thread(() -> watch(service), "wellnest-db-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch(WatchService service) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+                // Let a burst of appends settle into one poll
+                Thread.sleep(WATCH_SETTLE_MILLIS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            boolean relevant = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                String fileName = String.valueOf(event.context());
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.startsWith(LOG_PREFIX)
+                        || fileName.equals(MANIFEST_FILE_NAME)) {
+                    relevant = true;
+                }
+            }
+            if (!key.reset()) {
+                return;
+            }
+            if (relevant) {
+                poll();
+            }
+        }
+    }
+
+    private File logFile(long number) {
+        return new File(directory, String.format("%s%06d%s", LOG_PREFIX, number, LOG_SUFFIX));
+    }
+
+    private static long logNumberOf(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(LOG_PREFIX.length(), fileName.length() - LOG_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Applies one "put|record" or "del|date|name" log entry to the memtable.
+     *
+     * @param changed Receives the key of the entry; may be null.
+     * @return False if the entry is malformed.
+     */
+    private boolean applyLogEntry(String entry, Set<Key> changed) {
+        if (entry.startsWith(PUT_ENTRY + "|")) {
+            HabitRecord record = HabitRecord.fromLine(entry.substring(PUT_ENTRY.length() + 1));
+            if (record != null) {
+                Key key = Key.of(record.getDate(), record.getName());
+                memtable.put(key, record);
+                if (changed != null) {
+                    changed.add(key);
+                }
+                return true;
+            }
+        } else if (entry.startsWith(DELETE_ENTRY + "|")) {
+            String[] parts = entry.substring(DELETE_ENTRY.length() + 1).split("\\|", 2);
+            if (parts.length == 2) {
+                try {
+                    Key key = Key.of(LocalDate.parse(parts[0]), parts[1]);
+                    memtable.put(key, null);
+                    if (changed != null) {
+                        changed.add(key);
+                    }
+                    return true;
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void updateGauges() {
+        Metrics.setGauge("engine.segments", segments.size());
+        Metrics.setGauge("engine.memtable", memtable.size());
+    }
+
+    private static void closeQuietly(List<Cursor> cursors) {
+        for (Cursor cursor : cursors) {
+            try {
+                cursor.close();
+            } catch (IOException e) {
+                // Already failing
+            }
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of memtable entries.
+     */
+    private static class MemtableCursor implements Cursor {
+        private final Iterator<Map.Entry<Key, HabitRecord>> entries;
+        private Map.Entry<Key, HabitRecord> current;
+
+        MemtableCursor(Iterator<Map.Entry<Key, HabitRecord>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean next() {
+            current = entries.hasNext() ? entries.next() : null;
+            return current != null;
+        }
+
+        @Override
+        public Key key() {
+            return current.getKey();
+        }
+
+        @Override
+        public HabitRecord record() {
+            return current.getValue();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Merges sorted cursors into one. The sources are given newest first; when
+     * several hold the same key, the newest entry is returned and the others are
+     * skipped.
+     */
+    private static class MergingCursor implements Cursor {
+        private final PriorityQueue<Source> queue = new PriorityQueue<>(
+                Comparator.<Source, Key>comparing(source -> source.cursor.key()).thenComparingInt(source -> source.age));
+        private final List<Cursor> all;
+        private Key key;
+        private HabitRecord record;
+
+        private static class Source {
+            final Cursor cursor;
+            final int age;
+
+            Source(Cursor cursor, int age) {
+                this.cursor = cursor;
+                this.age = age;
+            }
+        }
+
+        MergingCursor(List<Cursor> newestFirst) throws IOException {
+            this.all = newestFirst;
+            for (int i = 0; i < newestFirst.size(); i++) {
+                Source source = new Source(newestFirst.get(i), i);
+                if (source.cursor.next()) {
+                    queue.add(source);
+                }
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            Source top = queue.poll();
+            if (top == null) {
+                return false;
+            }
+            key = top.cursor.key();
+            record = top.cursor.record();
+            advance(top);
+            while (!queue.isEmpty() && queue.peek().cursor.key().equals(key)) {
+                advance(queue.poll());
+            }
+            return true;
+        }
+
+        private void advance(Source source) throws IOException {
+            if (source.cursor.next()) {
+                queue.add(source);
+            }
+        }
+
+        @Override
+        public Key key() {
+            return key;
+        }
+
+        @Override
+        public HabitRecord record() {
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Cursor cursor : all) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * The HabitEventBus class delivers {@link HabitChangeEvent}s to the views and
+ * aggregators that keep state derived from the task databases.
+ *
+ * Events are always delivered on the event dispatch thread, in the order they
+ * were published. Bursts are coalesced: listeners get each delta right away,
+ * but {@link HabitChangeListener#changesApplied()} runs only once per frame,
+ * so a thousand changes in a row lead to a single revalidate and repaint.
+ */
+class HabitEventBus {
+
+    private static final int FRAME_MILLIS = 16;
+
+    private final List<HabitChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Timer frameTimer;
+
+    HabitEventBus() {
+        frameTimer = new Timer(FRAME_MILLIS, e -> endFrame());
+        frameTimer.setRepeats(false);
+    }
+
+    void addListener(HabitChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(HabitChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes an event. If called off the event dispatch thread, the event is
+     * handed over to it.
+     *
+     * @param event The change that happened.
+     */
+    void publish(HabitChangeEvent event) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            deliver(event);
+        } else {
+            SwingUtilities.invokeLater(() -> deliver(event));
+        }
+    }
+
+    private void deliver(HabitChangeEvent event) {
+        Metrics.increment("bus.events");
+        for (HabitChangeListener listener : listeners) {
+            event.dispatchTo(listener);
+        }
+        if (!frameTimer.isRunning()) {
+            frameTimer.start();
+        }
+    }
+
+    private void endFrame() {
+        Metrics.increment("bus.frames");
+        for (HabitChangeListener listener : listeners) {
+            listener.changesApplied();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HabitJournal class is an append-only log of changes that are not yet
+ * part of a larger data file. The {@link HabitEngine} uses it as its
+ * write-ahead log. Appending one short line is much cheaper than rewriting
+ * every record, and replaying the journal on the next start restores the
+ * changes.
+ *
+ * Appends go straight to the operating system, so a crash of the application
+ * loses nothing. Whether they also survive a power loss depends on the sync
+ * policy, set with {@code -Dwellnest.fsync}:
+ * <ul>
+ * <li>{@code always}: every append is forced to disk before it returns.</li>
+ * <li>{@code interval} (default): a background thread forces the journal every
+ * {@code -Dwellnest.fsync.intervalMs} milliseconds (100 by default) if anything
+ * was appended, so a burst of changes shares one sync. At most one interval of
+ * changes can be lost.</li>
+ * <li>{@code os}: the journal is never forced; the operating system writes it
+ * back when it sees fit.</li>
+ * </ul>
+ */
+class HabitJournal {
+
+    enum SyncPolicy {
+        ALWAYS, INTERVAL, OS
+    }
+
+    private final SyncPolicy policy;
+    private final long intervalMillis;
+
+    // Guarded by this
+    private File file;
+    private FileChannel channel;
+    private boolean dirty;
+
+    private ScheduledExecutorService syncer;
+
+    /**
+     * Constructs a journal for the given file.
+     *
+     * @param file           The journal file.
+     * @param policy         When appended entries are forced to disk.
+     * @param intervalMillis The sync interval of the {@code INTERVAL} policy.
+     */
+    HabitJournal(File file, SyncPolicy policy, long intervalMillis) {
+        this.file = file;
+        this.policy = policy;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Constructs a journal with the policy given by the {@code wellnest.fsync}
+     * and {@code wellnest.fsync.intervalMs} system properties.
+     *
+     * @param file The journal file.
+     * @return The journal.
+     */
+    static HabitJournal fromSystemProperties(File file) {
+        SyncPolicy policy;
+        try {
+            policy = SyncPolicy.valueOf(System.getProperty("wellnest.fsync", "interval").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown fsync policy, using interval: " + System.getProperty("wellnest.fsync"));
+            policy = SyncPolicy.INTERVAL;
+        }
+        return new HabitJournal(file, policy, Long.getLong("wellnest.fsync.intervalMs", 100));
+    }
+
+    SyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return The length of the journal file in bytes.
+     */
+    synchronized long length() {
+        return file.length();
+    }
+
+    /**
+     * Reads the complete entries of a journal file from a byte offset on. A last
+     * line without a line separator, cut short by a crash or still being
+     * written by another process, is left for the next read.
+     *
+     * @param file    The journal file.
+     * @param offset  The offset to start at, just after an earlier entry.
+     * @param entries Receives the entries in the order they were appended.
+     * @return The offset after the last entry read.
+     */
+    static long readEntries(File file, long offset, List<String> entries) {
+        if (!file.exists()) {
+            return 0;
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size <= offset) {
+                return size < offset ? 0 : offset;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+            while (buffer.hasRemaining() && in.read(buffer, offset + buffer.position()) >= 0) {
+                // Read until the buffer is full
+            }
+            byte[] bytes = buffer.array();
+            int lineStart = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] == '\n') {
+                    entries.add(new String(bytes, lineStart, i - lineStart));
+                    lineStart = i + 1;
+                }
+            }
+            Metrics.increment("file." + file.getPath() + ".bytesRead", lineStart);
+            return offset + lineStart;
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+            return offset;
+        }
+    }
+
+    /**
+     * Cuts a torn last entry, one a crash left without its line separator, off
+     * a journal file. The file is only cut if everything after the offset was
+     * read and holds no line separator: after a failed read the offset may lie
+     * before complete entries, which must be kept. Appends continue at the new
+     * end.
+     *
+     * @param file   The journal file.
+     * @param offset The offset after the last complete entry read.
+     * @return True if a torn entry was cut off.
+     * @throws IOException If the file cannot be read or truncated; it is left as
+     *                     it was.
+     */
+    static boolean truncateTornEntry(File file, long offset) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size <= offset) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            for (long position = offset; position < size; position += buffer.position()) {
+                buffer.clear();
+                if (channel.read(buffer, position) < 0) {
+                    return false; // Shorter than it was a moment ago; nothing is cut
+                }
+                for (int i = 0; i < buffer.position(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        return false; // A complete entry follows; the offset is stale
+                    }
+                }
+            }
+            channel.truncate(offset);
+            channel.force(false);
+            return true;
+        }
+    }
+
+    /**
+     * Appends one entry and, depending on the policy, forces it to disk.
+     *
+     * @param entry The entry, without a line separator.
+     */
+    void append(String entry) {
+        appendAll(Collections.singletonList(entry));
+    }
+
+    /**
+     * Appends several entries with a single write and, depending on the
+     * policy, forces them to disk together.
+     *
+     * @param entries The entries, without line separators.
+     */
+    synchronized void appendAll(List<String> entries) {
+        long start = System.nanoTime();
+        StringBuilder text = new StringBuilder();
+        for (String entry : entries) {
+            text.append(entry).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes();
+        try {
+            FileChannel out = openChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            if (policy == SyncPolicy.ALWAYS) {
+                out.force(false);
+                Metrics.increment("journal.syncs");
+            } else {
+                dirty = true;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        Metrics.increment("journal.entries", entries.size());
+        Metrics.increment("file." + file.getPath() + ".bytesWritten", bytes.length);
+        Metrics.recordSince("io.journal.append", start);
+    }
+
+    /**
+     * Forces the entries appended since the last sync to disk. Entries appended
+     * while the sync runs are picked up by the next one.
+     */
+    void sync() {
+        FileChannel toSync;
+        synchronized (this) {
+            if (!dirty || channel == null) {
+                return;
+            }
+            dirty = false;
+            toSync = channel;
+        }
+        long start = System.nanoTime();
+        try {
+            toSync.force(false);
+            Metrics.increment("journal.syncs");
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        Metrics.recordSince("io.journal.sync", start);
+    }
+
+    /**
+     * Syncs and closes the current file and continues in a new one. The
+     * background sync thread and the policy carry over.
+     *
+     * @param newFile The file to append to from now on.
+     */
+    synchronized void rotate(File newFile) {
+        if (newFile.equals(file)) {
+            return;
+        }
+        if (channel != null) {
+            try {
+                if (dirty) {
+                    channel.force(false);
+                }
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                Metrics.increment("io.errors");
+            }
+            channel = null;
+        }
+        dirty = false;
+        file = newFile;
+    }
+
+    /**
+     * Atomically replaces the content of the journal, for example with a
+     * compacted copy, and appends to the new file from then on.
+     *
+     * @param content Writes the new content, complete lines only.
+     * @throws IOException If the content could not be written. The file is left
+     *                     as it was.
+     */
+    synchronized void replace(AtomicFile.ContentWriter content) throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        dirty = false;
+        AtomicFile.write(file, content);
+    }
+
+    /**
+     * Syncs and closes the journal and stops the background sync thread.
+     */
+    void close() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = syncer;
+            syncer = null;
+        }
+        if (stopping != null) {
+            stopping.shutdown();
+        }
+        sync();
+        synchronized (this) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                channel = null;
+            }
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            if (policy == SyncPolicy.INTERVAL && syncer == null) {
+                startSyncer();
+            }
+        }
+        return channel;
+    }
+
+    private void startSyncer() {
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wellnest-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::sync, "wellnest-journal-final-sync"));
+    }
+}
@@ -0,0 +1,115 @@
+import java.time.LocalDate;
+
+/**
+ * The HabitRecord class is the single record the {@link HabitStore} keeps for
+ * one task on one date: how many steps it has, how far it has progressed and
+ * its status.
+ *
+ * Records are only changed through the store, so a change to several fields
+ * (for example completing a task, which sets both progress and status) is one
+ * update and one write.
+ */
+class HabitRecord {
+
+    private final LocalDate date;
+    private final String name;
+    private int steps;
+    private float progress;
+    private String status;
+
+    HabitRecord(LocalDate date, String name, int steps, float progress, String status) {
+        this.date = date;
+        this.name = name;
+        this.steps = steps;
+        this.progress = progress;
+        this.status = status;
+    }
+
+    /**
+     * @return A copy of the record that later changes to this one do not affect.
+     */
+    HabitRecord copy() {
+        return new HabitRecord(date, name, steps, progress, status);
+    }
+
+    LocalDate getDate() {
+        return date;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getSteps() {
+        return steps;
+    }
+
+    void setSteps(int steps) {
+        this.steps = steps;
+    }
+
+    float getProgress() {
+        return progress;
+    }
+
+    void setProgress(float progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @return The status of the task ("Completed" or "Skipped"), or null if it
+     *         has none yet.
+     */
+    String getStatus() {
+        return status;
+    }
+
+    void setStatus(String status) {
+        this.status = status;
+    }
+
+    boolean isCompleted() {
+        return progress >= 100.0f || "Completed".equals(status);
+    }
+
+    /**
+     * Tells whether a task name can be stored. The fields of a line are
+     * separated by '|' and the lines by line separators, without escaping, so
+     * a name holding either could not be read back.
+     *
+     * @param name The task name.
+     * @return False if the name is blank or holds '|' or a line separator.
+     */
+    static boolean isValidName(String name) {
+        return !name.trim().isEmpty() && name.indexOf('|') < 0 && name.indexOf('\n') < 0 && name.indexOf('\r') < 0;
+    }
+
+    /**
+     * Formats the record as one line of the habits file:
+     * "date|name|steps|progress|status", with an empty status if it has none.
+     *
+     * @return The line, without a line separator.
+     */
+    String toLine() {
+        return date + "|" + name + "|" + steps + "|" + progress + "|" + (status != null ? status : "");
+    }
+
+    /**
+     * Parses a line written by {@link #toLine()}.
+     *
+     * @param line The line to parse.
+     * @return The record, or null if the line is malformed.
+     */
+    static HabitRecord fromLine(String line) {
+        String[] parts = line.split("\\|", -1);
+        if (parts.length < 5) {
+            return null;
+        }
+        try {
+            return new HabitRecord(LocalDate.parse(parts[0]), parts[1], Integer.parseInt(parts[2]),
+                    Float.parseFloat(parts[3]), parts[4].isEmpty() ? null : parts[4]);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
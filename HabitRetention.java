@@ -0,0 +1,235 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The HabitRetention class keeps the monthly {@link HabitRollup}s that replace
+ * the daily records of expired months. Months older than
+ * {@code -Dwellnest.retention.months} are rolled up when the store loads, and
+ * their daily records are deleted from the database and the archive. The
+ * deleted records cannot be restored, so retention is off unless the property
+ * is set; 0 also keeps every record.
+ *
+ * The rollups are kept in {@code habits.rollup}, one line per habit and month,
+ * and the file is replaced as a whole. It is written before any daily record
+ * is deleted; since rolling a record up twice changes nothing, an interrupted
+ * run simply finishes on the next start. However long a habit is tracked, an
+ * expired month costs one small rollup per habit.
+ */
+class HabitRetention {
+
+    static final String FILE_NAME = "habits.rollup";
+
+    private final File file;
+    private final int retentionMonths;
+
+    // Rollups by month, then by habit name
+    private final TreeMap<YearMonth, Map<String, HabitRollup>> rollups = new TreeMap<>();
+    private final Map<YearMonth, Integer> dayMasks = new TreeMap<>(); // Days of the month with any task
+    private int rollupCount;
+
+    /**
+     * Constructs the retention of the data in the given directory.
+     *
+     * @param directory       The directory holding the data files.
+     * @param retentionMonths How many months of daily records are kept; 0
+     *                        keeps them all.
+     */
+    HabitRetention(File directory, int retentionMonths) {
+        this.file = new File(directory, FILE_NAME);
+        this.retentionMonths = retentionMonths;
+    }
+
+    /**
+     * Constructs the retention with the period given by the
+     * {@code wellnest.retention.months} system property.
+     *
+     * @param directory The directory holding the data files.
+     * @return The retention.
+     */
+    static HabitRetention fromSystemProperties(File directory) {
+        return new HabitRetention(directory, Integer.getInteger("wellnest.retention.months", 0));
+    }
+
+    /**
+     * @param today The current date.
+     * @return The first month whose daily records are kept, or null if they
+     *         are all kept.
+     */
+    YearMonth getCutoff(LocalDate today) {
+        return retentionMonths > 0 ? YearMonth.from(today).minusMonths(retentionMonths) : null;
+    }
+
+    /**
+     * Reads the rollup file.
+     */
+    void load() {
+        rollups.clear();
+        dayMasks.clear();
+        rollupCount = 0;
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                HabitRollup rollup = HabitRollup.fromLine(line);
+                if (rollup != null) {
+                    put(rollup);
+                } else {
+                    System.out.println("Rollup format is incorrect: " + line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        updateGauges();
+    }
+
+    /**
+     * Rolls a daily record up into the rollup of its habit and month.
+     *
+     * @param record The record.
+     * @return False if its day was already rolled up.
+     */
+    boolean add(HabitRecord record) {
+        YearMonth month = YearMonth.from(record.getDate());
+        HabitRollup rollup = rollups.computeIfAbsent(month, k -> new TreeMap<>()).get(record.getName());
+        if (rollup == null) {
+            rollup = new HabitRollup(month, record.getName());
+            put(rollup);
+        }
+        if (!rollup.add(record)) {
+            return false;
+        }
+        dayMasks.merge(month, 1 << (record.getDate().getDayOfMonth() - 1), (a, b) -> a | b);
+        return true;
+    }
+
+    private void put(HabitRollup rollup) {
+        rollups.computeIfAbsent(rollup.getMonth(), k -> new TreeMap<>()).put(rollup.getName(), rollup);
+        int mask = 0;
+        for (int day = 1; day <= rollup.getMonth().lengthOfMonth(); day++) {
+            if (rollup.isScheduled(rollup.getMonth().atDay(day))) {
+                mask |= 1 << (day - 1);
+            }
+        }
+        dayMasks.merge(rollup.getMonth(), mask, (a, b) -> a | b);
+        rollupCount++;
+    }
+
+    /**
+     * Replaces the rollup file with the current rollups.
+     *
+     * @throws IOException If the file could not be written; the previous one
+     *                     is left in place.
+     */
+    void save() throws IOException {
+        AtomicFile.write(file, writer -> {
+            for (Map<String, HabitRollup> monthRollups : rollups.values()) {
+                for (HabitRollup rollup : monthRollups.values()) {
+                    writer.write(rollup.toLine());
+                    writer.newLine();
+                }
+            }
+        });
+        updateGauges();
+    }
+
+    /**
+     * @return The rollups, by month and then by habit name.
+     */
+    List<HabitRollup> getRollups() {
+        List<HabitRollup> all = new ArrayList<>(rollupCount);
+        for (Map<String, HabitRollup> monthRollups : rollups.values()) {
+            all.addAll(monthRollups.values());
+        }
+        return all;
+    }
+
+    boolean hasTasks(LocalDate date) {
+        Integer mask = dayMasks.get(YearMonth.from(date));
+        return mask != null && (mask & (1 << (date.getDayOfMonth() - 1))) != 0;
+    }
+
+    /**
+     * @return The number of completed days in all rollups.
+     */
+    int getCompletedCount() {
+        int count = 0;
+        for (Map<String, HabitRollup> monthRollups : rollups.values()) {
+            for (HabitRollup rollup : monthRollups.values()) {
+                count += rollup.getCompletions();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes the rollups of a habit and saves the file.
+     *
+     * @param taskName The name of the habit.
+     * @return The removed rollups, oldest month first; empty if the habit had
+     *         none.
+     */
+    List<HabitRollup> removeHabit(String taskName) {
+        List<HabitRollup> removed = new ArrayList<>();
+        for (Map<String, HabitRollup> monthRollups : rollups.values()) {
+            HabitRollup rollup = monthRollups.remove(taskName);
+            if (rollup != null) {
+                rollupCount--;
+                removed.add(rollup);
+            }
+        }
+        if (removed.isEmpty()) {
+            return removed;
+        }
+        // Recompute the day masks without the habit
+        dayMasks.clear();
+        Collection<HabitRollup> remaining = getRollups();
+        rollups.clear();
+        rollupCount = 0;
+        for (HabitRollup rollup : remaining) {
+            put(rollup);
+        }
+        try {
+            save();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        return removed;
+    }
+
+    /**
+     * Adds the estimated size of the rollups to a memory report, as
+     * {@code retention.rollups}.
+     *
+     * @param report The report.
+     */
+    void reportMemory(MemoryReport report) {
+        long bytes = MemoryReport.treeMap(rollups.size()) + MemoryReport.treeMap(dayMasks.size())
+                + dayMasks.size() * MemoryReport.object(4);
+        for (Map<String, HabitRollup> monthRollups : rollups.values()) {
+            bytes += MemoryReport.treeMap(monthRollups.size());
+            for (HabitRollup rollup : monthRollups.values()) {
+                bytes += rollup.estimateBytes(report);
+            }
+        }
+        report.add("retention.rollups", rollupCount, bytes);
+    }
+
+    private void updateGauges() {
+        Metrics.setGauge("retention.rollups", rollupCount);
+        Metrics.setGauge("retention.months", rollups.size());
+    }
+}
@@ -0,0 +1,160 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The HabitRollup class sums up one habit over one month once its daily
+ * records have expired: how often it was scheduled, completed and skipped,
+ * and its average progress.
+ *
+ * Besides the counts it keeps the scheduled, completed and skipped days as bit
+ * masks, four bytes each, so streaks that run through the month and the
+ * calendar stay exact. Adding a record for a day the rollup already holds
+ * changes nothing, so rolling the same records up twice is harmless.
+ */
+class HabitRollup {
+
+    private final YearMonth month;
+    private final String name;
+    private int scheduledMask; // Bit 0 for the 1st of the month
+    private int completedMask;
+    private int skippedMask;
+    private float progressSum;
+
+    /**
+     * Constructs an empty rollup.
+     *
+     * @param month The month.
+     * @param name  The name of the habit.
+     */
+    HabitRollup(YearMonth month, String name) {
+        this.month = month;
+        this.name = name;
+    }
+
+    YearMonth getMonth() {
+        return month;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Adds a daily record of the habit in this month.
+     *
+     * @param record The record.
+     * @return False if the day was already rolled up.
+     */
+    boolean add(HabitRecord record) {
+        int bit = bit(record.getDate());
+        if ((scheduledMask & bit) != 0) {
+            return false;
+        }
+        scheduledMask |= bit;
+        if (record.isCompleted()) {
+            completedMask |= bit;
+            progressSum += 100.0f;
+        } else {
+            if ("Skipped".equals(record.getStatus())) {
+                skippedMask |= bit;
+            }
+            progressSum += Math.min(100.0f, record.getProgress());
+        }
+        return true;
+    }
+
+    int getOccurrences() {
+        return Integer.bitCount(scheduledMask);
+    }
+
+    int getCompletions() {
+        return Integer.bitCount(completedMask);
+    }
+
+    int getSkips() {
+        return Integer.bitCount(skippedMask);
+    }
+
+    /**
+     * @return The average progress of the scheduled days, in percent.
+     */
+    float getAverageProgress() {
+        int occurrences = getOccurrences();
+        return occurrences == 0 ? 0.0f : progressSum / occurrences;
+    }
+
+    /**
+     * @param report The report of the memory; the rollup is counted once.
+     * @return The bytes of the rollup and its month, or 0 if already counted.
+     */
+    long estimateBytes(MemoryReport report) {
+        if (!report.claim(this)) {
+            return 0;
+        }
+        long bytes = MemoryReport.object(2 * MemoryReport.REFERENCE_BYTES + 4 * 4) + report.string(name);
+        return bytes + (report.claim(month) ? MemoryReport.YEAR_MONTH_BYTES : 0);
+    }
+
+    boolean isScheduled(LocalDate date) {
+        return (scheduledMask & bit(date)) != 0;
+    }
+
+    boolean isCompleted(LocalDate date) {
+        return (completedMask & bit(date)) != 0;
+    }
+
+    /**
+     * @return The completed days in ascending order.
+     */
+    List<LocalDate> getCompletedDates() {
+        List<LocalDate> dates = new ArrayList<>(Integer.bitCount(completedMask));
+        for (int day = 0; day < 31; day++) {
+            if ((completedMask & (1 << day)) != 0) {
+                dates.add(month.atDay(day + 1));
+            }
+        }
+        return dates;
+    }
+
+    private static int bit(LocalDate date) {
+        return 1 << (date.getDayOfMonth() - 1);
+    }
+
+    /**
+     * Formats the rollup as one line of the rollup file:
+     * "month|occurrences|completed|skipped|averageProgress|scheduledMask|completedMask|skippedMask|name".
+     * The counts and the average are there for readers of the file; the
+     * masks and the progress sum are what is read back.
+     *
+     * @return The line, without a line separator.
+     */
+    String toLine() {
+        return month + "|" + getOccurrences() + "|" + getCompletions() + "|" + getSkips() + "|"
+                + getAverageProgress() + "|" + scheduledMask + "|" + completedMask + "|" + skippedMask + "|" + name;
+    }
+
+    /**
+     * Parses a line written by {@link #toLine()}.
+     *
+     * @param line The line to parse.
+     * @return The rollup, or null if the line is malformed.
+     */
+    static HabitRollup fromLine(String line) {
+        String[] parts = line.split("\\|", 9);
+        if (parts.length != 9) {
+            return null;
+        }
+        try {
+            HabitRollup rollup = new HabitRollup(YearMonth.parse(parts[0]), parts[8]);
+            rollup.scheduledMask = Integer.parseInt(parts[5]);
+            rollup.completedMask = Integer.parseInt(parts[6]);
+            rollup.skippedMask = Integer.parseInt(parts[7]);
+            rollup.progressSum = Float.parseFloat(parts[4]) * rollup.getOccurrences();
+            return rollup;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,1107 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The HabitStore class keeps all habit data of the Wellnest application: one
+ * {@link HabitRecord} per task and date, held in memory and persisted in the
+ * {@link HabitEngine} database in the {@code habits.db} directory.
+ *
+ * Another process may write to the same database, for example a second
+ * Wellnest window. The engine reports the keys it changed; the store reloads
+ * just those records and publishes the same change events as for local
+ * changes, so the views refresh only the affected dates.
+ *
+ * Every change goes through the store. It updates the record, keeps the
+ * per-habit summaries and the per-month {@link MonthAggregate}s of the
+ * calendar in step, bumps the data version, publishes a change
+ * event on its {@link HabitEventBus} and puts the changed record into the
+ * engine. Changes that touch several fields, such as completing a task, are a
+ * single update and a single write. A write only appends to the engine's log,
+ * so its cost does not grow with the history.
+ *
+ * Earlier versions kept the data in {@code habits.txt} with a
+ * {@code habits.journal} of recent changes, and before that in three files
+ * with duplicated keys: {@code tasks.txt}, {@code TaskCompleted.txt} and
+ * {@code TaskProgress.txt} (sometimes spelled {@code taskProgress.txt}). When
+ * the database does not exist yet, the store imports the newest of those
+ * layouts into it. The old files are left in place as a backup.
+ *
+ * Months older than {@code -Dwellnest.archive.months} (12 by default) are
+ * sealed into the {@link HabitArchive} when the store loads and removed from
+ * the database, so loading and merging only deal with recent history. The
+ * habit summaries and the streak of sealed months come from the archive
+ * indexes. Asking for the records of a sealed day decompresses its month
+ * into memory; changing one moves the month back into the database.
+ *
+ * With {@code -Dwellnest.retention.months} set, daily records older than that
+ * many months are rolled up into one {@link HabitRollup} per habit and month
+ * by the {@link HabitRetention} and then deleted, so memory and disk stay
+ * bounded. Deleting them cannot be undone, so every record is kept by default.
+ * The summaries and the streak count the rollups like daily records.
+ *
+ * The records in memory are kept in a {@link RecordTable}: as objects on the
+ * heap by default, or with {@code -Dwellnest.store=offheap} in direct buffers
+ * outside it, for histories large enough to slow down garbage collection.
+ *
+ * The store is not thread-safe; it is used from the event dispatch thread.
+ */
+class HabitStore {
+
+    static final String DATABASE_DIRECTORY_NAME = "habits.db";
+
+    // Files of the previous single-file layout, read once by the import
+    static final String LEGACY_HABITS_FILE_NAME = "habits.txt";
+    static final String LEGACY_JOURNAL_FILE_NAME = "habits.journal";
+
+    // Files of the three-file layout before it, read once by the migration
+    static final String LEGACY_TASKS_FILE_NAME = "tasks.txt";
+    static final String LEGACY_STATUS_FILE_NAME = "TaskCompleted.txt";
+    static final String[] LEGACY_PROGRESS_FILE_NAMES = { "TaskProgress.txt", "taskProgress.txt" };
+
+    private final File directory;
+    private final File habitsFile;
+    private final HabitEngine engine;
+    private final HabitArchive archive;
+    private final HabitRetention retention;
+    private final Set<YearMonth> thawedMonths = new HashSet<>(); // Sealed months decompressed into memory
+
+    // Records by date, then in the order the tasks were added; on or off the heap
+    private final RecordTable records;
+
+    // Per-habit aggregates, sorted by habit name
+    private final Map<String, HabitSummary> habitSummaries = new TreeMap<>();
+
+    // Per-day task counts of the months asked for, derived from the summaries
+    private final Map<YearMonth, MonthAggregate> monthAggregates = new HashMap<>();
+
+    private final HabitEventBus eventBus = new HabitEventBus();
+    private HabitSync sync; // Null unless sync is configured
+    private boolean applyingRemote;
+    private long dataVersion;
+    private Map<HabitEngine.Key, HabitRecord> batchedWrites; // Null unless a batch is open; null values delete
+
+    /**
+     * Constructs an empty store for the database in the given directory. Call
+     * {@link #load()} to read it.
+     *
+     * @param directory The directory holding the data files.
+     */
+    HabitStore(File directory) {
+        this.directory = directory;
+        this.habitsFile = new File(directory, LEGACY_HABITS_FILE_NAME);
+        this.engine = new HabitEngine(new File(directory, DATABASE_DIRECTORY_NAME));
+        this.archive = HabitArchive.fromSystemProperties(directory);
+        this.retention = HabitRetention.fromSystemProperties(directory);
+        this.records = RecordTable.fromSystemProperties();
+        engine.setExternalChangeListener(keys -> SwingUtilities.invokeLater(() -> applyExternalChanges(keys)));
+    }
+
+    HabitEventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * @return A counter bumped on every change, for caches to compare against.
+     */
+    long getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * @param date The date to look up.
+     * @return The records of the date in the order they were added; empty if
+     *         the date has no tasks.
+     */
+    List<HabitRecord> getRecords(LocalDate date) {
+        thaw(YearMonth.from(date));
+        return records.get(date);
+    }
+
+    /**
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     * @return The record, or null if the task is not scheduled on the date.
+     */
+    HabitRecord getRecord(LocalDate date, String taskName) {
+        thaw(YearMonth.from(date));
+        return records.get(date, taskName);
+    }
+
+    boolean hasTasks(LocalDate date) {
+        YearMonth month = YearMonth.from(date);
+        if (archive.isSealed(month) && !thawedMonths.contains(month)) {
+            return archive.getIndex(month).hasTasks(date);
+        }
+        return records.contains(date) || retention.hasTasks(date);
+    }
+
+    /**
+     * @return The number of records in memory; sealed months that were not
+     *         asked for are not counted.
+     */
+    int getRecordCount() {
+        return records.size();
+    }
+
+    /**
+     * Returns every record, for an export. Sealed months are decompressed.
+     *
+     * @return All records, by date then by insertion order.
+     */
+    List<HabitRecord> getAllRecords() {
+        for (HabitArchive.MonthIndex index : new ArrayList<>(archive.getIndexes())) {
+            thaw(index.getMonth());
+        }
+        return getLoadedRecords();
+    }
+
+    /**
+     * @return The records in memory, by date then by insertion order. Sealed
+     *         months that were not asked for are left out.
+     */
+    List<HabitRecord> getLoadedRecords() {
+        List<HabitRecord> all = new ArrayList<>(records.size());
+        records.forEach(all::add);
+        return all;
+    }
+
+    /**
+     * @return The number of tasks with the status "Completed", including the
+     *         sealed months and the completed days of the rollups.
+     */
+    int getCompletedCount() {
+        int[] count = new int[1];
+        records.forEach(record -> {
+            // Thawed months are counted by their index below
+            if ("Completed".equals(record.getStatus()) && !archive.isSealed(YearMonth.from(record.getDate()))) {
+                count[0]++;
+            }
+        });
+        for (HabitArchive.MonthIndex index : archive.getIndexes()) {
+            count[0] += index.getCompletedStatusCount();
+        }
+        return count[0] + retention.getCompletedCount();
+    }
+
+    /**
+     * @param today The current date.
+     * @return The number of consecutive days up to today that have tasks, each
+     *         together with the day before it.
+     */
+    int getStreak(LocalDate today) {
+        int streakCount = 0;
+        LocalDate previousDate = today.minusDays(1);
+
+        // Check for consecutive completion of tasks
+        while (hasTasks(today) && hasTasks(previousDate)) {
+            streakCount++;
+            today = today.minusDays(1);
+            previousDate = previousDate.minusDays(1);
+        }
+
+        return streakCount;
+    }
+
+    /**
+     * Returns the number of tasks and completed tasks of each day of a month.
+     * The aggregate is computed from the habit summaries when the month is
+     * first asked for and then kept up to date by every change.
+     *
+     * @param month The month.
+     * @return The aggregate of the month, including sealed and rolled-up days.
+     */
+    MonthAggregate getMonthAggregate(YearMonth month) {
+        MonthAggregate aggregate = monthAggregates.get(month);
+        if (aggregate == null) {
+            long start = System.nanoTime();
+            aggregate = new MonthAggregate(month, habitSummaries.values());
+            monthAggregates.put(month, aggregate);
+            Metrics.recordSince("store.monthAggregate", start);
+        }
+        return aggregate;
+    }
+
+    /**
+     * Recounts a day in the aggregate of its month, if the month has one,
+     * after the summaries changed.
+     */
+    private void recountDay(LocalDate date) {
+        MonthAggregate aggregate = monthAggregates.get(YearMonth.from(date));
+        if (aggregate != null) {
+            aggregate.recount(date, habitSummaries.values());
+        }
+    }
+
+    /**
+     * Adds the estimated size of every structure of the store to a memory
+     * report: the record table, the habit summaries, the month aggregates, the
+     * engine, the archive indexes and the rollups.
+     *
+     * @param report The report.
+     */
+    void reportMemory(MemoryReport report) {
+        long start = System.nanoTime();
+        report.setRecords(records.size(), records.reportMemory(report));
+
+        long bytes = MemoryReport.treeMap(habitSummaries.size());
+        for (HabitSummary summary : habitSummaries.values()) {
+            bytes += summary.estimateBytes(report);
+        }
+        report.add("summaries", habitSummaries.size(), bytes);
+
+        bytes = MemoryReport.hashMap(monthAggregates.size());
+        for (MonthAggregate aggregate : monthAggregates.values()) {
+            bytes += aggregate.estimateBytes(report);
+        }
+        report.add("monthAggregates", monthAggregates.size(), bytes);
+
+        engine.reportMemory(report);
+        archive.reportMemory(report);
+        retention.reportMemory(report);
+        Metrics.recordSince("store.reportMemory", start);
+    }
+
+    /**
+     * @return The summaries of all habits, sorted by habit name.
+     */
+    Collection<HabitSummary> getHabitSummaries() {
+        return Collections.unmodifiableCollection(habitSummaries.values());
+    }
+
+    /**
+     * @param taskName The name of the habit.
+     * @return The summary of the habit, or null if it has no occurrences.
+     */
+    HabitSummary getHabitSummary(String taskName) {
+        return habitSummaries.get(taskName);
+    }
+
+    /**
+     * Schedules a task on a date. Adding a task that is already scheduled on the
+     * date, or one whose name {@link HabitRecord#isValidName(String) cannot be
+     * stored}, has no effect.
+     *
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     * @param steps    The number of times the task has to be done.
+     * @return True if the task was added.
+     */
+    boolean addTask(LocalDate date, String taskName, int steps) {
+        if (!HabitRecord.isValidName(taskName)) {
+            return false;
+        }
+        unseal(YearMonth.from(date));
+        if (getRecord(date, taskName) != null) {
+            return false;
+        }
+        HabitRecord record = new HabitRecord(date, taskName, steps, 0.0f, null);
+        insert(record);
+        dataVersion++;
+        eventBus.publish(new HabitChangeEvent.TaskAdded(date, taskName, steps));
+        if (isRecordingForSync()) {
+            sync.taskAdded(date, taskName, steps);
+        }
+        write(record);
+        return true;
+    }
+
+    /**
+     * Schedules a task on every day of a range that falls on one of the given
+     * weekdays. The tasks are written in one batch, and the views are updated
+     * once, like for any burst of changes; days on which the task is already
+     * scheduled are left as they are.
+     *
+     * @param taskName The name of the task.
+     * @param from     The first date, inclusive.
+     * @param to       The last date, inclusive.
+     * @param weekdays The weekdays to schedule the task on.
+     * @param steps    The number of times the task has to be done.
+     * @return The number of days the task was added to.
+     */
+    int addTasks(String taskName, LocalDate from, LocalDate to, Set<DayOfWeek> weekdays, int steps) {
+        if (!HabitRecord.isValidName(taskName)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        boolean ownBatch = batchedWrites == null;
+        beginBatch();
+        int added = 0;
+        try {
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                if (weekdays.contains(date.getDayOfWeek()) && addTask(date, taskName, steps)) {
+                    added++;
+                }
+            }
+        } finally {
+            if (ownBatch) {
+                commitBatch();
+            }
+        }
+        Metrics.recordSince("store.addTasks", start);
+        return added;
+    }
+
+    /**
+     * Removes a task from a date, together with its progress and status.
+     *
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     */
+    void removeTask(LocalDate date, String taskName) {
+        unseal(YearMonth.from(date));
+        HabitRecord record = delete(date, taskName);
+        if (record == null) {
+            return;
+        }
+        dataVersion++;
+        eventBus.publish(new HabitChangeEvent.TaskRemoved(date, taskName, record.getStatus()));
+        erase(date, taskName);
+        if (isRecordingForSync()) {
+            sync.taskRemoved(date, taskName);
+        }
+    }
+
+    /**
+     * Removes every occurrence of a habit, including its rollups. The dates are
+     * taken from the habit summary, so only the affected days are visited. The
+     * sealed months among them are moved back into the database first, and the
+     * deletes are written in one batch.
+     *
+     * @param taskName The name of the habit.
+     */
+    void removeHabit(String taskName) {
+        long start = System.nanoTime();
+        HabitSummary summary = habitSummaries.get(taskName);
+        if (summary == null) {
+            return;
+        }
+        List<LocalDate> dates = new ArrayList<>(summary.getDates());
+        Set<YearMonth> months = new LinkedHashSet<>();
+        for (LocalDate date : dates) {
+            months.add(YearMonth.from(date));
+        }
+        unseal(months);
+
+        boolean ownBatch = batchedWrites == null;
+        beginBatch();
+        try {
+            for (LocalDate date : dates) {
+                HabitRecord record = delete(date, taskName);
+                if (record != null) {
+                    eventBus.publish(new HabitChangeEvent.TaskRemoved(date, taskName, record.getStatus()));
+                    erase(date, taskName);
+                    if (isRecordingForSync()) {
+                        sync.taskRemoved(date, taskName);
+                    }
+                }
+            }
+        } finally {
+            if (ownBatch) {
+                commitBatch();
+            }
+        }
+        List<HabitRollup> rollups = retention.removeHabit(taskName);
+        if (!rollups.isEmpty()) {
+            habitSummaries.remove(taskName);
+            monthAggregates.clear(); // The days of its rollups are spread over many months
+            int completions = 0;
+            for (HabitRollup rollup : rollups) {
+                completions += rollup.getCompletions();
+            }
+            eventBus.publish(new HabitChangeEvent.RollupsRemoved(rollups.get(0).getMonth().atDay(1), taskName,
+                    completions));
+        }
+        dataVersion++;
+        Metrics.recordSince("store.removeHabit", start);
+    }
+
+    /**
+     * Sets the status of a task, for example "Skipped".
+     *
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     * @param status   The new status.
+     */
+    void setStatus(LocalDate date, String taskName, String status) {
+        unseal(YearMonth.from(date));
+        HabitRecord record = getRecord(date, taskName);
+        if (record == null) {
+            return;
+        }
+        StoreOperationEvent event = StoreOperationEvent.start("statusChange", DATABASE_DIRECTORY_NAME);
+        applyStatus(record, status);
+        dataVersion++;
+        write(record);
+        event.finish(records.size());
+    }
+
+    /**
+     * Sets the progress of a task. Reaching 100% completes it.
+     *
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     * @param progress The new progress in percent.
+     */
+    void setProgress(LocalDate date, String taskName, float progress) {
+        unseal(YearMonth.from(date));
+        HabitRecord record = getRecord(date, taskName);
+        if (record == null) {
+            return;
+        }
+        StoreOperationEvent event = StoreOperationEvent.start("progressUpdate", DATABASE_DIRECTORY_NAME);
+        applyProgress(record, progress);
+        if (progress >= 100.0f) {
+            applyStatus(record, "Completed");
+        }
+        dataVersion++;
+        write(record);
+        event.finish(records.size());
+    }
+
+    /**
+     * Completes a task: sets its progress to 100% and its status to "Completed"
+     * in one update and one write.
+     *
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     */
+    void complete(LocalDate date, String taskName) {
+        setProgress(date, taskName, 100.0f);
+    }
+
+    /**
+     * Holds back the writes of the following changes until
+     * {@link #commitBatch()}. The changes apply in memory at once; several
+     * changes to the same task are written as one. Their sync operations are
+     * held back with them, so no other device receives a change that is not
+     * written here.
+     */
+    void beginBatch() {
+        if (batchedWrites == null) {
+            batchedWrites = new LinkedHashMap<>();
+            if (sync != null) {
+                sync.beginBatch();
+            }
+        }
+    }
+
+    /**
+     * Writes the changes made since {@link #beginBatch()} to the database with
+     * a single append to its log.
+     *
+     * @return The number of records written or deleted.
+     */
+    int commitBatch() {
+        if (batchedWrites == null) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        List<HabitEngine.Entry> entries = new ArrayList<>(batchedWrites.size());
+        for (Map.Entry<HabitEngine.Key, HabitRecord> write : batchedWrites.entrySet()) {
+            entries.add(new HabitEngine.Entry(write.getKey(), write.getValue()));
+        }
+        batchedWrites = null;
+        engine.write(entries);
+        if (sync != null) {
+            sync.commitBatch();
+        }
+        Metrics.recordSince("io.commitBatch", start);
+        return entries.size();
+    }
+
+    /**
+     * Drops the writes and the sync operations held since
+     * {@link #beginBatch()}; nothing of the batch reaches the database or the
+     * other devices. The changes stay applied in memory, so the store is
+     * closed afterwards rather than used further.
+     */
+    void abortBatch() {
+        if (batchedWrites == null) {
+            return;
+        }
+        Metrics.increment("io.abortedBatchWrites", batchedWrites.size());
+        batchedWrites = null;
+        if (sync != null) {
+            sync.abortBatch();
+        }
+    }
+
+    private void write(HabitRecord record) {
+        if (batchedWrites != null) {
+            // The record itself is kept, so the batch writes its latest state
+            batchedWrites.put(HabitEngine.Key.of(record.getDate(), record.getName()), record);
+        } else {
+            engine.put(record);
+        }
+    }
+
+    private void erase(LocalDate date, String taskName) {
+        if (batchedWrites != null) {
+            batchedWrites.put(HabitEngine.Key.of(date, taskName), null);
+        } else {
+            engine.delete(date, taskName);
+        }
+    }
+
+    private void applyStatus(HabitRecord record, String status) {
+        String previousStatus = record.getStatus();
+        record.setStatus(status);
+        records.put(record);
+        habitSummaries.get(record.getName()).setStatus(record.getDate(), status);
+        recountDay(record.getDate());
+        eventBus.publish(new HabitChangeEvent.StatusChanged(record.getDate(), record.getName(), previousStatus, status));
+        if (isRecordingForSync()) {
+            sync.statusChanged(record.getDate(), record.getName(), status);
+        }
+    }
+
+    private void applyProgress(HabitRecord record, float progress) {
+        float previousProgress = record.getProgress();
+        record.setProgress(progress);
+        records.put(record);
+        habitSummaries.get(record.getName()).setProgress(record.getDate(), progress);
+        recountDay(record.getDate());
+        eventBus.publish(new HabitChangeEvent.ProgressChanged(record.getDate(), record.getName(), previousProgress,
+                progress));
+        if (isRecordingForSync()) {
+            sync.progressChanged(record.getDate(), record.getName(), progress);
+        }
+    }
+
+    private void insert(HabitRecord record) {
+        insertRecord(record);
+        addToSummary(record);
+    }
+
+    private void insertRecord(HabitRecord record) {
+        records.put(record);
+    }
+
+    private void addToSummary(HabitRecord record) {
+        HabitSummary summary = habitSummaries.computeIfAbsent(record.getName(), HabitSummary::new);
+        summary.addOccurrence(record.getDate());
+        summary.setProgress(record.getDate(), record.getProgress());
+        summary.setStatus(record.getDate(), record.isCompleted() ? "Completed" : record.getStatus());
+        recountDay(record.getDate());
+    }
+
+    private HabitRecord delete(LocalDate date, String taskName) {
+        HabitRecord record = records.remove(date, taskName);
+        if (record == null) {
+            return null;
+        }
+        HabitSummary summary = habitSummaries.get(taskName);
+        summary.removeOccurrence(date);
+        if (summary.getOccurrences() == 0) {
+            habitSummaries.remove(taskName);
+        }
+        recountDay(date);
+        return record;
+    }
+
+    /**
+     * Opens the database and loads every record. A new database is first filled
+     * from the files of the older layouts, if there are any. Then starts the
+     * device sync if it is configured.
+     */
+    void load() {
+        if (!engine.open()) {
+            importOlderLayouts();
+        }
+        long start = System.nanoTime();
+        StoreOperationEvent event = StoreOperationEvent.start("load", DATABASE_DIRECTORY_NAME);
+        archive.load();
+        retention.load();
+        List<HabitRecord> leftovers = new ArrayList<>();
+        engine.forEach(record -> {
+            if (archive.isSealed(YearMonth.from(record.getDate()))) {
+                leftovers.add(record); // A seal was interrupted before these were deleted
+            } else {
+                insertRecord(record);
+            }
+        });
+        for (HabitRecord record : leftovers) {
+            engine.delete(record.getDate(), record.getName());
+        }
+        boolean rolledUp = rollUpExpiredMonths();
+        if (sealColdMonths() || rolledUp) {
+            engine.compact();
+        }
+        rebuildSummaries();
+        dataVersion++;
+        Metrics.recordSince("io.load", start);
+        updateGauges();
+        event.finish(records.size());
+
+        sync = HabitSync.fromSystemProperties(this, directory);
+        if (sync != null && !sync.start()) {
+            sync = null;
+        }
+    }
+
+    /**
+     * Rolls the daily records older than the retention cutoff up into monthly
+     * rollups, from memory and from the archive, and deletes them. The rollups
+     * are saved before anything is deleted.
+     *
+     * @return True if any records were rolled up.
+     */
+    private boolean rollUpExpiredMonths() {
+        YearMonth cutoff = retention.getCutoff(LocalDate.now());
+        if (cutoff == null) {
+            return false;
+        }
+        List<HabitRecord> expiredInMemory = records.getRange(LocalDate.MIN, cutoff.atDay(1));
+        List<HabitRecord> expired = new ArrayList<>(expiredInMemory);
+        List<YearMonth> expiredArchives = new ArrayList<>();
+        for (HabitArchive.MonthIndex index : archive.getIndexes()) {
+            if (!index.getMonth().isBefore(cutoff)) {
+                break;
+            }
+            List<HabitRecord> archived = archive.read(index.getMonth());
+            if (archived.size() != index.getRecordCount()) {
+                continue; // Unreadable; keep the archive rather than lose records
+            }
+            expired.addAll(archived);
+            expiredArchives.add(index.getMonth());
+        }
+        if (expired.isEmpty()) {
+            return false;
+        }
+        for (HabitRecord record : expired) {
+            retention.add(record);
+        }
+        try {
+            retention.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+            return false; // Nothing is deleted; the next start tries again
+        }
+        for (HabitRecord record : expiredInMemory) {
+            engine.delete(record.getDate(), record.getName());
+        }
+        records.removeRange(LocalDate.MIN, cutoff.atDay(1));
+        for (YearMonth month : expiredArchives) {
+            archive.delete(month);
+        }
+        Metrics.increment("retention.rolledRecords", expired.size());
+        return true;
+    }
+
+    /**
+     * Seals the months older than the archive cutoff and removes their records
+     * from memory and from the database.
+     *
+     * @return True if any month was sealed.
+     */
+    private boolean sealColdMonths() {
+        YearMonth cutoff = archive.getCutoff(LocalDate.now());
+        if (cutoff == null) {
+            return false;
+        }
+        Map<YearMonth, List<HabitRecord>> coldMonths = new TreeMap<>();
+        for (HabitRecord record : records.getRange(LocalDate.MIN, cutoff.atDay(1))) {
+            coldMonths.computeIfAbsent(YearMonth.from(record.getDate()), k -> new ArrayList<>()).add(record);
+        }
+        if (coldMonths.isEmpty()) {
+            return false;
+        }
+        for (Map.Entry<YearMonth, List<HabitRecord>> entry : coldMonths.entrySet()) {
+            try {
+                archive.seal(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                e.printStackTrace();
+                Metrics.increment("io.errors");
+                return true; // The remaining months stay in the database
+            }
+            records.removeRange(entry.getKey().atDay(1), entry.getKey().plusMonths(1).atDay(1));
+            for (HabitRecord record : entry.getValue()) {
+                engine.delete(record.getDate(), record.getName());
+            }
+        }
+        return true; // The archive.* metrics count the months and their sizes
+    }
+
+    /**
+     * Builds the habit summaries from the records in memory, the indexes of the
+     * sealed months and the rollups of the expired months.
+     */
+    private void rebuildSummaries() {
+        habitSummaries.clear();
+        monthAggregates.clear();
+        records.forEach(this::addToSummary);
+        for (HabitArchive.MonthIndex index : archive.getIndexes()) {
+            addArchivedSummaries(index);
+        }
+        for (HabitRollup rollup : retention.getRollups()) {
+            habitSummaries.computeIfAbsent(rollup.getName(), HabitSummary::new).addRollup(rollup);
+        }
+    }
+
+    /**
+     * Adds the days of a sealed month to the habit summaries.
+     */
+    private void addArchivedSummaries(HabitArchive.MonthIndex index) {
+        for (String taskName : index.getHabits()) {
+            HabitSummary summary = habitSummaries.computeIfAbsent(taskName, HabitSummary::new);
+            for (LocalDate date : index.getScheduledDates(taskName)) {
+                summary.addOccurrence(date);
+            }
+            for (LocalDate date : index.getCompletedDates(taskName)) {
+                summary.setStatus(date, "Completed");
+            }
+            for (LocalDate date : index.getSkippedDates(taskName)) {
+                summary.setStatus(date, "Skipped");
+            }
+        }
+    }
+
+    /**
+     * Decompresses a sealed month into memory, if it is not there yet. The
+     * month stays sealed; its habit summaries already count it.
+     */
+    private void thaw(YearMonth month) {
+        if (!archive.isSealed(month) || !thawedMonths.add(month)) {
+            return;
+        }
+        for (HabitRecord record : archive.read(month)) {
+            insert(record);
+        }
+        Metrics.increment("archive.thawed");
+        updateGauges();
+    }
+
+    /**
+     * Moves a sealed month back into the database before one of its records
+     * changes. The records are flushed before the archive files are removed,
+     * so a crash leaves them in one place or the other.
+     */
+    private void unseal(YearMonth month) {
+        if (archive.isSealed(month)) {
+            unseal(Collections.singleton(month));
+        }
+    }
+
+    /**
+     * Moves several sealed months back into the database with one write and
+     * one flush.
+     *
+     * @param months The months; those that are not sealed are skipped.
+     */
+    private void unseal(Collection<YearMonth> months) {
+        List<YearMonth> sealed = new ArrayList<>();
+        List<HabitEngine.Entry> entries = new ArrayList<>();
+        for (YearMonth month : months) {
+            if (!archive.isSealed(month)) {
+                continue;
+            }
+            sealed.add(month);
+            thaw(month);
+            for (HabitRecord record : records.getRange(month.atDay(1), month.plusMonths(1).atDay(1))) {
+                entries.add(new HabitEngine.Entry(HabitEngine.Key.of(record.getDate(), record.getName()), record));
+            }
+        }
+        if (sealed.isEmpty()) {
+            return;
+        }
+        engine.write(entries);
+        engine.flush();
+        for (YearMonth month : sealed) {
+            archive.delete(month);
+            thawedMonths.remove(month);
+        }
+    }
+
+    /**
+     * Takes over a sealed month that another process moved back into the
+     * database. Its records are read from the database, where they now live.
+     */
+    private void adoptUnsealedMonth(YearMonth month) {
+        if (!thawedMonths.remove(month)) {
+            for (HabitRecord record : engine.scan(month.atDay(1), month.atEndOfMonth())) {
+                if (getLoadedRecord(record.getDate(), record.getName()) == null) {
+                    insert(record);
+                }
+            }
+        }
+        archive.forget(month);
+    }
+
+    private HabitRecord getLoadedRecord(LocalDate date, String taskName) {
+        return records.get(date, taskName);
+    }
+
+    /**
+     * Brings the in-memory records in line with the database after another
+     * process changed it.
+     *
+     * @param keys The changed keys, or null to compare every record.
+     */
+    private void applyExternalChanges(Set<HabitEngine.Key> keys) {
+        long start = System.nanoTime();
+        Map<HabitEngine.Key, HabitRecord> latest;
+        if (keys != null) {
+            latest = engine.getAll(keys);
+        } else {
+            Map<HabitEngine.Key, HabitRecord> all = new HashMap<>();
+            for (HabitRecord record : getLoadedRecords()) {
+                if (archive.isSealed(YearMonth.from(record.getDate()))) {
+                    continue; // Not in the database
+                }
+                all.put(HabitEngine.Key.of(record.getDate(), record.getName()), null);
+            }
+            engine.forEach(record -> all.put(HabitEngine.Key.of(record.getDate(), record.getName()), record));
+            latest = all;
+        }
+
+        int changed = 0;
+        for (Map.Entry<HabitEngine.Key, HabitRecord> entry : latest.entrySet()) {
+            if (reconcile(LocalDate.ofEpochDay(entry.getKey().epochDay), entry.getKey().name, entry.getValue())) {
+                changed++;
+            }
+        }
+        if (changed > 0) {
+            dataVersion++;
+            updateGauges();
+        }
+        Metrics.increment("store.externalChanges", changed);
+        Metrics.recordSince("store.applyExternalChanges", start);
+    }
+
+    /**
+     * Makes the in-memory record of a task match the latest one, publishing an
+     * event for each difference. Nothing is written back to the database.
+     *
+     * @return True if anything changed.
+     */
+    private boolean reconcile(LocalDate date, String taskName, HabitRecord latest) {
+        YearMonth month = YearMonth.from(date);
+        if (archive.isSealed(month) != archive.isSealedOnDisk(month)) {
+            if (archive.isSealed(month)) {
+                adoptUnsealedMonth(month);
+            } else if (latest == null) {
+                return false; // Sealed by another process, not deleted
+            }
+        }
+        HabitRecord record = getRecord(date, taskName);
+        if (latest == null) {
+            if (record == null) {
+                return false;
+            }
+            unseal(month);
+            delete(date, taskName);
+            eventBus.publish(new HabitChangeEvent.TaskRemoved(date, taskName, record.getStatus()));
+            if (isRecordingForSync()) {
+                sync.taskRemoved(date, taskName);
+            }
+            return true;
+        }
+
+        boolean changed = false;
+        unseal(month);
+        if (record == null) {
+            record = new HabitRecord(date, taskName, latest.getSteps(), 0.0f, null);
+            insert(record);
+            eventBus.publish(new HabitChangeEvent.TaskAdded(date, taskName, latest.getSteps()));
+            if (isRecordingForSync()) {
+                sync.taskAdded(date, taskName, latest.getSteps());
+            }
+            changed = true;
+        }
+        if (record.getSteps() != latest.getSteps()) {
+            record.setSteps(latest.getSteps());
+            records.put(record);
+            changed = true;
+        }
+        if (record.getProgress() != latest.getProgress()) {
+            applyProgress(record, latest.getProgress());
+            changed = true;
+        }
+        if (!Objects.equals(record.getStatus(), latest.getStatus())) {
+            applyStatus(record, latest.getStatus());
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Applies changes received from another device. They are not sent back out
+     * as local changes.
+     *
+     * @param changes Makes the changes through the usual store methods.
+     */
+    void applyRemote(Runnable changes) {
+        applyingRemote = true;
+        try {
+            changes.run();
+        } finally {
+            applyingRemote = false;
+        }
+    }
+
+    /**
+     * @return The device sync, or null if it is not configured or did not
+     *         start.
+     */
+    HabitSync getSync() {
+        return sync;
+    }
+
+    private boolean isRecordingForSync() {
+        return sync != null && !applyingRemote;
+    }
+
+    /**
+     * Closes the database. Called when the application exits.
+     */
+    void close() {
+        if (sync != null) {
+            sync.stop();
+        }
+        engine.close();
+    }
+
+    /**
+     * Reads habits.txt, or migrates the three-file layout if there is no
+     * habits.txt, puts the records into the engine and applies habits.journal on
+     * top. The records are then dropped from memory; {@link #load()} reads them
+     * back from the engine.
+     */
+    private void importOlderLayouts() {
+        long start = System.nanoTime();
+        if (habitsFile.exists()) {
+            readHabitsFile();
+        } else {
+            migrateLegacyFiles();
+        }
+        for (HabitRecord record : getLoadedRecords()) {
+            engine.put(record);
+        }
+        int journaled = engine.importJournal(new File(directory, LEGACY_JOURNAL_FILE_NAME));
+        engine.flush();
+        System.out.println("Imported " + records.size() + " records and " + journaled + " journal entries into "
+                + DATABASE_DIRECTORY_NAME);
+
+        records.clear();
+        habitSummaries.clear();
+        monthAggregates.clear();
+        Metrics.recordSince("io.import", start);
+    }
+
+    private void readHabitsFile() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(habitsFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                HabitRecord record = HabitRecord.fromLine(line);
+                if (record != null) {
+                    insert(record);
+                } else {
+                    System.out.println("Record format is incorrect: " + line);
+                }
+            }
+            Metrics.recordFileRead(habitsFile.getPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    /**
+     * Merges tasks.txt, TaskProgress.txt/taskProgress.txt and TaskCompleted.txt
+     * into records. Progress and status rows
+     * without a matching task are dropped; when both progress spellings exist,
+     * the higher progress wins.
+     */
+    private void migrateLegacyFiles() {
+        long start = System.nanoTime();
+        Map<String, Float> progressByKey = new HashMap<>();
+        for (String fileName : LEGACY_PROGRESS_FILE_NAMES) {
+            for (String[] parts : readLegacyFile(fileName)) {
+                if (parts.length == 3) {
+                    try {
+                        progressByKey.merge(parts[0] + "|" + parts[1], Float.parseFloat(parts[2]), Math::max);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Progress format is incorrect: " + String.join("|", parts));
+                    }
+                }
+            }
+        }
+        Map<String, String> statusByKey = new HashMap<>();
+        for (String[] parts : readLegacyFile(LEGACY_STATUS_FILE_NAME)) {
+            if (parts.length == 3) {
+                statusByKey.put(parts[0] + "|" + parts[1], parts[2]);
+            }
+        }
+
+        boolean migrated = false;
+        for (String[] parts : readLegacyFile(LEGACY_TASKS_FILE_NAME)) {
+            migrated = true;
+            try {
+                LocalDate date = LocalDate.parse(parts[0]);
+                String key = parts[0] + "|" + parts[1];
+                int steps = parts.length > 2 ? Integer.parseInt(parts[2]) : 1;
+                if (getRecord(date, parts[1]) == null) {
+                    insert(new HabitRecord(date, parts[1], steps, progressByKey.getOrDefault(key, 0.0f),
+                            statusByKey.get(key)));
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Task format is incorrect: " + String.join("|", parts));
+            }
+        }
+
+        if (migrated) {
+            Metrics.recordSince("io.migrateLegacyFiles", start);
+        }
+    }
+
+    private List<String[]> readLegacyFile(String fileName) {
+        List<String[]> rows = new ArrayList<>();
+        File file = new File(directory, fileName);
+        if (!file.exists()) {
+            return rows;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\\|");
+                if (parts.length >= 2) {
+                    rows.add(parts);
+                }
+            }
+            Metrics.recordFileRead(file.getPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        return rows;
+    }
+
+    /**
+     * Publishes the number of records and habits as metrics gauges.
+     */
+    private void updateGauges() {
+        Metrics.setGauge("store.records", records.size());
+        Metrics.setGauge("store.dates", records.dateCount());
+        Metrics.setGauge("store.habits", habitSummaries.size());
+    }
+}
@@ -0,0 +1,323 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The HabitSummary class holds the aggregate figures of a single habit across
+ * every date it is scheduled on.
+ *
+ * A summary is kept up to date by the Wellnest application whenever a task is
+ * added, removed, completed, skipped or progressed, so the All Habits panel can
+ * show totals, completion rate and streaks without reading any file.
+ *
+ * The dates of the habit are also used as an index when the whole habit is
+ * removed, so only the affected days have to be touched.
+ *
+ * Months whose daily records have expired are represented by one
+ * {@link HabitRollup} each instead of their dates. The figures and streaks
+ * count the rollups and the dates alike.
+ */
+class HabitSummary {
+
+    private final String name;
+    private final TreeSet<LocalDate> occurrences = new TreeSet<>();
+    private final TreeSet<LocalDate> completedDates = new TreeSet<>();
+    private final TreeSet<LocalDate> skippedDates = new TreeSet<>();
+    private final TreeMap<YearMonth, HabitRollup> rollups = new TreeMap<>();
+    private int rolledOccurrences;
+    private int rolledCompletions;
+    private int rolledSkips;
+    private int bestStreak;
+    private boolean bestStreakStale; // Set when rollups are added
+
+    /**
+     * Constructs an empty summary for the habit with the given name.
+     *
+     * @param name The name of the habit.
+     */
+    HabitSummary(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Records that the habit is scheduled on the given date.
+     *
+     * @param date The date of the occurrence.
+     */
+    void addOccurrence(LocalDate date) {
+        occurrences.add(date);
+    }
+
+    /**
+     * Adds an expired month of the habit.
+     *
+     * @param rollup The rollup of the month.
+     */
+    void addRollup(HabitRollup rollup) {
+        HabitRollup previous = rollups.put(rollup.getMonth(), rollup);
+        if (previous != null) {
+            rolledOccurrences -= previous.getOccurrences();
+            rolledCompletions -= previous.getCompletions();
+            rolledSkips -= previous.getSkips();
+        }
+        rolledOccurrences += rollup.getOccurrences();
+        rolledCompletions += rollup.getCompletions();
+        rolledSkips += rollup.getSkips();
+        bestStreakStale = true;
+    }
+
+    /**
+     * Removes the occurrence on the given date together with its status.
+     *
+     * @param date The date of the occurrence.
+     */
+    void removeOccurrence(LocalDate date) {
+        occurrences.remove(date);
+        skippedDates.remove(date);
+        if (completedDates.remove(date)) {
+            recomputeBestStreak();
+        }
+    }
+
+    /**
+     * Applies a status change ("Completed", "Skipped" or null) to the occurrence
+     * on the given date. Statuses for dates the habit is not scheduled on are
+     * ignored.
+     *
+     * @param date   The date of the occurrence.
+     * @param status The new status of the occurrence.
+     */
+    void setStatus(LocalDate date, String status) {
+        if (!occurrences.contains(date)) {
+            return;
+        }
+        if ("Completed".equals(status)) {
+            skippedDates.remove(date);
+            if (completedDates.add(date)) {
+                if (bestStreakStale) {
+                    recomputeBestStreak();
+                }
+                int run = 1 + countRun(date.minusDays(1), -1) + countRun(date.plusDays(1), 1);
+                bestStreak = Math.max(bestStreak, run);
+            }
+        } else {
+            if (completedDates.remove(date)) {
+                recomputeBestStreak();
+            }
+            if ("Skipped".equals(status)) {
+                skippedDates.add(date);
+            } else {
+                skippedDates.remove(date);
+            }
+        }
+    }
+
+    /**
+     * Applies a progress change to the occurrence on the given date. Reaching
+     * 100% counts as a completion.
+     *
+     * @param date     The date of the occurrence.
+     * @param progress The new progress value in percent.
+     */
+    void setProgress(LocalDate date, float progress) {
+        if (progress >= 100.0f) {
+            setStatus(date, "Completed");
+        }
+    }
+
+    int getOccurrences() {
+        return occurrences.size() + rolledOccurrences;
+    }
+
+    int getCompletions() {
+        return completedDates.size() + rolledCompletions;
+    }
+
+    int getSkips() {
+        return skippedDates.size() + rolledSkips;
+    }
+
+    /**
+     * @return The share of occurrences that were completed, in percent.
+     */
+    float getCompletionRate() {
+        int occurrenceCount = getOccurrences();
+        return occurrenceCount == 0 ? 0.0f : getCompletions() * 100.0f / occurrenceCount;
+    }
+
+    /**
+     * Counts the consecutive completed days ending today, or yesterday if today
+     * is not done yet.
+     *
+     * @param today The date to count back from.
+     * @return The current streak in days.
+     */
+    int getCurrentStreak(LocalDate today) {
+        LocalDate start = isCompleted(today) ? today : today.minusDays(1);
+        return countRun(start, -1);
+    }
+
+    int getBestStreak() {
+        if (bestStreakStale) {
+            recomputeBestStreak();
+        }
+        return bestStreak;
+    }
+
+    /**
+     * @return The most recent completed date, or null if the habit was never
+     *         completed.
+     */
+    LocalDate getLastDone() {
+        if (!completedDates.isEmpty()) {
+            return completedDates.last(); // Daily records are newer than the rollups
+        }
+        for (HabitRollup rollup : rollups.descendingMap().values()) {
+            List<LocalDate> dates = rollup.getCompletedDates();
+            if (!dates.isEmpty()) {
+                return dates.get(dates.size() - 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The dates the habit is scheduled on that still have daily
+     *         records, in ascending order.
+     */
+    NavigableSet<LocalDate> getDates() {
+        return Collections.unmodifiableNavigableSet(occurrences);
+    }
+
+    /**
+     * @return The rollups of the expired months, oldest first.
+     */
+    Collection<HabitRollup> getRollups() {
+        return Collections.unmodifiableCollection(rollups.values());
+    }
+
+    private int countRun(LocalDate from, int direction) {
+        int run = 0;
+        LocalDate date = from;
+        while (isCompleted(date)) {
+            run++;
+            date = date.plusDays(direction);
+        }
+        return run;
+    }
+
+    /**
+     * Estimates the bytes the summary retains, for a {@link MemoryReport}.
+     *
+     * @param report The report, which counts the shared dates, names and
+     *               rollups.
+     * @return The bytes of the summary.
+     */
+    long estimateBytes(MemoryReport report) {
+        long bytes = MemoryReport.object(5 * MemoryReport.REFERENCE_BYTES + 4 * 4 + 1) + report.string(name);
+        for (TreeSet<LocalDate> dates : List.of(occurrences, completedDates, skippedDates)) {
+            bytes += MemoryReport.TREE_SET_BYTES + dates.size() * MemoryReport.TREE_MAP_ENTRY_BYTES;
+            for (LocalDate date : dates) {
+                bytes += report.date(date);
+            }
+        }
+        bytes += MemoryReport.treeMap(rollups.size());
+        for (HabitRollup rollup : rollups.values()) {
+            bytes += rollup.estimateBytes(report);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param date The date to look up.
+     * @return True if the habit is scheduled on the date, in a daily record or
+     *         a rollup.
+     */
+    boolean isScheduled(LocalDate date) {
+        if (occurrences.contains(date)) {
+            return true;
+        }
+        HabitRollup rollup = rollups.isEmpty() ? null : rollups.get(YearMonth.from(date));
+        return rollup != null && rollup.isScheduled(date);
+    }
+
+    /**
+     * Adds the days of a month the habit is scheduled and completed on to
+     * counts indexed by the day of the month minus one.
+     *
+     * @param month     The month.
+     * @param scheduled The number of scheduled tasks of each day.
+     * @param completed The number of completed tasks of each day.
+     */
+    void countDays(YearMonth month, int[] scheduled, int[] completed) {
+        if (rollups.containsKey(month)) {
+            for (int day = 1; day <= month.lengthOfMonth(); day++) {
+                LocalDate date = month.atDay(day);
+                scheduled[day - 1] += isScheduled(date) ? 1 : 0;
+                completed[day - 1] += isCompleted(date) ? 1 : 0;
+            }
+            return;
+        }
+        for (LocalDate date : occurrences.subSet(month.atDay(1), true, month.atEndOfMonth(), true)) {
+            scheduled[date.getDayOfMonth() - 1]++;
+        }
+        for (LocalDate date : completedDates.subSet(month.atDay(1), true, month.atEndOfMonth(), true)) {
+            completed[date.getDayOfMonth() - 1]++;
+        }
+    }
+
+    /**
+     * @param date The date to look up.
+     * @return True if the habit was completed on the date, in a daily record
+     *         or a rollup.
+     */
+    boolean isCompleted(LocalDate date) {
+        if (completedDates.contains(date)) {
+            return true;
+        }
+        HabitRollup rollup = rollups.isEmpty() ? null : rollups.get(YearMonth.from(date));
+        return rollup != null && rollup.isCompleted(date);
+    }
+
+    /**
+     * Finds the longest run of completed days, walking the days of the rollups
+     * and the completed dates together in date order.
+     */
+    private void recomputeBestStreak() {
+        bestStreak = 0;
+        bestStreakStale = false;
+        int run = 0;
+        LocalDate previous = null;
+        Iterator<LocalDate> rolled = rollups.values().stream().flatMap(r -> r.getCompletedDates().stream())
+                .iterator();
+        Iterator<LocalDate> daily = completedDates.iterator();
+        LocalDate nextRolled = rolled.hasNext() ? rolled.next() : null;
+        LocalDate nextDaily = daily.hasNext() ? daily.next() : null;
+        while (nextRolled != null || nextDaily != null) {
+            LocalDate date;
+            if (nextDaily == null || (nextRolled != null && nextRolled.isBefore(nextDaily))) {
+                date = nextRolled;
+                nextRolled = rolled.hasNext() ? rolled.next() : null;
+            } else {
+                if (nextDaily.equals(nextRolled)) {
+                    nextRolled = rolled.hasNext() ? rolled.next() : null;
+                }
+                date = nextDaily;
+                nextDaily = daily.hasNext() ? daily.next() : null;
+            }
+            run = previous != null && previous.plusDays(1).equals(date) ? run + 1 : 1;
+            bestStreak = Math.max(bestStreak, run);
+            previous = date;
+        }
+    }
+}
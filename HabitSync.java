@@ -0,0 +1,970 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The HabitSync class merges the habit histories of several devices through a
+ * shared folder, for example one kept in step by a file sync tool. It is
+ * enabled with {@code -Dwellnest.sync.dir=<folder>}.
+ *
+ * Every local change (add, remove, progress or status) is appended as one
+ * operation to this device's own file in the folder, {@code <device>.ops}, with
+ * a per-device sequence number and a timestamp. Each device only ever appends
+ * to its own file, so the devices never write the same file. Every few seconds
+ * ({@code -Dwellnest.sync.intervalMs}, 5000 by default; 0 only syncs when
+ * {@link #syncNow()} is called) the files of the other devices are read from
+ * where the last sync stopped, so the cost of a sync depends on the number of
+ * new operations, not on the size of the history.
+ *
+ * Operations are merged with conflict-free rules, so every device ends up in
+ * the same state whatever order it receives them in, and receiving one twice
+ * changes nothing:
+ * <ul>
+ * <li>Whether a task is scheduled is decided by the latest add or remove
+ * (last writer wins).</li>
+ * <li>Progress is the highest progress reported for the latest add.</li>
+ * <li>The status is the latest status set for the latest add (last writer
+ * wins).</li>
+ * </ul>
+ * Each progress and status operation names the add it belongs to, so what was
+ * done before a task was removed and added again does not carry over. A
+ * device makes its record of a task match the merged state exactly, lowering
+ * the progress and clearing the status if the add they belong to lost.
+ * {@link SyncSimulation} checks these rules with three replicas.
+ * Timestamps are hybrid clocks: the wall clock, but never behind any
+ * timestamp seen before. Equal timestamps are ordered by device id.
+ *
+ * The merge state of each task and the position reached in each other
+ * device's file are kept locally in the {@code wellnest-sync} directory. Only
+ * one process per data directory syncs at a time.
+ *
+ * Neither the local state nor the shared files grow with the whole history.
+ * The merge states are appended to {@code states.log} as they change, and the
+ * log is rewritten as a snapshot of the current states when sync stops or when
+ * it holds twice as many lines as there are states. The snapshot leaves out
+ * removed tasks whose removal is older than the last operation read from every
+ * other device: whatever those devices send later is newer and decides the
+ * task by itself. Each device also publishes how far it has read the others,
+ * {@code <device>.read}, and cuts the operations every other device has read
+ * from the start of its own file, which then begins with a {@code #base} line
+ * so the positions the readers keep stay valid. A device that joins later
+ * receives the operations still in the files.
+ */
+class HabitSync {
+
+    static final String STATE_DIRECTORY_NAME = "wellnest-sync";
+    private static final String DEVICE_FILE_NAME = "device.id";
+    private static final String LOCK_FILE_NAME = "device.lock";
+    private static final String CURSORS_FILE_NAME = "cursors.txt";
+    private static final String STATES_FILE_NAME = "states.log";
+    private static final String OPS_SUFFIX = ".ops";
+    private static final String READ_SUFFIX = ".read";
+    private static final String BASE_HEADER = "#base "; // First line of a cut file: the position of its next line
+    private static final int STATE_LOG_MIN_ENTRIES = 10000;
+
+    private static final String ADD = "add";
+    private static final String REMOVE = "remove";
+    private static final String PROGRESS = "progress";
+    private static final String STATUS = "status";
+    private static final Pattern ADD_ID = Pattern.compile("\\d+/[^ ]*"); // "stamp/device" of an add
+
+    /**
+     * One operation of a device's log: "seq|stamp|type|date|name|value".
+     */
+    static final class Operation {
+        final String device;
+        final long sequence;
+        final long stamp;
+        final String type;
+        final LocalDate date;
+        final String name;
+        final String value;
+
+        Operation(String device, long sequence, long stamp, String type, LocalDate date, String name, String value) {
+            this.device = device;
+            this.sequence = sequence;
+            this.stamp = stamp;
+            this.type = type;
+            this.date = date;
+            this.name = name;
+            this.value = value;
+        }
+
+        String toLine() {
+            return sequence + "|" + stamp + "|" + type + "|" + date + "|" + name + "|" + value;
+        }
+
+        static Operation fromLine(String device, String line) {
+            String[] parts = line.split("\\|", -1);
+            if (parts.length < 6) {
+                return null;
+            }
+            try {
+                return new Operation(device, Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2],
+                        LocalDate.parse(parts[3]), parts[4], parts[5]);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The merge state of one task: the latest add and remove with their
+     * timestamps, the highest progress for the latest add and any newer add not
+     * received yet, and the latest status with the add it belongs to.
+     */
+    private static final class TaskState {
+        long addStamp;
+        String addDevice = "";
+        int steps = 1;
+        long removeStamp;
+        String removeDevice = "";
+        final Map<String, Float> progressByAdd = new TreeMap<>(); // "stamp/device" of the add -> progress
+        long statusStamp;
+        String statusDevice = "";
+        String status;
+        String statusAddId = "0/";
+
+        boolean isScheduled() {
+            return isNewer(addStamp, addDevice, removeStamp, removeDevice);
+        }
+
+        String addId() {
+            return addStamp + "/" + addDevice;
+        }
+
+        float getProgress() {
+            return progressByAdd.getOrDefault(addId(), 0.0f);
+        }
+
+        /**
+         * @return The status set for the latest add, or null if none was.
+         */
+        String getStatus() {
+            return statusAddId.equals(addId()) ? status : null;
+        }
+
+        /**
+         * Drops the progress of adds older than the latest one; it can no longer
+         * matter.
+         */
+        void pruneProgress() {
+            progressByAdd.keySet().removeIf(id -> !id.equals(addId()) && !isNewerAdd(id, addId()));
+        }
+
+        String toLine(LocalDate date, String name) {
+            StringBuilder progress = new StringBuilder();
+            for (Map.Entry<String, Float> entry : progressByAdd.entrySet()) {
+                progress.append(progress.length() > 0 ? ";" : "").append(entry.getKey()).append('=')
+                        .append(entry.getValue());
+            }
+            return date + "|" + name + "|" + addStamp + "|" + addDevice + "|" + steps + "|" + removeStamp + "|"
+                    + removeDevice + "|" + progress + "|" + statusStamp + "|" + statusDevice + "|"
+                    + (status != null ? status : "") + "|" + statusAddId;
+        }
+
+        TaskState copy(LocalDate date, String name) {
+            return fromParts(toLine(date, name).split("\\|", -1));
+        }
+
+        static TaskState fromParts(String[] parts) {
+            TaskState state = new TaskState();
+            state.addStamp = Long.parseLong(parts[2]);
+            state.addDevice = parts[3];
+            state.steps = Integer.parseInt(parts[4]);
+            state.removeStamp = Long.parseLong(parts[5]);
+            state.removeDevice = parts[6];
+            for (String progress : parts[7].split(";")) {
+                int equals = progress.indexOf('=');
+                if (equals > 0) {
+                    state.progressByAdd.put(progress.substring(0, equals),
+                            Float.parseFloat(progress.substring(equals + 1)));
+                }
+            }
+            state.statusStamp = Long.parseLong(parts[8]);
+            state.statusDevice = parts[9];
+            state.status = parts[10].isEmpty() ? null : parts[10];
+            state.statusAddId = parts.length > 11 ? parts[11] : state.addId(); // Written before statuses named adds
+            return state;
+        }
+    }
+
+    /**
+     * How far the file of another device has been read.
+     */
+    private static final class Cursor {
+        long offset; // Counts the bytes cut from the start of the file too
+        long sequence;
+        long stamp; // Of the last operation read
+    }
+
+    private final HabitStore store;
+    private final File sharedDirectory;
+    private final File stateDirectory;
+    private final long intervalMillis;
+
+    // Only touched on the event dispatch thread, apart from start and stop
+    private String deviceId;
+    private HabitJournal outbox;
+    private HabitJournal stateLog;
+    private int stateLogEntries;
+    private long sequence;
+    private long clock;
+    private final Map<HabitEngine.Key, TaskState> states = new HashMap<>();
+    private List<Operation> batchOperations; // Null unless a batch is open
+    private Map<HabitEngine.Key, TaskState> statesBeforeBatch; // Null values: no state before the batch
+
+    // Guarded by this; read by the poll thread and updated on the event dispatch thread
+    private final Map<String, Cursor> cursors = new TreeMap<>();
+
+    private final AtomicBoolean batchPending = new AtomicBoolean();
+    private FileChannel lockChannel;
+    private ScheduledExecutorService poller;
+
+    private HabitSync(HabitStore store, File sharedDirectory, File stateDirectory, long intervalMillis) {
+        this.store = store;
+        this.sharedDirectory = sharedDirectory;
+        this.stateDirectory = stateDirectory;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Creates the sync for a store if {@code wellnest.sync.dir} is set.
+     *
+     * @param store         The store to keep in sync.
+     * @param dataDirectory The directory of the store's data.
+     * @return The sync, not yet started, or null if sync is not configured.
+     */
+    static HabitSync fromSystemProperties(HabitStore store, File dataDirectory) {
+        String shared = System.getProperty("wellnest.sync.dir");
+        if (shared == null || shared.isEmpty()) {
+            return null;
+        }
+        return new HabitSync(store, new File(shared), new File(dataDirectory, STATE_DIRECTORY_NAME),
+                Long.getLong("wellnest.sync.intervalMs", 5000));
+    }
+
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Loads the local sync state and starts polling the shared folder.
+     *
+     * @return False if sync could not start, for example because another process
+     *         is already syncing this data directory.
+     */
+    boolean start() {
+        stateDirectory.mkdirs();
+        sharedDirectory.mkdirs();
+        try {
+            lockChannel = FileChannel.open(new File(stateDirectory, LOCK_FILE_NAME).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) {
+                System.out.println("Sync is already running in another Wellnest process");
+                lockChannel.close();
+                return false;
+            }
+            deviceId = readDeviceId();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        File outboxFile = new File(sharedDirectory, deviceId + OPS_SUFFIX);
+        outbox = HabitJournal.fromSystemProperties(outboxFile);
+        stateLog = new HabitJournal(new File(stateDirectory, STATES_FILE_NAME), HabitJournal.SyncPolicy.OS, 0);
+        sequence = readLastSequence(outboxFile);
+        loadStates();
+        loadCursors();
+        publishUnsyncedRecords();
+
+        if (intervalMillis > 0) {
+            poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wellnest-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            poller.scheduleWithFixedDelay(this::poll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Records the tasks that have no merge state yet, such as the whole history
+     * the first time sync is enabled, so the other devices receive them too.
+     * Months sealed in the archive are left out.
+     */
+    private void publishUnsyncedRecords() {
+        for (HabitRecord record : store.getLoadedRecords()) {
+            if (states.containsKey(HabitEngine.Key.of(record.getDate(), record.getName()))) {
+                continue;
+            }
+            taskAdded(record.getDate(), record.getName(), record.getSteps());
+            if (record.getProgress() > 0.0f) {
+                progressChanged(record.getDate(), record.getName(), record.getProgress());
+            }
+            if (record.getStatus() != null) {
+                statusChanged(record.getDate(), record.getName(), record.getStatus());
+            }
+        }
+    }
+
+    /**
+     * Stops polling, compacts the state log and this device's file, and closes
+     * them.
+     */
+    void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        if (outbox != null) {
+            if (batchOperations == null) {
+                compact();
+            }
+            outbox.close();
+            stateLog.close();
+        }
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Holds back the local operations recorded from now on until
+     * {@link #commitBatch()}, so the other devices do not receive changes the
+     * store may not write. The operations are folded into the merge state at
+     * once, as later changes of the batch depend on it.
+     */
+    void beginBatch() {
+        if (batchOperations == null) {
+            batchOperations = new ArrayList<>();
+            statesBeforeBatch = new HashMap<>();
+        }
+    }
+
+    /**
+     * Sends the operations recorded since {@link #beginBatch()} with a single
+     * append to this device's file and saves the merge state of their tasks.
+     */
+    void commitBatch() {
+        if (batchOperations == null) {
+            return;
+        }
+        List<String> lines = new ArrayList<>(batchOperations.size());
+        for (Operation operation : batchOperations) {
+            lines.add(operation.toLine());
+        }
+        List<String> stateLines = new ArrayList<>(statesBeforeBatch.size());
+        for (HabitEngine.Key key : statesBeforeBatch.keySet()) {
+            stateLines.add(states.get(key).toLine(LocalDate.ofEpochDay(key.epochDay), key.name));
+        }
+        batchOperations = null;
+        statesBeforeBatch = null;
+        if (!lines.isEmpty()) {
+            outbox.appendAll(lines);
+            stateLog.appendAll(stateLines);
+            stateLogEntries += stateLines.size();
+            Metrics.increment("sync.operationsSent", lines.size());
+            compactIfLarge();
+        }
+    }
+
+    /**
+     * Discards the operations recorded since {@link #beginBatch()} and restores
+     * the merge state of their tasks; nothing of the batch is sent.
+     */
+    void abortBatch() {
+        if (batchOperations == null) {
+            return;
+        }
+        for (Map.Entry<HabitEngine.Key, TaskState> entry : statesBeforeBatch.entrySet()) {
+            if (entry.getValue() != null) {
+                states.put(entry.getKey(), entry.getValue());
+            } else {
+                states.remove(entry.getKey());
+            }
+        }
+        sequence -= batchOperations.size();
+        batchOperations = null;
+        statesBeforeBatch = null;
+    }
+
+    void taskAdded(LocalDate date, String taskName, int steps) {
+        record(ADD, date, taskName, String.valueOf(steps));
+    }
+
+    void taskRemoved(LocalDate date, String taskName) {
+        record(REMOVE, date, taskName, "");
+    }
+
+    void progressChanged(LocalDate date, String taskName, float progress) {
+        TaskState state = states.get(HabitEngine.Key.of(date, taskName));
+        String addId = state != null ? state.addId() : "0/";
+        record(PROGRESS, date, taskName, progress + " " + addId);
+    }
+
+    void statusChanged(LocalDate date, String taskName, String status) {
+        TaskState state = states.get(HabitEngine.Key.of(date, taskName));
+        String addId = state != null ? state.addId() : "0/";
+        record(STATUS, date, taskName, (status != null ? status : "") + " " + addId);
+    }
+
+    /**
+     * Appends a local change to this device's operation file, or holds it in
+     * the open batch, and folds it into the merge state.
+     */
+    private void record(String type, LocalDate date, String taskName, String value) {
+        clock = Math.max(System.currentTimeMillis(), clock + 1);
+        Operation operation = new Operation(deviceId, ++sequence, clock, type, date, taskName, value);
+        if (batchOperations != null) {
+            HabitEngine.Key key = HabitEngine.Key.of(date, taskName);
+            if (!statesBeforeBatch.containsKey(key)) {
+                TaskState state = states.get(key);
+                statesBeforeBatch.put(key, state != null ? state.copy(date, taskName) : null);
+            }
+            batchOperations.add(operation);
+            merge(operation);
+            return;
+        }
+        outbox.append(operation.toLine());
+        merge(operation);
+        Metrics.increment("sync.operationsSent");
+        compactIfLarge();
+    }
+
+    /**
+     * Reads the operations other devices appended since the last poll and hands
+     * them to the event dispatch thread. Runs on the poll thread.
+     */
+    private void poll() {
+        if (batchPending.get()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Operation> batch = new ArrayList<>();
+        Map<String, Cursor> advanced = new HashMap<>();
+        readNewOperations(batch, advanced);
+        Metrics.recordSince("sync.poll", start);
+        if (advanced.isEmpty()) {
+            return;
+        }
+        batchPending.set(true);
+        SwingUtilities.invokeLater(() -> applyBatch(batch, advanced));
+    }
+
+    /**
+     * Reads and applies the operations other devices appended since the last
+     * sync at once, as one batch. Called on the event dispatch thread.
+     *
+     * @return The number of operations applied.
+     */
+    int syncNow() {
+        List<Operation> batch = new ArrayList<>();
+        Map<String, Cursor> advanced = new HashMap<>();
+        readNewOperations(batch, advanced);
+        if (!advanced.isEmpty()) {
+            applyBatch(batch, advanced);
+        }
+        return batch.size();
+    }
+
+    /**
+     * Reads the operations of the other devices past their cursors.
+     *
+     * @param batch    Receives the operations.
+     * @param advanced Receives the cursor of each file that had new data.
+     */
+    private void readNewOperations(List<Operation> batch, Map<String, Cursor> advanced) {
+        File[] files = sharedDirectory.listFiles((dir, name) -> name.endsWith(OPS_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String device = file.getName().substring(0, file.getName().length() - OPS_SUFFIX.length());
+            if (device.equals(deviceId)) {
+                continue;
+            }
+            Cursor cursor;
+            synchronized (this) {
+                cursor = cursors.get(device);
+            }
+            long offset = cursor != null ? cursor.offset : 0;
+            List<String> lines = new ArrayList<>();
+            Cursor next = new Cursor();
+            next.offset = readOperations(file, offset, lines);
+            if (next.offset == offset) {
+                continue;
+            }
+            next.sequence = cursor != null ? cursor.sequence : 0;
+            next.stamp = cursor != null ? cursor.stamp : 0;
+            for (String line : lines) {
+                Operation operation = Operation.fromLine(device, line);
+                if (operation == null) {
+                    System.out.println("Sync operation format is incorrect: " + line);
+                } else if (operation.sequence > next.sequence) {
+                    batch.add(operation);
+                    next.sequence = operation.sequence;
+                    next.stamp = operation.stamp;
+                }
+            }
+            advanced.put(device, next);
+        }
+    }
+
+    /**
+     * Reads the complete operations of a device's file from a position on. The
+     * position counts the bytes cut from the start of the file too, so it stays
+     * valid when the owner of the file cuts it.
+     *
+     * @param file     The file of the device.
+     * @param position The position reached so far.
+     * @param lines    Receives the operations.
+     * @return The position after the last operation read; the given position if
+     *         nothing new was read.
+     */
+    private static long readOperations(File file, long position, List<String> lines) {
+        long[] base = readBase(file);
+        long offset = Math.max(position - base[0], 0) + base[1];
+        if (file.length() <= offset) {
+            return position;
+        }
+        List<String> read = new ArrayList<>();
+        long end = HabitJournal.readEntries(file, offset, read);
+        if (end <= offset || !Arrays.equals(base, readBase(file))) {
+            return position; // Nothing complete, or the file was cut meanwhile; read it again on the next sync
+        }
+        lines.addAll(read);
+        return base[0] + end - base[1];
+    }
+
+    /**
+     * @return The position of the first operation of a device's file and the
+     *         length of the {@code #base} line before it, or zeros if the file
+     *         was never cut.
+     */
+    private static long[] readBase(File file) {
+        if (!file.exists()) {
+            return new long[2];
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String first = reader.readLine();
+            if (first != null && first.startsWith(BASE_HEADER)) {
+                return new long[] { Long.parseLong(first.substring(BASE_HEADER.length())), first.length() + 1 };
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        return new long[2];
+    }
+
+    /**
+     * Merges a batch of remote operations, applies the resulting state of each
+     * task it touched to the store, and then records how far each file was read.
+     */
+    private void applyBatch(List<Operation> batch, Map<String, Cursor> advanced) {
+        long start = System.nanoTime();
+        Map<HabitEngine.Key, TaskState> touched = new HashMap<>();
+        for (Operation operation : batch) {
+            clock = Math.max(clock, operation.stamp);
+            HabitEngine.Key key = HabitEngine.Key.of(operation.date, operation.name);
+            touched.put(key, merge(operation));
+        }
+        store.applyRemote(() -> {
+            for (Map.Entry<HabitEngine.Key, TaskState> entry : touched.entrySet()) {
+                materialize(LocalDate.ofEpochDay(entry.getKey().epochDay), entry.getKey().name, entry.getValue());
+            }
+        });
+
+        synchronized (this) {
+            cursors.putAll(advanced);
+        }
+        saveCursors();
+        batchPending.set(false);
+        Metrics.increment("sync.operationsReceived", batch.size());
+        Metrics.recordSince("sync.apply", start);
+        compactIfLarge();
+    }
+
+    /**
+     * Folds an operation into the merge state of its task.
+     *
+     * @return The merge state after the operation.
+     */
+    private TaskState merge(Operation operation) {
+        HabitEngine.Key key = HabitEngine.Key.of(operation.date, operation.name);
+        TaskState state = states.computeIfAbsent(key, k -> new TaskState());
+        boolean changed = false;
+        try {
+            switch (operation.type) {
+                case ADD:
+                    if (isNewer(operation.stamp, operation.device, state.addStamp, state.addDevice)) {
+                        state.addStamp = operation.stamp;
+                        state.addDevice = operation.device;
+                        state.steps = Integer.parseInt(operation.value);
+                        state.pruneProgress();
+                        changed = true;
+                    }
+                    break;
+                case REMOVE:
+                    if (isNewer(operation.stamp, operation.device, state.removeStamp, state.removeDevice)) {
+                        state.removeStamp = operation.stamp;
+                        state.removeDevice = operation.device;
+                        changed = true;
+                    }
+                    break;
+                case PROGRESS:
+                    String[] value = operation.value.split(" ", 2);
+                    float progress = Float.parseFloat(value[0]);
+                    String addId = value.length == 2 ? value[1] : state.addId();
+                    boolean current = addId.equals(state.addId()) || isNewerAdd(addId, state.addId());
+                    if (current && progress > state.progressByAdd.getOrDefault(addId, 0.0f)) {
+                        state.progressByAdd.put(addId, progress);
+                        changed = true;
+                    }
+                    break;
+                case STATUS:
+                    // "status addId"; operations written before statuses named adds only have the status
+                    int space = operation.value.lastIndexOf(' ');
+                    boolean named = space >= 0 && ADD_ID.matcher(operation.value.substring(space + 1)).matches();
+                    String status = named ? operation.value.substring(0, space) : operation.value;
+                    String statusAddId = named ? operation.value.substring(space + 1) : state.addId();
+                    // The status of a newer add wins, then the latest status of the same add
+                    if (isNewerAdd(statusAddId, state.statusAddId) || statusAddId.equals(state.statusAddId)
+                            && isNewer(operation.stamp, operation.device, state.statusStamp, state.statusDevice)) {
+                        state.statusStamp = operation.stamp;
+                        state.statusDevice = operation.device;
+                        state.status = status.isEmpty() ? null : status;
+                        state.statusAddId = statusAddId;
+                        changed = true;
+                    }
+                    break;
+                default:
+                    System.out.println("Unknown sync operation: " + operation.type);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Sync operation format is incorrect: " + operation.toLine());
+        }
+        if (changed && (batchOperations == null || !operation.device.equals(deviceId))) {
+            // A local batch saves the states of its tasks when it is committed
+            stateLog.append(state.toLine(operation.date, operation.name));
+            stateLogEntries++;
+        }
+        return state;
+    }
+
+    private void compactIfLarge() {
+        if (batchOperations == null && stateLogEntries > Math.max(STATE_LOG_MIN_ENTRIES, 2 * states.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the state log as a snapshot of the current states, without the
+     * removed tasks no device can still send older operations for, and cuts
+     * the operations every other device has read from this device's file.
+     */
+    private void compact() {
+        long start = System.nanoTime();
+        int pruned = pruneRemovedStates();
+        try {
+            stateLog.replace(writer -> {
+                for (Map.Entry<HabitEngine.Key, TaskState> entry : states.entrySet()) {
+                    HabitEngine.Key key = entry.getKey();
+                    writer.write(entry.getValue().toLine(LocalDate.ofEpochDay(key.epochDay), key.name));
+                    writer.write('\n');
+                }
+            });
+            stateLogEntries = states.size();
+            Metrics.increment("sync.statesPruned", pruned);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+        cutOutbox();
+        Metrics.recordSince("sync.compact", start);
+    }
+
+    /**
+     * Drops the states of removed tasks whose removal is older than the last
+     * operation read from every other device. Each device's clock never goes
+     * back, so anything those devices send later is newer than the removal and
+     * merges into an empty state the same way.
+     *
+     * @return The number of states dropped.
+     */
+    private int pruneRemovedStates() {
+        long horizon = clock;
+        for (String device : otherDevices()) {
+            synchronized (this) {
+                Cursor cursor = cursors.get(device);
+                horizon = Math.min(horizon, cursor != null ? cursor.stamp : 0);
+            }
+        }
+        long oldest = horizon;
+        int before = states.size();
+        states.values().removeIf(state -> !state.isScheduled() && state.removeStamp > 0 && state.removeStamp < oldest);
+        return before - states.size();
+    }
+
+    /**
+     * Cuts the operations every other device has read from the start of this
+     * device's file, and writes a {@code #base} line with the position of the
+     * first operation kept. Nothing is cut while another device has not
+     * published how far it has read.
+     */
+    private void cutOutbox() {
+        List<String> others = otherDevices();
+        if (others.isEmpty()) {
+            return;
+        }
+        long read = Long.MAX_VALUE;
+        for (String device : others) {
+            read = Math.min(read, readSequence(device));
+        }
+        File outboxFile = new File(sharedDirectory, deviceId + OPS_SUFFIX);
+        long[] base = readBase(outboxFile);
+        List<String> lines = new ArrayList<>();
+        HabitJournal.readEntries(outboxFile, base[1], lines);
+        long position = base[0];
+        int cut = 0;
+        for (String line : lines.subList(0, Math.max(lines.size() - 1, 0))) { // The last one keeps the sequence
+            Operation operation = Operation.fromLine(deviceId, line);
+            if (operation != null && operation.sequence > read) {
+                break;
+            }
+            position += line.getBytes().length + 1;
+            cut++;
+        }
+        if (cut == 0) {
+            return;
+        }
+        long firstPosition = position;
+        List<String> kept = lines.subList(cut, lines.size());
+        try {
+            outbox.replace(writer -> {
+                writer.write(BASE_HEADER + firstPosition);
+                writer.write('\n');
+                for (String line : kept) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            });
+            Metrics.increment("sync.operationsCut", cut);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    /**
+     * @return The ids of the other devices with a file in the shared folder.
+     */
+    private List<String> otherDevices() {
+        List<String> devices = new ArrayList<>();
+        File[] files = sharedDirectory.listFiles((dir, name) -> name.endsWith(OPS_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String device = file.getName().substring(0, file.getName().length() - OPS_SUFFIX.length());
+                if (!device.equals(deviceId)) {
+                    devices.add(device);
+                }
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * @return The sequence number up to which a device has read this device's
+     *         file, or 0 if it has not published it.
+     */
+    private long readSequence(String device) {
+        File file = new File(sharedDirectory, device + READ_SUFFIX);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 2 && parts[0].equals(deviceId)) {
+                    return Long.parseLong(parts[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Makes the store's record of a task match its merge state exactly. The
+     * progress and status may go down, when the add they belonged to was
+     * replaced by a newer one.
+     */
+    private void materialize(LocalDate date, String taskName, TaskState state) {
+        HabitRecord record = store.getRecord(date, taskName);
+        if (!state.isScheduled()) {
+            if (record != null && state.removeStamp > 0) {
+                store.removeTask(date, taskName);
+            }
+            return;
+        }
+        if (record != null && record.getSteps() != state.steps) {
+            store.removeTask(date, taskName); // Added again with other steps
+            record = null;
+        }
+        if (record == null) {
+            store.addTask(date, taskName, state.steps);
+            record = store.getRecord(date, taskName);
+            if (record == null) {
+                return;
+            }
+        }
+        if (state.getProgress() != record.getProgress()) {
+            store.setProgress(date, taskName, state.getProgress());
+            record = store.getRecord(date, taskName); // Reaching 100% also sets the status
+        }
+        if (!Objects.equals(state.getStatus(), record.getStatus())) {
+            store.setStatus(date, taskName, state.getStatus());
+        }
+    }
+
+    /**
+     * Orders two adds by their ids, "stamp/device".
+     */
+    private static boolean isNewerAdd(String addId, String otherAddId) {
+        int slash = addId.indexOf('/');
+        int otherSlash = otherAddId.indexOf('/');
+        return isNewer(Long.parseLong(addId.substring(0, slash)), addId.substring(slash + 1),
+                Long.parseLong(otherAddId.substring(0, otherSlash)), otherAddId.substring(otherSlash + 1));
+    }
+
+    /**
+     * Orders two timestamps, breaking ties by device id.
+     */
+    private static boolean isNewer(long stamp, String device, long otherStamp, String otherDevice) {
+        return stamp != otherStamp ? stamp > otherStamp : device.compareTo(otherDevice) > 0;
+    }
+
+    private String readDeviceId() throws IOException {
+        File file = new File(stateDirectory, DEVICE_FILE_NAME);
+        if (file.exists()) {
+            String id = new String(Files.readAllBytes(file.toPath())).trim();
+            if (!id.isEmpty()) {
+                return id;
+            }
+        }
+        String id = UUID.randomUUID().toString().substring(0, 8);
+        AtomicFile.write(file, writer -> writer.write(id));
+        return id;
+    }
+
+    /**
+     * Reads the sequence number of the last operation in this device's file. Only
+     * the tail of the file is read.
+     */
+    private static long readLastSequence(File outboxFile) {
+        List<String> lines = new ArrayList<>();
+        HabitJournal.readEntries(outboxFile, Math.max(0, outboxFile.length() - 4096), lines);
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            Operation operation = Operation.fromLine("", lines.get(i));
+            if (operation != null) {
+                return operation.sequence;
+            }
+        }
+        return 0;
+    }
+
+    private void loadStates() {
+        List<String> lines = new ArrayList<>();
+        HabitJournal.readEntries(new File(stateDirectory, STATES_FILE_NAME), 0, lines);
+        for (String line : lines) {
+            String[] parts = line.split("\\|", -1);
+            try {
+                TaskState state = TaskState.fromParts(parts);
+                states.put(HabitEngine.Key.of(LocalDate.parse(parts[0]), parts[1]), state);
+                clock = Math.max(clock, Math.max(state.addStamp, Math.max(state.removeStamp, state.statusStamp)));
+            } catch (RuntimeException e) {
+                System.out.println("Sync state format is incorrect: " + line);
+            }
+        }
+        stateLogEntries = lines.size();
+    }
+
+    private void loadCursors() {
+        File file = new File(stateDirectory, CURSORS_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length >= 3) {
+                    Cursor cursor = new Cursor();
+                    cursor.offset = Long.parseLong(parts[1]);
+                    cursor.sequence = Long.parseLong(parts[2]);
+                    cursor.stamp = parts.length > 3 ? Long.parseLong(parts[3]) : 0; // Written before cursors had stamps
+                    synchronized (this) {
+                        cursors.put(parts[0], cursor);
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void saveCursors() {
+        Map<String, Cursor> snapshot;
+        synchronized (this) {
+            snapshot = new TreeMap<>(cursors);
+        }
+        try {
+            AtomicFile.write(new File(stateDirectory, CURSORS_FILE_NAME), writer -> {
+                for (Map.Entry<String, Cursor> entry : snapshot.entrySet()) {
+                    Cursor cursor = entry.getValue();
+                    writer.write(entry.getKey() + " " + cursor.offset + " " + cursor.sequence + " " + cursor.stamp);
+                    writer.newLine();
+                }
+            });
+            // Published so the other devices can cut what this one has read
+            AtomicFile.write(new File(sharedDirectory, deviceId + READ_SUFFIX), writer -> {
+                for (Map.Entry<String, Cursor> entry : snapshot.entrySet()) {
+                    writer.write(entry.getKey() + " " + entry.getValue().sequence);
+                    writer.newLine();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+}
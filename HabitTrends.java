@@ -0,0 +1,70 @@
+import java.time.DayOfWeek;
+
+/**
+ * The HabitTrends class holds the trends of a single habit as computed by the
+ * {@link TrendAnalyzer}: its completion rates over the last 7 and 30 days, the
+ * weekdays it is most and least often completed on, and the predicted
+ * probability of completing it today.
+ *
+ * Rates and the probability are fractions between 0 and 1, or NaN when the
+ * habit has no history to compute them from.
+ */
+class HabitTrends {
+
+    private final String name;
+    private final double rate7;
+    private final double rate30;
+    private final DayOfWeek bestWeekday;
+    private final DayOfWeek worstWeekday;
+    private final double todayProbability;
+
+    HabitTrends(String name, double rate7, double rate30, DayOfWeek bestWeekday, DayOfWeek worstWeekday,
+            double todayProbability) {
+        this.name = name;
+        this.rate7 = rate7;
+        this.rate30 = rate30;
+        this.bestWeekday = bestWeekday;
+        this.worstWeekday = worstWeekday;
+        this.todayProbability = todayProbability;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return The share of the days scheduled in the last 7 days, today
+     *         included, that were completed.
+     */
+    double getRate7() {
+        return rate7;
+    }
+
+    /**
+     * @return The share of the days scheduled in the last 30 days, today
+     *         included, that were completed.
+     */
+    double getRate30() {
+        return rate30;
+    }
+
+    /**
+     * @return The weekday with the highest completion rate, or null if the
+     *         habit was never scheduled.
+     */
+    DayOfWeek getBestWeekday() {
+        return bestWeekday;
+    }
+
+    /**
+     * @return The weekday with the lowest completion rate, or null if the
+     *         habit was never scheduled.
+     */
+    DayOfWeek getWorstWeekday() {
+        return worstWeekday;
+    }
+
+    double getTodayProbability() {
+        return todayProbability;
+    }
+}
@@ -0,0 +1,117 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * The HeapRecordTable class keeps the records as objects on the Java heap: a
+ * sorted map of dates, each holding its records by task name in the order
+ * they were added. The records it returns are the ones it holds.
+ */
+class HeapRecordTable implements RecordTable {
+
+    private final TreeMap<LocalDate, Map<String, HabitRecord>> recordsByDate = new TreeMap<>();
+    private int size;
+
+    @Override
+    public List<HabitRecord> get(LocalDate date) {
+        Map<String, HabitRecord> records = recordsByDate.get(date);
+        return records != null ? new ArrayList<>(records.values()) : Collections.emptyList();
+    }
+
+    @Override
+    public HabitRecord get(LocalDate date, String taskName) {
+        Map<String, HabitRecord> records = recordsByDate.get(date);
+        return records != null ? records.get(taskName) : null;
+    }
+
+    @Override
+    public boolean contains(LocalDate date) {
+        return recordsByDate.containsKey(date);
+    }
+
+    @Override
+    public boolean put(HabitRecord record) {
+        if (recordsByDate.computeIfAbsent(record.getDate(), k -> new LinkedHashMap<>()).put(record.getName(),
+                record) != null) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    @Override
+    public HabitRecord remove(LocalDate date, String taskName) {
+        Map<String, HabitRecord> records = recordsByDate.get(date);
+        HabitRecord record = records != null ? records.remove(taskName) : null;
+        if (record == null) {
+            return null;
+        }
+        if (records.isEmpty()) {
+            recordsByDate.remove(date);
+        }
+        size--;
+        return record;
+    }
+
+    @Override
+    public List<HabitRecord> getRange(LocalDate from, LocalDate to) {
+        List<HabitRecord> range = new ArrayList<>();
+        for (Map<String, HabitRecord> records : recordsByDate.subMap(from, to).values()) {
+            range.addAll(records.values());
+        }
+        return range;
+    }
+
+    @Override
+    public int removeRange(LocalDate from, LocalDate to) {
+        Map<LocalDate, Map<String, HabitRecord>> range = recordsByDate.subMap(from, to);
+        int removed = 0;
+        for (Map<String, HabitRecord> records : range.values()) {
+            removed += records.size();
+        }
+        range.clear();
+        size -= removed;
+        return removed;
+    }
+
+    @Override
+    public void forEach(Consumer<HabitRecord> consumer) {
+        for (Map<String, HabitRecord> records : recordsByDate.values()) {
+            records.values().forEach(consumer);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dateCount() {
+        return recordsByDate.size();
+    }
+
+    @Override
+    public void clear() {
+        recordsByDate.clear();
+        size = 0;
+    }
+
+    @Override
+    public long reportMemory(MemoryReport report) {
+        long bytes = MemoryReport.treeMap(recordsByDate.size());
+        for (Map.Entry<LocalDate, Map<String, HabitRecord>> entry : recordsByDate.entrySet()) {
+            bytes += report.date(entry.getKey()) + MemoryReport.linkedHashMap(entry.getValue().size());
+            for (Map.Entry<String, HabitRecord> record : entry.getValue().entrySet()) {
+                bytes += report.string(record.getKey()) + report.record(record.getValue());
+            }
+        }
+        report.add("records", size, bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Command-line tool that reads a Flight Recorder file and prints the Wellnest
+ * store operations and view rebuilds that took the most time.
+ *
+ * Usage: {@code java JfrAnalyzer recording.jfr [top]}
+ */
+class JfrAnalyzer {
+
+    /**
+     * Totals of one kind of operation, for example "load tasks.txt".
+     */
+    private static class Totals {
+        final String name;
+        long count;
+        long totalNanos;
+        long maxNanos;
+        long records;
+        long bytes;
+
+        Totals(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java JfrAnalyzer recording.jfr [top]");
+            return;
+        }
+        int top = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        for (Totals totals : analyze(Paths.get(args[0]), top)) {
+            System.out.printf("%-45s %6d x  total %9.2f ms  max %8.2f ms  records %8d  bytes %10d%n", totals.name,
+                    totals.count, totals.totalNanos / 1e6, totals.maxNanos / 1e6, totals.records, totals.bytes);
+        }
+    }
+
+    /**
+     * Groups the Wellnest events of a recording by operation and returns the
+     * groups with the highest total duration first.
+     *
+     * @param recording The .jfr file to read.
+     * @param top       The maximum number of groups to return.
+     * @return The top offenders.
+     * @throws IOException If the recording cannot be read.
+     */
+    static List<Totals> analyze(Path recording, int top) throws IOException {
+        Map<String, Totals> byName = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+            String type = event.getEventType().getName();
+            String name;
+            if ("wellnest.StoreOperation".equals(type)) {
+                name = event.getString("operation") + " " + event.getString("file");
+            } else if ("wellnest.ViewRebuild".equals(type)) {
+                name = "view " + event.getString("view");
+            } else {
+                continue;
+            }
+            Totals totals = byName.computeIfAbsent(name, Totals::new);
+            long nanos = event.getDuration().toNanos();
+            totals.count++;
+            totals.totalNanos += nanos;
+            totals.maxNanos = Math.max(totals.maxNanos, nanos);
+            if ("wellnest.StoreOperation".equals(type)) {
+                totals.records += event.getInt("records");
+                totals.bytes += event.getLong("bytes");
+            }
+        }
+        List<Totals> sorted = new ArrayList<>(byName.values());
+        sorted.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        return sorted.subList(0, Math.min(top, sorted.size()));
+    }
+}
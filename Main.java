@@ -1,18 +1,31 @@
 import javax.swing.SwingUtilities;
 
-class Main extends Wellnest {
+class Main {
+    /**
+     * Starts the Wellnest window, or runs a command without a window when
+     * there are arguments; see {@link WellnestCli}. {@code --cds-archive}
+     * makes a class data sharing archive for faster starts; see
+     * {@link CdsTraining}.
+     *
+     * @param args The command to run, if any.
+     */
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new Wellnest());
-    }
-
-    float num1 = 12.5f;
-    float result = 0;
-    
-    public Main() {
-        for (int i = 0; i < 10; i++) {
-            result = result + num1;
-            System.out.println("Result: " + result);
+        boolean training = args.length == 1 && "--cds-training".equals(args[0]);
+        if (args.length == 1 && "--cds-archive".equals(args[0])) {
+            System.exit(CdsTraining.createArchive());
+        }
+        if (args.length > 0 && !training) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(WellnestCli.run(args));
         }
-        
+        Metrics.registerMBean();
+        EdtWatchdog.installIfEnabled();
+        SwingUtilities.invokeLater(() -> {
+            if (training) {
+                CdsTraining.train();
+            } else {
+                new Wellnest();
+            }
+        });
     }
-}
\ No newline at end of file
+}
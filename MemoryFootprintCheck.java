@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Command-line tool that checks the memory footprint of the record tables, the
+ * way {@code memory <max bytes per record>} of {@link WellnestCli} does for a
+ * database, without needing one: it writes a fixed synthetic database to a
+ * temporary directory, with {@value #HABITS} habits scheduled on each of the
+ * last {@value #DAYS} days and a fixed mix of progress, completions and skips,
+ * then loads it once with each record table and compares the bytes per record
+ * of the {@link MemoryReport} with a maximum per table. Exits with status 1 if
+ * a table takes more.
+ *
+ * The days end yesterday, so every record stays in memory instead of being
+ * sealed in the archive.
+ *
+ * Usage: {@code java MemoryFootprintCheck [max heap bytes] [max off-heap bytes]}
+ */
+class MemoryFootprintCheck {
+
+    private static final int HABITS = 20;
+    private static final int DAYS = 300;
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        long maxHeapBytes = args.length > 0 ? Long.parseLong(args[0]) : 210;
+        long maxOffHeapBytes = args.length > 1 ? Long.parseLong(args[1]) : 30;
+        boolean[] passed = { false };
+        SwingUtilities.invokeAndWait(() -> {
+            File directory;
+            try {
+                directory = Files.createTempDirectory("wellnest-memory-check").toFile();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            try {
+                int records = fill(directory);
+                passed[0] = check(directory, "heap", records, maxHeapBytes)
+                        & check(directory, "offheap", records, maxOffHeapBytes);
+            } finally {
+                delete(directory);
+            }
+        });
+        System.out.println(passed[0] ? "Both tables are within their footprint" : "Footprint check failed");
+        System.exit(passed[0] ? 0 : 1);
+    }
+
+    /**
+     * Writes the synthetic database in one batch.
+     *
+     * @return The number of records written.
+     */
+    private static int fill(File directory) {
+        System.setProperty("wellnest.store", "heap");
+        HabitStore store = new HabitStore(directory);
+        store.load();
+        Random random = new Random(1);
+        LocalDate to = LocalDate.now().minusDays(1);
+        LocalDate from = to.minusDays(DAYS - 1);
+        store.beginBatch();
+        for (int habit = 0; habit < HABITS; habit++) {
+            String name = "Habit " + habit;
+            store.addTasks(name, from, to, EnumSet.allOf(DayOfWeek.class), 1 + habit % 3);
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                int outcome = random.nextInt(10);
+                if (outcome < 6) {
+                    store.complete(date, name);
+                } else if (outcome < 7) {
+                    store.setStatus(date, name, "Skipped");
+                } else if (outcome < 9) {
+                    store.setProgress(date, name, 50.0f);
+                }
+            }
+        }
+        store.commitBatch();
+        int records = store.getRecordCount();
+        store.close();
+        return records;
+    }
+
+    /**
+     * Loads the database with one record table and compares its bytes per
+     * record with the maximum.
+     */
+    private static boolean check(File directory, String table, int records, long maxBytesPerRecord) {
+        System.setProperty("wellnest.store", table);
+        HabitStore store = new HabitStore(directory);
+        store.load();
+        MemoryReport report = new MemoryReport();
+        store.reportMemory(report);
+        store.close();
+        boolean passed = store.getRecordCount() == records && report.getBytesPerRecord() <= maxBytesPerRecord;
+        System.out.println(table + ": " + store.getRecordCount() + " records, " + report.getBytesPerRecord()
+                + " bytes per record, at most " + maxBytesPerRecord + (passed ? "" : ": FAILED"));
+        return passed;
+    }
+
+    private static void delete(File directory) {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
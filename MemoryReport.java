@@ -0,0 +1,315 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The MemoryReport class estimates how many bytes the data structures of
+ * Wellnest retain, so the heap can be sized for a given history.
+ *
+ * Each holder of data adds its structures with {@link #add(String, long, long)}:
+ * the record table, the habit summaries, the month aggregates, the memtable and
+ * segment indexes of the engine, the archive indexes, the rollups and the
+ * caches of the window. The sizes are computed from the number of entries
+ * with the object layout of a 64-bit HotSpot JVM with compressed references,
+ * the default below 32 GB of heap: 12-byte headers, 4-byte references and
+ * objects aligned to 8 bytes. They are estimates, not measurements.
+ *
+ * The habit names, statuses and dates are shared by many structures and may
+ * be repeated in every key. They are passed through {@link #string(String)}
+ * and {@link #date(LocalDate)}, which count each instance once, for the holder
+ * that reaches it first, and keep the duplication statistics: how often a
+ * value is referenced, by how many instances, and the bytes taken by the
+ * instances beyond the first of each value.
+ */
+class MemoryReport {
+
+    // Object layout of a 64-bit JVM with compressed references
+    static final int HEADER_BYTES = 12;
+    static final int REFERENCE_BYTES = 4;
+    static final int ARRAY_HEADER_BYTES = 16;
+
+    // Sizes of the JDK objects the stores are made of
+    static final long TREE_MAP_BYTES = object(5 * REFERENCE_BYTES + 8 + 2 * REFERENCE_BYTES);
+    static final long TREE_MAP_ENTRY_BYTES = object(5 * REFERENCE_BYTES + 1);
+    static final long TREE_SET_BYTES = object(REFERENCE_BYTES) + TREE_MAP_BYTES;
+    static final long HASH_MAP_BYTES = object(4 * REFERENCE_BYTES + 16);
+    static final long LINKED_HASH_MAP_BYTES = object(6 * REFERENCE_BYTES + 17);
+    static final long HASH_MAP_NODE_BYTES = object(4 + 3 * REFERENCE_BYTES);
+    static final long LINKED_HASH_MAP_ENTRY_BYTES = object(4 + 5 * REFERENCE_BYTES);
+    static final long ARRAY_LIST_BYTES = object(8 + REFERENCE_BYTES);
+    static final long LOCAL_DATE_BYTES = object(8);
+    static final long STRING_BYTES = object(REFERENCE_BYTES + 4 + 1 + 1);
+    static final long YEAR_MONTH_BYTES = object(8);
+    static final long RECORD_BYTES = object(3 * REFERENCE_BYTES + 8); // HabitRecord and TaskRowModel
+
+    /**
+     * The estimate of one holder of data.
+     */
+    static final class Entry {
+        final String name;
+        final long entries;
+        final long bytes;
+        final boolean offHeap;
+
+        Entry(String name, long entries, long bytes, boolean offHeap) {
+            this.name = name;
+            this.entries = entries;
+            this.bytes = bytes;
+            this.offHeap = offHeap;
+        }
+    }
+
+    /**
+     * How often the values of one kind are referenced and stored.
+     */
+    static final class Duplication {
+        long references;
+        long instances;
+        long duplicateBytes;
+        private final Set<Object> values = new HashSet<>();
+
+        long getDistinctValues() {
+            return values.size();
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Object, Boolean> counted = new IdentityHashMap<>();
+    private final Duplication strings = new Duplication();
+    private final Duplication dates = new Duplication();
+    private long recordCount;
+    private long recordBytes;
+
+    /**
+     * Adds the estimate of a holder of data on the heap.
+     *
+     * @param name    The name of the holder, such as {@code records}.
+     * @param count   The number of entries it holds.
+     * @param bytes   The bytes it retains, strings and dates included.
+     */
+    void add(String name, long count, long bytes) {
+        entries.add(new Entry(name, count, bytes, false));
+    }
+
+    /**
+     * Adds memory a holder keeps outside the heap.
+     *
+     * @param name  The name of the holder.
+     * @param count The number of entries it holds.
+     * @param bytes The bytes it allocated.
+     */
+    void addOffHeap(String name, long count, long bytes) {
+        entries.add(new Entry(name, count, bytes, true));
+    }
+
+    /**
+     * Sets the records of the record table, whose bytes give the cost of a
+     * record.
+     *
+     * @param count The number of records.
+     * @param bytes The bytes the table retains on and off the heap.
+     */
+    void setRecords(long count, long bytes) {
+        recordCount = count;
+        recordBytes = bytes;
+    }
+
+    /**
+     * Counts a reference to a string.
+     *
+     * @param value The string, or null.
+     * @return The bytes of the string if this is the first reference to this
+     *         instance, otherwise 0.
+     */
+    long string(String value) {
+        if (value == null) {
+            return 0;
+        }
+        boolean latin1 = value.chars().allMatch(c -> c < 256);
+        return count(strings, value, STRING_BYTES + array(value.length(), latin1 ? 1 : 2));
+    }
+
+    /**
+     * Counts a reference to a date.
+     *
+     * @param value The date, or null.
+     * @return The bytes of the date if this is the first reference to this
+     *         instance, otherwise 0.
+     */
+    long date(LocalDate value) {
+        return value == null ? 0 : count(dates, value, LOCAL_DATE_BYTES);
+    }
+
+    /**
+     * Claims an object that several holders may refer to, so that only the
+     * first one counts it.
+     *
+     * @param value The object.
+     * @return True if the object was not claimed before.
+     */
+    boolean claim(Object value) {
+        return counted.put(value, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Counts a record, its date and its strings, unless the record was
+     * counted before.
+     *
+     * @param record The record.
+     * @return The bytes of the record if it was not counted before, otherwise
+     *         0.
+     */
+    long record(HabitRecord record) {
+        if (!claim(record)) {
+            return 0;
+        }
+        return RECORD_BYTES + date(record.getDate()) + string(record.getName()) + string(record.getStatus());
+    }
+
+    private long count(Duplication duplication, Object value, long bytes) {
+        duplication.references++;
+        if (!claim(value)) {
+            return 0;
+        }
+        duplication.instances++;
+        if (!duplication.values.add(value)) {
+            duplication.duplicateBytes += bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @param fieldBytes The bytes of the fields of an object.
+     * @return The size of the object, header and alignment included.
+     */
+    static long object(int fieldBytes) {
+        return align(HEADER_BYTES + fieldBytes);
+    }
+
+    /**
+     * @param length       The length of an array.
+     * @param elementBytes The size of an element.
+     * @return The size of the array.
+     */
+    static long array(int length, int elementBytes) {
+        return align(ARRAY_HEADER_BYTES + (long) length * elementBytes);
+    }
+
+    /**
+     * @param size The number of entries of a HashMap grown by insertion.
+     * @return The size of the map, its table and its nodes, not of the keys
+     *         and values.
+     */
+    static long hashMap(int size) {
+        int capacity = hashMapCapacity(size);
+        return HASH_MAP_BYTES + (capacity > 0 ? array(capacity, REFERENCE_BYTES) : 0) + size * HASH_MAP_NODE_BYTES;
+    }
+
+    /**
+     * @param size The number of entries of a LinkedHashMap grown by insertion.
+     * @return The size of the map, its table and its entries, not of the keys
+     *         and values.
+     */
+    static long linkedHashMap(int size) {
+        int capacity = hashMapCapacity(size);
+        return LINKED_HASH_MAP_BYTES + (capacity > 0 ? array(capacity, REFERENCE_BYTES) : 0)
+                + size * LINKED_HASH_MAP_ENTRY_BYTES;
+    }
+
+    /**
+     * @param size The number of entries of a TreeMap.
+     * @return The size of the map and its entries, not of the keys and values.
+     */
+    static long treeMap(int size) {
+        return TREE_MAP_BYTES + size * TREE_MAP_ENTRY_BYTES;
+    }
+
+    /**
+     * @param size The number of entries of a HashMap grown by insertion.
+     * @return The table length it has, 0 while empty.
+     */
+    private static int hashMapCapacity(int size) {
+        int capacity = 16;
+        while (size > capacity * 3 / 4) {
+            capacity *= 2;
+        }
+        return size == 0 ? 0 : capacity;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The bytes of all holders on the heap.
+     */
+    long getHeapBytes() {
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.offHeap ? 0 : entry.bytes;
+        }
+        return total;
+    }
+
+    /**
+     * @return The bytes the record table retains per record, or 0 without
+     *         records.
+     */
+    long getBytesPerRecord() {
+        return recordCount == 0 ? 0 : recordBytes / recordCount;
+    }
+
+    Duplication getStrings() {
+        return strings;
+    }
+
+    Duplication getDates() {
+        return dates;
+    }
+
+    /**
+     * Sets the {@code memory.*} gauges of the {@link Metrics} registry.
+     */
+    void publish() {
+        for (Entry entry : entries) {
+            String prefix = "memory." + entry.name + (entry.offHeap ? ".offHeap" : "");
+            Metrics.setGauge(prefix + ".bytes", entry.bytes);
+            Metrics.setGauge(prefix + ".entries", entry.entries);
+        }
+        Metrics.setGauge("memory.heapBytes", getHeapBytes());
+        Metrics.setGauge("memory.bytesPerRecord", getBytesPerRecord());
+        Metrics.setGauge("memory.strings.duplicateBytes", strings.duplicateBytes);
+        Metrics.setGauge("memory.dates.duplicateBytes", dates.duplicateBytes);
+    }
+
+    /**
+     * @return The report as a text table.
+     */
+    String format() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-24s %10s %12s %10s%n", "Store", "Entries", "Bytes", "Per entry"));
+        for (Entry entry : entries) {
+            text.append(String.format("%-24s %10d %12d %10s%n", entry.name + (entry.offHeap ? " (off-heap)" : ""),
+                    entry.entries, entry.bytes, entry.entries == 0 ? "-" : entry.bytes / entry.entries));
+        }
+        text.append(String.format("%-24s %10s %12d%n", "Total on the heap", "", getHeapBytes()));
+        text.append(String.format("%nRecords: %d, %d bytes per record%n", recordCount, getBytesPerRecord()));
+        appendDuplication(text, "Strings", strings);
+        appendDuplication(text, "Dates", dates);
+        return text.toString();
+    }
+
+    private static void appendDuplication(StringBuilder text, String kind, Duplication duplication) {
+        text.append(String.format("%s: %d references to %d instances of %d values, %d bytes duplicated%n", kind,
+                duplication.references, duplication.instances, duplication.getDistinctValues(),
+                duplication.duplicateBytes));
+    }
+}
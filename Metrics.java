@@ -0,0 +1,216 @@
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The Metrics class is a small in-process registry of counters, gauges and
+ * latency histograms.
+ *
+ * Counters and histograms are backed by {@link LongAdder}s, so recording a
+ * value costs a few nanoseconds and no lock. Summaries are only computed when
+ * somebody reads them through the {@link MetricsMXBean} interface.
+ *
+ * Names are dotted, for example {@code io.loadTasksFromFile} for the latency of
+ * a load method or {@code file.tasks.txt.bytesRead} for the bytes read from a
+ * file.
+ */
+class Metrics implements MetricsMXBean {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile Supplier<String> memoryReporter;
+
+    private Metrics() {
+    }
+
+    static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the registry with the platform MBean server. Calling it more
+     * than once has no effect.
+     */
+    static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("wellnest:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds the given amount to a counter.
+     *
+     * @param name   The name of the counter.
+     * @param amount The amount to add.
+     */
+    static void increment(String name, long amount) {
+        INSTANCE.counters.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+    }
+
+    static void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * Sets a gauge to the given value.
+     *
+     * @param name  The name of the gauge.
+     * @param value The current value.
+     */
+    static void setGauge(String name, long value) {
+        INSTANCE.gauges.computeIfAbsent(name, k -> new AtomicLong()).set(value);
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} value.
+     *
+     * @param name      The name of the histogram.
+     * @param startNanos The value of System.nanoTime() when the operation began.
+     */
+    static void recordSince(String name, long startNanos) {
+        record(name, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a latency in nanoseconds.
+     *
+     * @param name  The name of the histogram.
+     * @param nanos The latency.
+     */
+    static void record(String name, long nanos) {
+        INSTANCE.histograms.computeIfAbsent(name, k -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Adds the size of a file that was just read in full to its bytes-read
+     * counter.
+     *
+     * @param path The path of the file.
+     */
+    static void recordFileRead(String path) {
+        increment("file." + path + ".bytesRead", new File(path).length());
+    }
+
+    /**
+     * Adds the size of a file that was just written in full to its
+     * bytes-written counter.
+     *
+     * @param path The path of the file.
+     */
+    static void recordFileWrite(String path) {
+        increment("file." + path + ".bytesWritten", new File(path).length());
+    }
+
+    /**
+     * Sets what makes the report of {@link #getMemoryReport()}.
+     *
+     * @param reporter Makes the report and sets the {@code memory.*} gauges.
+     */
+    static void setMemoryReporter(Supplier<String> reporter) {
+        INSTANCE.memoryReporter = reporter;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> result = new TreeMap<>();
+        gauges.forEach((name, gauge) -> result.put(name, gauge.get()));
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getLatencies() {
+        Map<String, String> result = new TreeMap<>();
+        histograms.forEach((name, histogram) -> result.put(name, histogram.summary()));
+        return result;
+    }
+
+    @Override
+    public String getMemoryReport() {
+        Supplier<String> reporter = memoryReporter;
+        return reporter == null ? "No memory report available" : reporter.get();
+    }
+
+    @Override
+    public void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * A latency histogram with power-of-two buckets in nanoseconds. Percentiles
+     * are reported as the upper bound of the bucket they fall in.
+     */
+    static class LatencyHistogram {
+        private static final int BUCKETS = 40;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        LatencyHistogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value))].increment();
+            count.increment();
+            total.add(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @param quantile A value between 0 and 1.
+         * @return The upper bound in nanoseconds of the bucket holding the quantile.
+         */
+        long percentile(double quantile) {
+            long n = count.sum();
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : 1L << i;
+                }
+            }
+            return max.get();
+        }
+
+        String summary() {
+            long n = count.sum();
+            double mean = n == 0 ? 0 : total.sum() / (double) n;
+            return String.format("count=%d mean=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms", n, mean / 1e6,
+                    percentile(0.5) / 1e6, percentile(0.99) / 1e6, max.get() / 1e6);
+        }
+    }
+}
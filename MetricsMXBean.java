@@ -0,0 +1,40 @@
+import java.util.Map;
+
+/**
+ * Management interface of the Wellnest metrics registry.
+ *
+ * The registry is registered under {@code wellnest:type=Metrics}, so JConsole
+ * and VisualVM can read the counters, gauges and latency summaries of a running
+ * application.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return The value of every counter, keyed by name.
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return The last value of every gauge, keyed by name.
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * @return A one-line summary (count, mean, p50, p99, max in milliseconds)
+     *         of every latency histogram, keyed by name.
+     */
+    Map<String, String> getLatencies();
+
+    /**
+     * Estimates the heap the data of the application retains, per store, and
+     * sets the {@code memory.*} gauges.
+     *
+     * @return The report as a text table.
+     */
+    String getMemoryReport();
+
+    /**
+     * Clears all counters and histograms. Gauges keep their last value.
+     */
+    void reset();
+}
@@ -0,0 +1,85 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collection;
+
+/**
+ * The MonthAggregate class holds, for each day of a month, how many tasks are
+ * scheduled and how many of them are completed, for the calendar of the Add
+ * Task view.
+ *
+ * The {@link HabitStore} computes an aggregate from the habit summaries the
+ * first time a month is asked for and keeps it in a cache. When a task
+ * changes, the store recounts the day of the task in its cached month, so
+ * paging through the calendar never reads the records or the files.
+ */
+class MonthAggregate {
+
+    private final YearMonth month;
+    private final int[] taskCounts;
+    private final int[] completedCounts;
+
+    /**
+     * Counts the tasks of every day of a month.
+     *
+     * @param month     The month.
+     * @param summaries The summaries of all habits.
+     */
+    MonthAggregate(YearMonth month, Collection<HabitSummary> summaries) {
+        this.month = month;
+        this.taskCounts = new int[month.lengthOfMonth()];
+        this.completedCounts = new int[month.lengthOfMonth()];
+        for (HabitSummary summary : summaries) {
+            summary.countDays(month, taskCounts, completedCounts);
+        }
+    }
+
+    YearMonth getMonth() {
+        return month;
+    }
+
+    /**
+     * @param report The report of the memory; the month is counted once.
+     * @return The bytes of the aggregate and its month.
+     */
+    long estimateBytes(MemoryReport report) {
+        return MemoryReport.object(3 * MemoryReport.REFERENCE_BYTES) + 2 * MemoryReport.array(taskCounts.length, 4)
+                + (report.claim(month) ? MemoryReport.YEAR_MONTH_BYTES : 0);
+    }
+
+    /**
+     * Counts the tasks of one day again after a change.
+     *
+     * @param date      A date of the month.
+     * @param summaries The summaries of all habits.
+     */
+    void recount(LocalDate date, Collection<HabitSummary> summaries) {
+        int tasks = 0;
+        int completed = 0;
+        for (HabitSummary summary : summaries) {
+            if (summary.isScheduled(date)) {
+                tasks++;
+                if (summary.isCompleted(date)) {
+                    completed++;
+                }
+            }
+        }
+        taskCounts[date.getDayOfMonth() - 1] = tasks;
+        completedCounts[date.getDayOfMonth() - 1] = completed;
+    }
+
+    /**
+     * @param date A date of the month.
+     * @return The number of tasks scheduled on the date.
+     */
+    int getTaskCount(LocalDate date) {
+        return taskCounts[date.getDayOfMonth() - 1];
+    }
+
+    /**
+     * @param date A date of the month.
+     * @return The number of tasks completed on the date.
+     */
+    int getCompletedCount(LocalDate date) {
+        return completedCounts[date.getDayOfMonth() - 1];
+    }
+}
@@ -0,0 +1,347 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The OffHeapRecordTable class keeps the records outside the Java heap, so
+ * years of history neither grow the heap nor lengthen garbage collection.
+ *
+ * The records are rows of five columns, each a direct {@link ByteBuffer}: the
+ * epoch day, the habit, the steps, the progress and the status. Habit names
+ * and statuses are stored once, on the heap, and the rows refer to them by
+ * number. The rows are sorted by day, and within a day in the order the tasks
+ * were added, so the day column is the date index: the rows of a date are
+ * found by binary search, and a range of dates is one run of rows. A row
+ * costs 17 bytes and no object.
+ *
+ * Adding or removing a row moves the rows after it. Most tasks are added on
+ * the latest dates, at the end, where nothing has to move.
+ *
+ * Records are created from the rows when asked for. Those of the date asked
+ * for last are kept on the heap as the view, so the day on screen is not
+ * created again on every lookup; {@link #put(HabitRecord)} updates the row and
+ * the view together.
+ */
+class OffHeapRecordTable implements RecordTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INT_BYTES = 4;
+    private static final int ROW_BYTES = 4 * INT_BYTES + 1;
+    private static final long BUFFER_OBJECT_BYTES = 144; // A DirectByteBuffer with its Cleaner and Deallocator
+
+    // Columns; row i of a column starts at i times its width
+    private ByteBuffer days;
+    private ByteBuffer habits;
+    private ByteBuffer steps;
+    private ByteBuffer progress;
+    private ByteBuffer statuses; // One byte; 0 is no status
+    private int capacity;
+    private int size;
+    private int dateCount;
+
+    private final List<String> habitNames = new ArrayList<>();
+    private final Map<String, Integer> habitIds = new HashMap<>();
+    private final List<String> statusNames = new ArrayList<>(Collections.singletonList(null));
+    private final Map<String, Integer> statusIds = new HashMap<>();
+
+    // The records of the date asked for last, by task name in row order
+    private int viewDay;
+    private Map<String, HabitRecord> view;
+
+    OffHeapRecordTable() {
+        allocate(INITIAL_CAPACITY);
+        updateGauges();
+    }
+
+    @Override
+    public List<HabitRecord> get(LocalDate date) {
+        Map<String, HabitRecord> records = view(date);
+        return records.isEmpty() ? Collections.emptyList() : new ArrayList<>(records.values());
+    }
+
+    @Override
+    public HabitRecord get(LocalDate date, String taskName) {
+        return view(date).get(taskName);
+    }
+
+    @Override
+    public boolean contains(LocalDate date) {
+        int day = day(date);
+        int row = firstRow(day);
+        return row < size && dayAt(row) == day;
+    }
+
+    @Override
+    public boolean put(HabitRecord record) {
+        int day = day(record.getDate());
+        int habit = habitId(record.getName());
+        int from = firstRow(day);
+        int to = firstRow(day + 1);
+        int row = findRow(from, to, habit);
+        boolean added = row < 0;
+        if (added) {
+            row = to; // After the tasks added before it
+            insertRow(row);
+            days.putInt(row * INT_BYTES, day);
+            habits.putInt(row * INT_BYTES, habit);
+            if (from == to) {
+                dateCount++;
+            }
+        }
+        steps.putInt(row * INT_BYTES, record.getSteps());
+        progress.putFloat(row * INT_BYTES, record.getProgress());
+        statuses.put(row, (byte) statusId(record.getStatus()));
+        if (view != null && viewDay == day) {
+            view.put(record.getName(), record);
+        }
+        return added;
+    }
+
+    @Override
+    public HabitRecord remove(LocalDate date, String taskName) {
+        HabitRecord record = get(date, taskName);
+        if (record == null) {
+            return null;
+        }
+        int day = day(date);
+        int from = firstRow(day);
+        int to = firstRow(day + 1);
+        removeRows(findRow(from, to, habitIds.get(taskName)), 1);
+        if (to - from == 1) {
+            dateCount--;
+        }
+        view.remove(taskName);
+        return record;
+    }
+
+    @Override
+    public List<HabitRecord> getRange(LocalDate from, LocalDate to) {
+        int first = firstRow(day(from));
+        int last = firstRow(day(to));
+        List<HabitRecord> records = new ArrayList<>(last - first);
+        for (int row = first; row < last; row++) {
+            records.add(recordAt(row));
+        }
+        return records;
+    }
+
+    @Override
+    public int removeRange(LocalDate from, LocalDate to) {
+        int first = firstRow(day(from));
+        int last = firstRow(day(to));
+        for (int row = first; row < last; row++) {
+            if (row == first || dayAt(row) != dayAt(row - 1)) {
+                dateCount--;
+            }
+        }
+        removeRows(first, last - first);
+        if (view != null && viewDay >= day(from) && viewDay < day(to)) {
+            view = null;
+        }
+        return last - first;
+    }
+
+    @Override
+    public void forEach(Consumer<HabitRecord> consumer) {
+        for (int row = 0; row < size; row++) {
+            consumer.accept(recordAt(row));
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dateCount() {
+        return dateCount;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        dateCount = 0;
+        view = null;
+    }
+
+    @Override
+    public long reportMemory(MemoryReport report) {
+        long bytes = 5 * BUFFER_OBJECT_BYTES;
+        bytes += MemoryReport.ARRAY_LIST_BYTES + MemoryReport.array(habitNames.size(), MemoryReport.REFERENCE_BYTES)
+                + MemoryReport.hashMap(habitIds.size()) + habitIds.size() * MemoryReport.object(4);
+        for (String name : habitNames) {
+            bytes += report.string(name);
+        }
+        bytes += MemoryReport.ARRAY_LIST_BYTES + MemoryReport.array(statusNames.size(), MemoryReport.REFERENCE_BYTES)
+                + MemoryReport.hashMap(statusIds.size()) + statusIds.size() * MemoryReport.object(4);
+        for (String status : statusNames) {
+            bytes += report.string(status);
+        }
+        if (view != null) {
+            bytes += MemoryReport.linkedHashMap(view.size());
+            for (HabitRecord record : view.values()) {
+                bytes += report.record(record);
+            }
+        }
+        report.add("records", size, bytes);
+        report.addOffHeap("records", size, (long) capacity * ROW_BYTES);
+        return bytes + (long) capacity * ROW_BYTES;
+    }
+
+    /**
+     * @return The records of the date, which becomes the view.
+     */
+    private Map<String, HabitRecord> view(LocalDate date) {
+        int day = day(date);
+        if (view == null || viewDay != day) {
+            Map<String, HabitRecord> records = new LinkedHashMap<>();
+            for (int row = firstRow(day); row < size && dayAt(row) == day; row++) {
+                HabitRecord record = recordAt(row);
+                records.put(record.getName(), record);
+            }
+            view = records;
+            viewDay = day;
+        }
+        return view;
+    }
+
+    private HabitRecord recordAt(int row) {
+        int day = dayAt(row);
+        String name = habitNames.get(habits.getInt(row * INT_BYTES));
+        if (view != null && viewDay == day) {
+            HabitRecord record = view.get(name);
+            if (record != null) {
+                return record;
+            }
+        }
+        return new HabitRecord(LocalDate.ofEpochDay(day), name, steps.getInt(row * INT_BYTES),
+                progress.getFloat(row * INT_BYTES), statusNames.get(statuses.get(row)));
+    }
+
+    private int dayAt(int row) {
+        return days.getInt(row * INT_BYTES);
+    }
+
+    /**
+     * @return The first row on or after the day, found by binary search.
+     */
+    private int firstRow(int day) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (dayAt(middle) < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The row of the habit between the two rows, or -1.
+     */
+    private int findRow(int from, int to, int habit) {
+        for (int row = from; row < to; row++) {
+            if (habits.getInt(row * INT_BYTES) == habit) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private void insertRow(int row) {
+        if (size == capacity) {
+            allocate(capacity * 2);
+        }
+        int moved = size - row;
+        if (moved > 0) {
+            for (ByteBuffer column : new ByteBuffer[] { days, habits, steps, progress }) {
+                column.put((row + 1) * INT_BYTES, column, row * INT_BYTES, moved * INT_BYTES);
+            }
+            statuses.put(row + 1, statuses, row, moved);
+        }
+        size++;
+    }
+
+    private void removeRows(int row, int count) {
+        int moved = size - row - count;
+        if (moved > 0) {
+            for (ByteBuffer column : new ByteBuffer[] { days, habits, steps, progress }) {
+                column.put(row * INT_BYTES, column, (row + count) * INT_BYTES, moved * INT_BYTES);
+            }
+            statuses.put(row, statuses, row + count, moved);
+        }
+        size -= count;
+    }
+
+    /**
+     * Moves the columns to new buffers of the given capacity. The old buffers
+     * are freed when they are collected.
+     */
+    private void allocate(int newCapacity) {
+        days = grow(days, INT_BYTES, newCapacity);
+        habits = grow(habits, INT_BYTES, newCapacity);
+        steps = grow(steps, INT_BYTES, newCapacity);
+        progress = grow(progress, INT_BYTES, newCapacity);
+        statuses = grow(statuses, 1, newCapacity);
+        capacity = newCapacity;
+        updateGauges();
+    }
+
+    private ByteBuffer grow(ByteBuffer column, int width, int newCapacity) {
+        ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity * width).order(ByteOrder.nativeOrder());
+        if (column != null) {
+            grown.put(0, column, 0, size * width);
+        }
+        return grown;
+    }
+
+    private int habitId(String name) {
+        Integer id = habitIds.get(name);
+        if (id == null) {
+            id = habitNames.size();
+            habitNames.add(name);
+            habitIds.put(name, id);
+        }
+        return id;
+    }
+
+    private int statusId(String status) {
+        if (status == null) {
+            return 0;
+        }
+        Integer id = statusIds.get(status);
+        if (id == null) {
+            if (statusNames.size() > Byte.MAX_VALUE) {
+                throw new IllegalStateException("Too many different statuses: " + status);
+            }
+            id = statusNames.size();
+            statusNames.add(status);
+            statusIds.put(status, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return The epoch day of the date, limited to the range of an int so
+     *         that {@link LocalDate#MIN} and {@link LocalDate#MAX} can bound a
+     *         range.
+     */
+    private static int day(LocalDate date) {
+        return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, date.toEpochDay()));
+    }
+
+    private void updateGauges() {
+        Metrics.setGauge("store.offHeapBytes", (long) capacity * ROW_BYTES);
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The PanelCache class remembers which data version each cached view was last
+ * built or patched from.
+ *
+ * The Wellnest application bumps its data version on every change to the task,
+ * status or progress databases. When the user navigates to a view, the view is
+ * only rebuilt or patched if the data changed since it was last shown, so
+ * switching between sidebar sections does no I/O and almost no work.
+ */
+class PanelCache {
+
+    private final Map<String, Long> versions = new HashMap<>();
+
+    /**
+     * @param view        The name of the view.
+     * @param dataVersion The current data version.
+     * @return true if the view was built or patched from the given version.
+     */
+    boolean isCurrent(String view, long dataVersion) {
+        Long version = versions.get(view);
+        return version != null && version == dataVersion;
+    }
+
+    /**
+     * Records that the view now reflects the given data version.
+     *
+     * @param view        The name of the view.
+     * @param dataVersion The data version the view was built or patched from.
+     */
+    void markCurrent(String view, long dataVersion) {
+        versions.put(view, dataVersion);
+    }
+
+    /**
+     * Forces the view to be rebuilt the next time it is shown.
+     *
+     * @param view The name of the view.
+     */
+    void invalidate(String view) {
+        versions.remove(view);
+    }
+}
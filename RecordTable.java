@@ -0,0 +1,123 @@
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The RecordTable interface holds the {@link HabitRecord}s the
+ * {@link HabitStore} keeps in memory, by date and, within a date, in the order
+ * the tasks were added.
+ *
+ * Two tables are available, chosen with {@code -Dwellnest.store} when the
+ * store is constructed: {@code heap} (the default), a {@link HeapRecordTable}
+ * of record objects, and {@code offheap}, an {@link OffHeapRecordTable} that
+ * keeps the records in direct buffers outside the Java heap.
+ *
+ * A record returned by a table may be a copy. After changing one, the store
+ * puts it back with {@link #put(HabitRecord)}.
+ */
+interface RecordTable {
+
+    /**
+     * Constructs the table given by the {@code wellnest.store} system
+     * property.
+     *
+     * @return The table.
+     */
+    static RecordTable fromSystemProperties() {
+        String kind = System.getProperty("wellnest.store", "heap");
+        if ("offheap".equalsIgnoreCase(kind)) {
+            return new OffHeapRecordTable();
+        }
+        if (!"heap".equalsIgnoreCase(kind)) {
+            System.out.println("Unknown store, using heap: " + kind);
+        }
+        return new HeapRecordTable();
+    }
+
+    /**
+     * @param date The date to look up.
+     * @return The records of the date in the order they were added; empty if
+     *         the date has none.
+     */
+    List<HabitRecord> get(LocalDate date);
+
+    /**
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     * @return The record, or null if there is none.
+     */
+    HabitRecord get(LocalDate date, String taskName);
+
+    /**
+     * @param date The date to look up.
+     * @return True if the date has any record.
+     */
+    boolean contains(LocalDate date);
+
+    /**
+     * Adds a record, or stores the fields of a record the table already holds
+     * for its date and task.
+     *
+     * @param record The record.
+     * @return True if the record was added.
+     */
+    boolean put(HabitRecord record);
+
+    /**
+     * Removes the record of a task on a date.
+     *
+     * @param date     The date of the task.
+     * @param taskName The name of the task.
+     * @return The removed record, or null if there was none.
+     */
+    HabitRecord remove(LocalDate date, String taskName);
+
+    /**
+     * @param from The first date, inclusive.
+     * @param to   The last date, exclusive.
+     * @return The records of the dates, by date and then in the order they
+     *         were added.
+     */
+    List<HabitRecord> getRange(LocalDate from, LocalDate to);
+
+    /**
+     * Removes the records of a range of dates.
+     *
+     * @param from The first date, inclusive.
+     * @param to   The last date, exclusive.
+     * @return The number of records removed.
+     */
+    int removeRange(LocalDate from, LocalDate to);
+
+    /**
+     * Passes every record to the consumer, by date and then in the order they
+     * were added. The consumer must not change the table.
+     *
+     * @param consumer The consumer.
+     */
+    void forEach(Consumer<HabitRecord> consumer);
+
+    /**
+     * @return The number of records.
+     */
+    int size();
+
+    /**
+     * @return The number of dates with records.
+     */
+    int dateCount();
+
+    /**
+     * Removes every record.
+     */
+    void clear();
+
+    /**
+     * Adds the estimated size of the table to a memory report, as
+     * {@code records}.
+     *
+     * @param report The report.
+     * @return The bytes the table retains, on and off the heap.
+     */
+    long reportMemory(MemoryReport report);
+}
@@ -0,0 +1,227 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Command-line tool that checks the {@link RecordTable} contract against both
+ * tables, the {@link HeapRecordTable} and the {@link OffHeapRecordTable}, with
+ * the same cases:
+ * <ul>
+ * <li>adding a record and storing the fields of one already held, which keeps
+ * the order the tasks were added in;</li>
+ * <li>removing the last record of a date, which removes the date;</li>
+ * <li>range reads and removals bounded by {@link LocalDate#MIN} and
+ * {@link LocalDate#MAX};</li>
+ * <li>reading a date again after its records were removed, changed or
+ * cleared, which the off-heap table serves from its view of the date read
+ * last;</li>
+ * <li>random puts and removals over more records than the off-heap table
+ * first allocates, compared with a simple model after every step.</li>
+ * </ul>
+ * Exits with status 1 if a table breaks the contract.
+ *
+ * Usage: {@code java RecordTableCheck [operations] [seed]}
+ */
+class RecordTableCheck {
+
+    private static final LocalDate DATE = LocalDate.of(2024, 3, 1);
+
+    private final String tableName;
+    private int failures;
+
+    private RecordTableCheck(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int failures = check("heap", HeapRecordTable::new, operations, seed)
+                + check("offheap", OffHeapRecordTable::new, operations, seed);
+        System.out.println(failures == 0 ? "Both tables keep the contract" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static int check(String name, Supplier<RecordTable> tables, int operations, long seed) {
+        RecordTableCheck check = new RecordTableCheck(name);
+        check.checkPut(tables.get());
+        check.checkRemoveLastOfDate(tables.get());
+        check.checkUnboundedRanges(tables.get());
+        check.checkViewInvalidation(tables.get());
+        check.checkAgainstModel(tables.get(), operations, new Random(seed));
+        System.out.println(name + ": " + (check.failures == 0 ? "passed" : check.failures + " checks failed"));
+        return check.failures;
+    }
+
+    private void checkPut(RecordTable table) {
+        expect("put adds a record", table.put(record(DATE, "Read", 1, 0.0f, null)));
+        table.put(record(DATE, "Run", 2, 0.0f, null));
+        table.put(record(DATE, "Walk", 1, 0.0f, null));
+        expect("put of a held task stores its fields",
+                !table.put(record(DATE, "Run", 3, 50.0f, "Skipped")));
+        expect("stored fields are read back", "2024-03-01|Run|3|50.0|Skipped", line(table.get(DATE, "Run")));
+        expect("order of the tasks is kept", "[Read, Run, Walk]", names(table.get(DATE)));
+
+        HabitRecord changed = table.get(DATE, "Read");
+        changed.setProgress(100.0f);
+        changed.setStatus("Completed");
+        table.put(changed);
+        expect("a changed record put back is read back", "2024-03-01|Read|1|100.0|Completed",
+                line(table.get(DATE, "Read")));
+        expect("size counts each task once", 3, table.size());
+        expect("dateCount counts the date once", 1, table.dateCount());
+    }
+
+    private void checkRemoveLastOfDate(RecordTable table) {
+        table.put(record(DATE, "Read", 1, 0.0f, null));
+        table.put(record(DATE.plusDays(1), "Read", 1, 0.0f, null));
+        table.put(record(DATE.plusDays(1), "Run", 1, 0.0f, null));
+        expect("remove returns the record", "2024-03-01|Read|1|0.0|", line(table.remove(DATE, "Read")));
+        expect("removing the last record removes the date", false, table.contains(DATE));
+        expect("the date has no records", 0, table.get(DATE).size());
+        expect("dateCount after removing the last record of a date", 1, table.dateCount());
+        expect("removing a missing record returns null", null, line(table.remove(DATE, "Read")));
+        table.remove(DATE.plusDays(1), "Read");
+        expect("dateCount after removing one of two records", 1, table.dateCount());
+        expect("size after the removals", 1, table.size());
+    }
+
+    private void checkUnboundedRanges(RecordTable table) {
+        for (int day = 0; day < 10; day++) {
+            table.put(record(DATE.plusDays(9 - day), "Read", 1, 0.0f, null)); // Newest first
+            table.put(record(DATE.plusDays(9 - day), "Run", 1, 0.0f, null));
+        }
+        expect("getRange(MIN, MAX) returns every record", 20, table.getRange(LocalDate.MIN, LocalDate.MAX).size());
+        expect("getRange is sorted by date", DATE, table.getRange(LocalDate.MIN, LocalDate.MAX).get(0).getDate());
+        expect("getRange excludes its end", 4, table.getRange(LocalDate.MIN, DATE.plusDays(2)).size());
+        expect("removeRange(MIN, date) returns the count", 6, table.removeRange(LocalDate.MIN, DATE.plusDays(3)));
+        expect("removeRange(date, MAX) returns the count", 8, table.removeRange(DATE.plusDays(6), LocalDate.MAX));
+        expect("size after the range removals", 6, table.size());
+        expect("dateCount after the range removals", 3, table.dateCount());
+        expect("removeRange of an empty range", 0, table.removeRange(LocalDate.MIN, DATE));
+        expect("getRange after the removals starts at the first date left", DATE.plusDays(3),
+                table.getRange(LocalDate.MIN, LocalDate.MAX).get(0).getDate());
+    }
+
+    private void checkViewInvalidation(RecordTable table) {
+        table.put(record(DATE, "Read", 1, 0.0f, null));
+        table.put(record(DATE, "Run", 1, 0.0f, null));
+        table.get(DATE);
+        table.remove(DATE, "Read");
+        expect("a removed record is gone from its date", "[Run]", names(table.get(DATE)));
+        table.put(record(DATE, "Walk", 1, 0.0f, null));
+        expect("an added record shows on its date", "[Run, Walk]", names(table.get(DATE)));
+        table.put(record(DATE, "Run", 2, 25.0f, null));
+        expect("a stored record shows on its date", "2024-03-01|Run|2|25.0|", line(table.get(DATE).get(0)));
+        table.put(record(DATE.minusDays(1), "Read", 1, 0.0f, null)); // Moves the rows of the date
+        expect("records of the date after an earlier date was added", "[Run, Walk]", names(table.get(DATE)));
+        table.removeRange(DATE, DATE.plusDays(1));
+        expect("a removed range is gone from its date", 0, table.get(DATE).size());
+        expect("a removed range is gone from its task", null, line(table.get(DATE, "Run")));
+        table.put(record(DATE, "Read", 1, 0.0f, null));
+        table.get(DATE);
+        table.clear();
+        expect("clear empties the date", 0, table.get(DATE).size());
+        expect("clear empties the table", 0, table.size());
+        expect("clear removes the dates", 0, table.dateCount());
+    }
+
+    /**
+     * Makes random puts, removals and range removals over a few hundred dates,
+     * so the table grows well past its first capacity and rows are inserted in
+     * the middle, and compares the table with a model after each one.
+     */
+    private void checkAgainstModel(RecordTable table, int operations, Random random) {
+        String[] habits = { "Read", "Run", "Stretch", "Journal", "Meditate", "Walk", "Water", "Sleep" };
+        String[] statuses = { null, "Completed", "Skipped" };
+        TreeMap<LocalDate, Map<String, String>> model = new TreeMap<>();
+        int peak = 0;
+        for (int i = 0; i < operations && failures == 0; i++) {
+            LocalDate date = DATE.plusDays(random.nextInt(400));
+            String habit = habits[random.nextInt(habits.length)];
+            int choice = random.nextInt(20);
+            if (choice < 14) {
+                HabitRecord record = record(date, habit, 1 + random.nextInt(3), 25.0f * random.nextInt(5),
+                        statuses[random.nextInt(statuses.length)]);
+                Map<String, String> day = model.computeIfAbsent(date, k -> new LinkedHashMap<>());
+                expect("put reports whether it added", day.put(habit, record.toLine()) == null, table.put(record));
+            } else if (choice < 19) {
+                Map<String, String> day = model.get(date);
+                String removed = day != null ? day.remove(habit) : null;
+                if (day != null && day.isEmpty()) {
+                    model.remove(date);
+                }
+                expect("remove returns the removed record", removed, line(table.remove(date, habit)));
+            } else {
+                LocalDate to = date.plusDays(random.nextInt(5));
+                int removed = 0;
+                for (Map<String, String> day : model.subMap(date, to).values()) {
+                    removed += day.size();
+                }
+                model.subMap(date, to).clear();
+                expect("removeRange returns the count", removed, table.removeRange(date, to));
+            }
+            peak = Math.max(peak, table.size());
+            compare(table, model, date);
+        }
+        expect("the table grew past the first capacity of the off-heap table", true, peak > 1024);
+    }
+
+    private void compare(RecordTable table, Map<LocalDate, Map<String, String>> model, LocalDate date) {
+        List<String> expected = new ArrayList<>();
+        for (Map<String, String> day : model.values()) {
+            expected.addAll(day.values());
+        }
+        expect("size", expected.size(), table.size());
+        expect("dateCount", model.size(), table.dateCount());
+        List<String> all = new ArrayList<>();
+        table.forEach(record -> all.add(line(record)));
+        expect("forEach", expected, all);
+        expect("getRange(MIN, MAX)", expected, lines(table.getRange(LocalDate.MIN, LocalDate.MAX)));
+        Map<String, String> day = model.get(date);
+        expect("get(date)", day != null ? new ArrayList<>(day.values()) : new ArrayList<>(), lines(table.get(date)));
+        expect("contains", day != null, table.contains(date));
+    }
+
+    private void expect(String what, boolean condition) {
+        expect(what, true, condition);
+    }
+
+    private void expect(String what, Object expected, Object actual) {
+        if (!String.valueOf(expected).equals(String.valueOf(actual))) {
+            if (failures < 10) {
+                System.out.println("  " + tableName + ": " + what + ": expected " + expected + ", found " + actual);
+            }
+            failures++;
+        }
+    }
+
+    private static HabitRecord record(LocalDate date, String name, int steps, float progress, String status) {
+        return new HabitRecord(date, name, steps, progress, status);
+    }
+
+    private static String line(HabitRecord record) {
+        return record != null ? record.toLine() : null;
+    }
+
+    private static List<String> lines(List<HabitRecord> records) {
+        List<String> lines = new ArrayList<>();
+        for (HabitRecord record : records) {
+            lines.add(record.toLine());
+        }
+        return lines;
+    }
+
+    private static String names(List<HabitRecord> records) {
+        List<String> names = new ArrayList<>();
+        for (HabitRecord record : records) {
+            names.add(record.getName());
+        }
+        return names.toString();
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The ReminderScheduler class fires the daily reminders of the habits and
+ * tells the application when the day changes.
+ *
+ * Each habit can have any number of reminder times. When one comes up and the
+ * habit is scheduled for today but neither completed nor skipped, the
+ * {@link Listener} is asked to remind the user. The times are kept in
+ * {@code reminders.txt} as one "habit|HH:mm,HH:mm" line per habit.
+ *
+ * All reminders and the midnight rollover share one {@link TimingWheel} with
+ * one-second ticks, driven by a single daemon thread. A tick only visits the
+ * reminders of its own slot, so thousands of reminders cost no more per tick
+ * than a few and need no thread or timer each. When the computer wakes from
+ * sleep, the reminders it slept through fire once and the day rolls over.
+ */
+class ReminderScheduler {
+
+    static final String REMINDERS_FILE_NAME = "reminders.txt";
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 4096;
+
+    /**
+     * Receives the reminders and the day changes on the event dispatch thread.
+     */
+    interface Listener {
+
+        /**
+         * A reminder came up for a habit that is still open today.
+         *
+         * @param taskName The name of the habit.
+         * @param time     The reminder time.
+         */
+        void remind(String taskName, LocalTime time);
+
+        /**
+         * The date changed, usually at midnight.
+         *
+         * @param today The new date.
+         */
+        void dayChanged(LocalDate today);
+    }
+
+    /**
+     * One reminder time of one habit and its pending timeout.
+     */
+    private static final class Reminder {
+        private final String taskName;
+        private final LocalTime time;
+        private TimingWheel.Timeout timeout;
+
+        private Reminder(String taskName, LocalTime time) {
+            this.taskName = taskName;
+            this.time = time;
+        }
+    }
+
+    private final HabitStore store;
+    private final File file;
+    private final Listener listener;
+    private final TimingWheel wheel = new TimingWheel(WHEEL_SLOTS, TICK_MILLIS, System.currentTimeMillis());
+
+    // Reminders by habit name, guarded by this
+    private final Map<String, List<Reminder>> reminders = new TreeMap<>();
+
+    private ScheduledExecutorService ticker;
+    private LocalDate today; // Only touched by the ticker thread
+
+    /**
+     * Constructs a scheduler for the reminders file in the given directory.
+     * Call {@link #start()} to load it and start firing.
+     *
+     * @param store     The store to check the habits against.
+     * @param directory The directory holding the data files.
+     * @param listener  The listener for reminders and day changes.
+     */
+    ReminderScheduler(HabitStore store, File directory, Listener listener) {
+        this.store = store;
+        this.file = new File(directory, REMINDERS_FILE_NAME);
+        this.listener = listener;
+    }
+
+    /**
+     * Loads the reminder times, schedules them and starts the ticker thread.
+     */
+    void start() {
+        load();
+        today = LocalDate.now();
+        scheduleRollover();
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wellnest-reminders");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the ticker thread. Pending reminders no longer fire.
+     */
+    void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * @param taskName The name of the habit.
+     * @return The reminder times of the habit in ascending order; empty if it
+     *         has none.
+     */
+    synchronized List<LocalTime> getReminderTimes(String taskName) {
+        List<LocalTime> times = new ArrayList<>();
+        for (Reminder reminder : reminders.getOrDefault(taskName, Collections.emptyList())) {
+            times.add(reminder.time);
+        }
+        return times;
+    }
+
+    /**
+     * Replaces the reminder times of a habit and saves all reminders.
+     *
+     * @param taskName The name of the habit.
+     * @param times    The new reminder times; empty to remove the reminders.
+     */
+    void setReminderTimes(String taskName, List<LocalTime> times) {
+        synchronized (this) {
+            List<Reminder> previous = reminders.remove(taskName);
+            if (previous != null) {
+                for (Reminder reminder : previous) {
+                    reminder.timeout.cancel();
+                }
+            }
+            if (!times.isEmpty()) {
+                addReminders(taskName, times);
+            }
+        }
+        save();
+    }
+
+    /**
+     * Parses a list of reminder times such as "08:00, 20:30".
+     *
+     * @param text The times, separated by commas; blank for none.
+     * @return The times in ascending order, without duplicates.
+     * @throws DateTimeParseException If a time is not in the HH:mm format.
+     */
+    static List<LocalTime> parseTimes(String text) {
+        List<LocalTime> times = new ArrayList<>();
+        for (String part : text.split(",")) {
+            if (!part.isBlank()) {
+                LocalTime time = LocalTime.parse(part.trim()).withSecond(0).withNano(0);
+                if (!times.contains(time)) {
+                    times.add(time);
+                }
+            }
+        }
+        Collections.sort(times);
+        return times;
+    }
+
+    /**
+     * Formats reminder times the way {@link #parseTimes(String)} reads them.
+     *
+     * @param times The times.
+     * @return The times, separated by ", ".
+     */
+    static String formatTimes(List<LocalTime> times) {
+        StringBuilder text = new StringBuilder();
+        for (LocalTime time : times) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(time);
+        }
+        return text.toString();
+    }
+
+    // Guarded by this
+    private void addReminders(String taskName, List<LocalTime> times) {
+        List<Reminder> list = new ArrayList<>();
+        for (LocalTime time : times) {
+            Reminder reminder = new Reminder(taskName, time);
+            reminder.timeout = wheel.schedule(nextOccurrence(time), () -> fire(reminder));
+            list.add(reminder);
+        }
+        reminders.put(taskName, list);
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        int fired = wheel.advanceTo(System.currentTimeMillis());
+        Metrics.setGauge("reminders.scheduled", wheel.size());
+        if (fired > 0) {
+            Metrics.increment("reminders.timeouts", fired);
+        }
+        Metrics.recordSince("reminders.tick", start);
+    }
+
+    /**
+     * Runs on the ticker thread when a reminder comes up: schedules it for the
+     * next day and lets the event dispatch thread check whether the habit is
+     * still open.
+     */
+    private void fire(Reminder reminder) {
+        synchronized (this) {
+            List<Reminder> current = reminders.get(reminder.taskName);
+            if (current == null || !current.contains(reminder)) {
+                return; // Replaced since it was scheduled
+            }
+            reminder.timeout = wheel.schedule(nextOccurrence(reminder.time), () -> fire(reminder));
+        }
+        SwingUtilities.invokeLater(() -> {
+            HabitRecord record = store.getRecord(LocalDate.now(), reminder.taskName);
+            if (record != null && !record.isCompleted() && !"Skipped".equals(record.getStatus())) {
+                Metrics.increment("reminders.shown");
+                listener.remind(reminder.taskName, reminder.time);
+            }
+        });
+    }
+
+    private void scheduleRollover() {
+        ZonedDateTime midnight = LocalDate.now().plusDays(1).atStartOfDay(ZoneId.systemDefault());
+        wheel.schedule(midnight.toInstant().toEpochMilli(), this::rollOver);
+    }
+
+    private void rollOver() {
+        LocalDate now = LocalDate.now();
+        if (!now.equals(today)) {
+            today = now;
+            Metrics.increment("reminders.rollovers");
+            SwingUtilities.invokeLater(() -> listener.dayChanged(now));
+        }
+        scheduleRollover();
+    }
+
+    /**
+     * @return The next time the given time of day comes up, in milliseconds
+     *         since the epoch.
+     */
+    private static long nextOccurrence(LocalTime time) {
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime next = now.with(time);
+        if (!next.isAfter(now)) {
+            next = now.toLocalDate().plusDays(1).atTime(time).atZone(now.getZone());
+        }
+        return next.toInstant().toEpochMilli();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf('|');
+                try {
+                    List<LocalTime> times = parseTimes(line.substring(separator + 1));
+                    if (separator <= 0 || times.isEmpty()) {
+                        throw new DateTimeParseException("No reminder times", line, separator + 1);
+                    }
+                    synchronized (this) {
+                        addReminders(line.substring(0, separator), times);
+                    }
+                } catch (DateTimeParseException e) {
+                    System.out.println("Reminder format is incorrect: " + line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+
+    private void save() {
+        Map<String, List<LocalTime>> snapshot = new TreeMap<>();
+        synchronized (this) {
+            for (String taskName : reminders.keySet()) {
+                snapshot.put(taskName, getReminderTimes(taskName));
+            }
+        }
+        try {
+            AtomicFile.write(file, writer -> {
+                for (Map.Entry<String, List<LocalTime>> entry : snapshot.entrySet()) {
+                    writer.write(entry.getKey() + "|" + formatTimes(entry.getValue()).replace(" ", ""));
+                    writer.newLine();
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            Metrics.increment("io.errors");
+        }
+    }
+}
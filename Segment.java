@@ -0,0 +1,341 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Segment class is one immutable, sorted file of the {@link HabitEngine}.
+ * Segments are written once, when the memtable is flushed or when older
+ * segments are merged, and never changed afterwards.
+ *
+ * A segment file holds its entries sorted by (epoch day, habit name), followed
+ * by a sparse index, a {@link BloomFilter} of its keys, its last key and a
+ * fixed-size footer:
+ *
+ * <pre>
+ * int magic, int version
+ * entry*          int epochDay, UTF name, byte tombstone
+ *                 [int steps, float progress, UTF status] if not a tombstone
+ * int indexSize
+ * index entry*    int epochDay, UTF name, long offset (every 64th entry)
+ * bloom filter    int hashes, int words, long word*
+ * last key        int epochDay, UTF name
+ * long indexOffset, long bloomOffset, int entryCount
+ * </pre>
+ *
+ * The sparse index, the filter and the key range are kept in memory. A lookup
+ * of a key the filter rules out, or a range scan outside the key range, does
+ * not touch the file; otherwise the read seeks straight to the block that can
+ * hold its first key and then reads sequentially.
+ *
+ * Version 1 files, written before the filter was added, have neither filter
+ * nor last key and a 12-byte footer. They are still read; every lookup goes to
+ * the file until they are merged away.
+ */
+class Segment {
+
+    private static final int MAGIC = 0x574E5347; // "WNSG"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8;
+    private static final int FOOTER_BYTES = 20;
+    private static final int VERSION_1_FOOTER_BYTES = 12;
+    private static final int INDEX_INTERVAL = 64;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private final File file;
+    private final int entryCount;
+    private final List<HabitEngine.Key> indexKeys;
+    private final long[] indexOffsets;
+    private final BloomFilter bloomFilter; // Null for version 1 files
+    private final long firstEpochDay;
+    private final long lastEpochDay;
+
+    private Segment(File file, int entryCount, List<HabitEngine.Key> indexKeys, long[] indexOffsets,
+            BloomFilter bloomFilter, HabitEngine.Key lastKey) {
+        this.file = file;
+        this.entryCount = entryCount;
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.bloomFilter = bloomFilter;
+        this.firstEpochDay = indexKeys.isEmpty() ? Long.MAX_VALUE : indexKeys.get(0).epochDay;
+        this.lastEpochDay = lastKey != null ? lastKey.epochDay : indexKeys.isEmpty() ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Estimates the bytes of the index and the Bloom filter the segment keeps
+     * in memory, for a {@link MemoryReport}.
+     *
+     * @param report The report, which counts the shared names.
+     * @return The bytes of the segment.
+     */
+    long estimateBytes(MemoryReport report) {
+        long bytes = MemoryReport.object(4 * MemoryReport.REFERENCE_BYTES + 4 + 16)
+                + MemoryReport.ARRAY_LIST_BYTES + MemoryReport.array(indexKeys.size(), MemoryReport.REFERENCE_BYTES)
+                + MemoryReport.array(indexOffsets.length, 8);
+        for (HabitEngine.Key key : indexKeys) {
+            bytes += HabitEngine.Key.BYTES + report.string(key.name);
+        }
+        if (bloomFilter != null) {
+            bytes += MemoryReport.object(MemoryReport.REFERENCE_BYTES + 4)
+                    + MemoryReport.array(bloomFilter.getByteSize(), 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * @param key The key to test.
+     * @return False if the segment certainly does not hold the key, so it does
+     *         not need to be read.
+     */
+    boolean mightContain(HabitEngine.Key key) {
+        if (key.epochDay < firstEpochDay || key.epochDay > lastEpochDay) {
+            return false;
+        }
+        return bloomFilter == null || bloomFilter.mightContain(key);
+    }
+
+    /**
+     * @param fromEpochDay The first day of a range.
+     * @param toEpochDay   The last day of the range.
+     * @return True if the segment may hold keys in the range.
+     */
+    boolean overlaps(long fromEpochDay, long toEpochDay) {
+        return fromEpochDay <= lastEpochDay && toEpochDay >= firstEpochDay;
+    }
+
+    /**
+     * Writes the entries of a cursor to a new segment file. The file is
+     * replaced atomically, so a crash never leaves a partial segment.
+     *
+     * @param file            The segment file to write.
+     * @param entries         The entries, in key order. The cursor is consumed.
+     * @param expectedEntries The number of entries at most, to size the filter.
+     * @param dropTombstones  True to leave deletions out, which is only safe
+     *                        when no older segment can hold the deleted keys.
+     * @return The written segment.
+     * @throws IOException If the file could not be written.
+     */
+    static Segment write(File file, HabitEngine.Cursor entries, int expectedEntries, boolean dropTombstones)
+            throws IOException {
+        List<HabitEngine.Key> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        BloomFilter bloomFilter = new BloomFilter(expectedEntries);
+        HabitEngine.Key[] lastKey = new HabitEngine.Key[1];
+        int[] count = new int[1];
+
+        AtomicFile.writeBytes(file, stream -> {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, READ_BUFFER_BYTES));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            while (entries.next()) {
+                HabitRecord record = entries.record();
+                if (record == null && dropTombstones) {
+                    continue;
+                }
+                HabitEngine.Key key = entries.key();
+                if (count[0] % INDEX_INTERVAL == 0) {
+                    indexKeys.add(key);
+                    indexOffsets.add((long) out.size());
+                }
+                bloomFilter.add(key);
+                lastKey[0] = key;
+                out.writeInt((int) key.epochDay);
+                out.writeUTF(key.name);
+                out.writeBoolean(record == null);
+                if (record != null) {
+                    out.writeInt(record.getSteps());
+                    out.writeFloat(record.getProgress());
+                    out.writeUTF(record.getStatus() != null ? record.getStatus() : "");
+                }
+                count[0]++;
+            }
+            long indexOffset = out.size();
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeInt((int) indexKeys.get(i).epochDay);
+                out.writeUTF(indexKeys.get(i).name);
+                out.writeLong(indexOffsets.get(i));
+            }
+            long bloomOffset = out.size();
+            bloomFilter.writeTo(out);
+            out.writeInt(lastKey[0] != null ? (int) lastKey[0].epochDay : 0);
+            out.writeUTF(lastKey[0] != null ? lastKey[0].name : "");
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeInt(count[0]);
+            out.flush();
+        });
+
+        long[] offsets = new long[indexOffsets.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = indexOffsets.get(i);
+        }
+        Metrics.recordFileWrite(file.getPath());
+        return new Segment(file, count[0], Collections.unmodifiableList(indexKeys), offsets, bloomFilter, lastKey[0]);
+    }
+
+    /**
+     * Opens an existing segment file and reads its sparse index.
+     *
+     * @param file The segment file.
+     * @return The segment.
+     * @throws IOException If the file cannot be read or is not a segment.
+     */
+    static Segment open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0);
+            int version = header.getInt(4);
+            if (header.getInt(0) != MAGIC || (version != VERSION && version != 1)) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            int footerBytes = version == 1 ? VERSION_1_FOOTER_BYTES : FOOTER_BYTES;
+            if (size < HEADER_BYTES + footerBytes) {
+                throw new IOException("Segment is too short: " + file);
+            }
+            ByteBuffer footer = ByteBuffer.allocate(footerBytes);
+            channel.read(footer, size - footerBytes);
+            long indexOffset = footer.getLong(0);
+            int entryCount = footer.getInt(footerBytes - 4);
+
+            channel.position(indexOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            int indexSize = in.readInt();
+            List<HabitEngine.Key> indexKeys = new ArrayList<>(indexSize);
+            long[] indexOffsets = new long[indexSize];
+            for (int i = 0; i < indexSize; i++) {
+                indexKeys.add(new HabitEngine.Key(in.readInt(), in.readUTF()));
+                indexOffsets[i] = in.readLong();
+            }
+            BloomFilter bloomFilter = null;
+            HabitEngine.Key lastKey = null;
+            if (version != 1) {
+                // The filter follows the index directly
+                bloomFilter = BloomFilter.readFrom(in);
+                lastKey = new HabitEngine.Key(in.readInt(), in.readUTF());
+                if (entryCount == 0) {
+                    lastKey = null;
+                }
+            }
+            Metrics.recordFileRead(file.getPath());
+            return new Segment(file, entryCount, Collections.unmodifiableList(indexKeys), indexOffsets, bloomFilter,
+                    lastKey);
+        }
+    }
+
+    /**
+     * Opens a cursor positioned before the first entry whose key is not less
+     * than the given key. The caller must close it.
+     *
+     * @param from The smallest key of interest.
+     * @return The cursor.
+     * @throws IOException If the file cannot be opened.
+     */
+    HabitEngine.Cursor cursor(HabitEngine.Key from) throws IOException {
+        int block = Collections.binarySearch(indexKeys, from);
+        if (block < 0) {
+            block = Math.max(0, -block - 2);
+        }
+        long offset = indexKeys.isEmpty() ? HEADER_BYTES : indexOffsets[block];
+        return new SegmentCursor(offset, block * INDEX_INTERVAL, from);
+    }
+
+    /**
+     * Looks up one key.
+     *
+     * @param key The key to look up.
+     * @return The entry of the key, or null if the segment does not hold it. The
+     *         record of the entry is null if the key was deleted.
+     * @throws IOException If the file cannot be read.
+     */
+    HabitEngine.Entry find(HabitEngine.Key key) throws IOException {
+        try (HabitEngine.Cursor cursor = cursor(key)) {
+            if (cursor.next() && cursor.key().equals(key)) {
+                return new HabitEngine.Entry(cursor.key(), cursor.record());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the entries of the segment sequentially from a block offset,
+     * skipping the ones before the requested key.
+     */
+    private class SegmentCursor implements HabitEngine.Cursor {
+        private final FileChannel channel;
+        private final DataInputStream in;
+        private final HabitEngine.Key from;
+        private int ordinal;
+        private HabitEngine.Key key;
+        private HabitRecord record;
+
+        SegmentCursor(long offset, int ordinal, HabitEngine.Key from) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            channel.position(offset);
+            this.in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), READ_BUFFER_BYTES));
+            this.ordinal = ordinal;
+            this.from = from;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (ordinal < entryCount) {
+                ordinal++;
+                try {
+                    int epochDay = in.readInt();
+                    String name = in.readUTF();
+                    boolean tombstone = in.readBoolean();
+                    key = new HabitEngine.Key(epochDay, name);
+                    record = tombstone ? null
+                            : new HabitRecord(LocalDate.ofEpochDay(epochDay), name, in.readInt(), in.readFloat(),
+                                    emptyToNull(in.readUTF()));
+                } catch (EOFException e) {
+                    throw new IOException("Segment is truncated: " + file, e);
+                }
+                if (key.compareTo(from) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public HabitEngine.Key key() {
+            return key;
+        }
+
+        @Override
+        public HabitRecord record() {
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static String emptyToNull(String status) {
+        return status.isEmpty() ? null : status;
+    }
+}
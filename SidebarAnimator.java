@@ -0,0 +1,139 @@
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JComponent;
+import javax.swing.JLayeredPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * The SidebarAnimator class slides the sidebar in and out without laying out
+ * the window on every frame.
+ *
+ * The sidebar is painted once into an image. While the animation runs, the
+ * image slides over the content on the layered pane of the window, and each
+ * frame only moves and repaints that overlay. The window is laid out once:
+ * at the start when the sidebar collapses, so the content moves over and the
+ * image slides out on top of it, and at the end when it expands. The cost of
+ * a frame therefore depends on the size of the sidebar, not on how many rows
+ * the content shows.
+ */
+class SidebarAnimator {
+
+    private static final int FRAME_MILLIS = 10;
+    private static final int STEP_PIXELS = 5;
+
+    private final JLayeredPane layeredPane;
+    private final JComponent sidebar;
+    private final int width;
+    private final Overlay overlay = new Overlay();
+
+    private BufferedImage snapshot;
+    private Timer timer;
+
+    /**
+     * Constructs an animator for a sidebar.
+     *
+     * @param layeredPane The layered pane of the window to animate on.
+     * @param sidebar     The sidebar panel.
+     * @param width       The width of the expanded sidebar.
+     */
+    SidebarAnimator(JLayeredPane layeredPane, JComponent sidebar, int width) {
+        this.layeredPane = layeredPane;
+        this.sidebar = sidebar;
+        this.width = width;
+    }
+
+    /**
+     * @return true while the sidebar is sliding.
+     */
+    boolean isRunning() {
+        return timer != null;
+    }
+
+    /**
+     * Slides the sidebar out.
+     *
+     * @param layoutCollapsed Lays the window out with the sidebar collapsed; run
+     *                        once, before the first frame.
+     */
+    void collapse(Runnable layoutCollapsed) {
+        Point location = SwingUtilities.convertPoint(sidebar.getParent(), sidebar.getLocation(), layeredPane);
+        takeSnapshot(sidebar.getHeight());
+        layoutCollapsed.run();
+        animate(location, width, -STEP_PIXELS, null);
+    }
+
+    /**
+     * Slides the sidebar in.
+     *
+     * @param layoutExpanded Lays the window out with the sidebar expanded; run
+     *                       once, after the last frame.
+     */
+    void expand(Runnable layoutExpanded) {
+        Point location = SwingUtilities.convertPoint(sidebar.getParent(), sidebar.getLocation(), layeredPane);
+        int height = sidebar.getHeight();
+        if (snapshot == null || snapshot.getHeight() != height) {
+            // Lay out just the sidebar at full size to paint it; the window follows at the end
+            int collapsedWidth = sidebar.getWidth();
+            sidebar.setSize(width, height);
+            sidebar.validate();
+            takeSnapshot(height);
+            sidebar.setSize(collapsedWidth, height);
+        }
+        animate(location, 0, STEP_PIXELS, layoutExpanded);
+    }
+
+    private void takeSnapshot(int height) {
+        long start = System.nanoTime();
+        snapshot = new BufferedImage(width, Math.max(1, height), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = snapshot.createGraphics();
+        sidebar.paint(g);
+        g.dispose();
+        Metrics.recordSince("ui.sidebarSnapshot", start);
+    }
+
+    private void animate(Point location, int startWidth, int step, Runnable atEnd) {
+        overlay.visibleWidth = startWidth;
+        overlay.setBounds(location.x, location.y, startWidth, snapshot.getHeight());
+        layeredPane.add(overlay, JLayeredPane.DRAG_LAYER);
+        timer = new Timer(FRAME_MILLIS, e -> {
+            long start = System.nanoTime();
+            int previousWidth = overlay.visibleWidth;
+            int visibleWidth = Math.max(0, Math.min(width, previousWidth + step));
+            overlay.visibleWidth = visibleWidth;
+            if (visibleWidth == 0 || visibleWidth == width) {
+                timer.stop();
+                timer = null;
+                if (atEnd != null) {
+                    atEnd.run(); // Laid out before the next paint, so the overlay is replaced without a gap
+                }
+                layeredPane.remove(overlay);
+                layeredPane.repaint(location.x, location.y, width, snapshot.getHeight());
+            } else {
+                // Resizing the overlay lays nothing out; only the strip it covered or covers is repainted
+                overlay.setSize(visibleWidth, snapshot.getHeight());
+                layeredPane.repaint(location.x, location.y, Math.max(previousWidth, visibleWidth),
+                        snapshot.getHeight());
+            }
+            Metrics.recordSince("ui.sidebarFrame", start);
+        });
+        timer.start();
+    }
+
+    /**
+     * Paints the right-hand part of the snapshot that is visible so far, so
+     * the sidebar appears to slide in from the left edge.
+     */
+    private class Overlay extends JComponent {
+        private static final long serialVersionUID = 1L;
+        private int visibleWidth;
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.drawImage(snapshot, visibleWidth - width, 0, null);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event emitted for each logical persistence operation of the
+ * Wellnest application: a load, a save, a status change or a progress update.
+ *
+ * The event is cheap to create. When no recording has it enabled,
+ * {@link #finish(int)} does not even look at the file size.
+ */
+@Name("wellnest.StoreOperation")
+@Label("Store Operation")
+@Category({ "Wellnest", "Persistence" })
+@Description("A load or save of habit data")
+class StoreOperationEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("File")
+    String file;
+
+    @Label("Records")
+    int records;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Creates the event and starts its timer.
+     *
+     * @param operation The logical operation, for example "load" or "statusChange".
+     * @param file      The file the operation reads or writes.
+     * @return The started event.
+     */
+    static StoreOperationEvent start(String operation, String file) {
+        StoreOperationEvent event = new StoreOperationEvent();
+        event.begin();
+        event.operation = operation;
+        event.file = file;
+        return event;
+    }
+
+    /**
+     * Stops the timer and commits the event if a recording wants it.
+     *
+     * @param records The number of records read or written.
+     */
+    void finish(int records) {
+        end();
+        if (shouldCommit()) {
+            this.records = records;
+            this.bytes = new File(file).length();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Command-line tool that checks the merge rules of {@link HabitSync} with
+ * three replicas: three stores in temporary directories that sync through one
+ * shared folder. Sync only runs when the simulation calls
+ * {@link HabitSync#syncNow()}, so it decides which operations a replica
+ * receives in one batch.
+ *
+ * The first scenario removes a completed task and adds it again; one replica
+ * receives the two operations in separate batches, another in one batch, and
+ * all must end with a fresh task. The second aborts a batch of changes, as a
+ * failed command line does, and commits the next one; the other replicas must
+ * only receive the committed batch. The third reopens the replicas between
+ * rounds of random changes, so each compacts its state log and cuts its file
+ * in the shared folder. Then each seed runs random adds, removes,
+ * progress, completions, skips and syncs on random replicas; after a final
+ * sync every replica must have the same records. Exits with status 1 if a
+ * check fails.
+ *
+ * Usage: {@code java SyncSimulation [seeds] [operations] [first seed]}
+ */
+class SyncSimulation {
+
+    private static final int REPLICAS = 3;
+    private static final String[] HABITS = { "Read", "Run" };
+    private static final int DAYS = 3;
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long firstSeed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        System.setProperty("wellnest.sync.intervalMs", "0");
+        boolean[] passed = { true };
+        SwingUtilities.invokeAndWait(() -> {
+            passed[0] = simulate(replicas -> checkReAdd(replicas), "re-add");
+            passed[0] &= simulate(replicas -> checkAbortedBatch(replicas), "aborted batch");
+            passed[0] &= simulate(replicas -> checkCompaction(replicas, new Random(firstSeed), operations),
+                    "compaction");
+            for (long seed = firstSeed; seed < firstSeed + seeds; seed++) {
+                long current = seed;
+                passed[0] &= simulate(replicas -> checkRandom(replicas, new Random(current), operations),
+                        "seed " + seed);
+            }
+        });
+        System.out.println(passed[0] ? "All replicas converged" : "Replicas diverged");
+        System.exit(passed[0] ? 0 : 1);
+    }
+
+    /**
+     * A check over freshly opened replicas.
+     */
+    private interface Scenario {
+        boolean run(HabitStore[] replicas);
+    }
+
+    private static File root;
+
+    /**
+     * Opens three replicas in a new temporary directory, runs a scenario on
+     * them and deletes the directory.
+     */
+    private static boolean simulate(Scenario scenario, String name) {
+        try {
+            root = Files.createTempDirectory("wellnest-sync-simulation").toFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        System.setProperty("wellnest.sync.dir", new File(root, "shared").getPath());
+        HabitStore[] replicas = new HabitStore[REPLICAS];
+        boolean passed = false;
+        try {
+            for (int i = 0; i < REPLICAS; i++) {
+                if (!open(replicas, i)) {
+                    System.out.println(name + ": replica " + i + " did not start syncing");
+                    return false;
+                }
+            }
+            passed = scenario.run(replicas);
+            System.out.println(name + ": " + (passed ? "converged" : "DIVERGED"));
+            return passed;
+        } finally {
+            for (HabitStore replica : replicas) {
+                if (replica != null) {
+                    replica.close();
+                }
+            }
+            delete(root);
+        }
+    }
+
+    private static boolean open(HabitStore[] replicas, int i) {
+        replicas[i] = new HabitStore(new File(root, "replica" + i));
+        replicas[i].load();
+        return replicas[i].getSync() != null;
+    }
+
+    /**
+     * A completes a task; B receives its removal and its new add in separate
+     * batches, C in one batch.
+     */
+    private static boolean checkReAdd(HabitStore[] replicas) {
+        LocalDate date = LocalDate.now().minusDays(1);
+        String habit = HABITS[0];
+        replicas[0].addTask(date, habit, 1);
+        replicas[0].complete(date, habit);
+        syncAll(replicas);
+        replicas[0].removeTask(date, habit);
+        replicas[1].getSync().syncNow();
+        replicas[0].addTask(date, habit, 1);
+        replicas[1].getSync().syncNow();
+        replicas[2].getSync().syncNow();
+
+        boolean passed = compare(replicas);
+        for (int i = 0; i < REPLICAS; i++) {
+            String state = describe(replicas[i].getRecord(date, habit));
+            if (!state.equals("1 steps, 0.0%, null")) {
+                System.out.println("  replica " + i + " has " + state + " instead of a fresh task");
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * A adds and completes a task in a batch it aborts, then adds another task
+     * in a batch it commits; B and C receive only the second task.
+     */
+    private static boolean checkAbortedBatch(HabitStore[] replicas) {
+        LocalDate date = LocalDate.now().minusDays(1);
+        replicas[0].beginBatch();
+        replicas[0].addTask(date, HABITS[0], 1);
+        replicas[0].complete(date, HABITS[0]);
+        replicas[0].abortBatch();
+        replicas[0].beginBatch();
+        replicas[0].addTask(date, HABITS[1], 2);
+        replicas[0].commitBatch();
+        syncAll(replicas);
+
+        boolean passed = true;
+        for (int i = 1; i < REPLICAS; i++) {
+            String aborted = describe(replicas[i].getRecord(date, HABITS[0]));
+            String committed = describe(replicas[i].getRecord(date, HABITS[1]));
+            if (!aborted.equals("not scheduled") || !committed.equals("2 steps, 0.0%, null")) {
+                System.out.println("  replica " + i + " has " + aborted + " and " + committed
+                        + " instead of only the committed task");
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Runs rounds of random changes and reopens the replicas after each, which
+     * compacts their sync state and cuts what the others have read from their
+     * files; the replicas must still converge, and the files must have been
+     * cut.
+     */
+    private static boolean checkCompaction(HabitStore[] replicas, Random random, int operations) {
+        boolean passed = true;
+        for (int round = 0; round < 3 && passed; round++) {
+            passed = checkRandom(replicas, random, operations);
+            for (int i = 0; i < REPLICAS && passed; i++) {
+                replicas[i].close();
+                passed = open(replicas, i);
+            }
+            passed &= compare(replicas);
+        }
+        String device = replicas[0].getSync().getDeviceId();
+        try {
+            String first = Files.readAllLines(new File(root, "shared/" + device + ".ops").toPath()).get(0);
+            if (!first.startsWith("#base ")) {
+                System.out.println("  the file of replica 0 was not cut");
+                passed = false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            passed = false;
+        }
+        return passed && checkRandom(replicas, random, operations);
+    }
+
+    /**
+     * Makes random changes on random replicas, syncing some of them in between,
+     * and compares the replicas after a final sync.
+     */
+    private static boolean checkRandom(HabitStore[] replicas, Random random, int operations) {
+        for (int i = 0; i < operations; i++) {
+            HabitStore replica = replicas[random.nextInt(REPLICAS)];
+            LocalDate date = LocalDate.now().minusDays(random.nextInt(DAYS));
+            String habit = HABITS[random.nextInt(HABITS.length)];
+            HabitRecord record = replica.getRecord(date, habit);
+            switch (random.nextInt(6)) {
+                case 0:
+                    replica.addTask(date, habit, 1 + random.nextInt(3));
+                    break;
+                case 1:
+                    replica.removeTask(date, habit);
+                    break;
+                case 2:
+                    if (record != null) {
+                        replica.setProgress(date, habit, Math.min(100.0f, record.getProgress() + 25.0f));
+                    }
+                    break;
+                case 3:
+                    replica.complete(date, habit);
+                    break;
+                case 4:
+                    replica.setStatus(date, habit, "Skipped");
+                    break;
+                default:
+                    replica.getSync().syncNow();
+            }
+        }
+        syncAll(replicas);
+        return compare(replicas);
+    }
+
+    private static void syncAll(HabitStore[] replicas) {
+        for (HabitStore replica : replicas) {
+            replica.getSync().syncNow();
+        }
+    }
+
+    /**
+     * Compares the records of every task of the simulation on all replicas and
+     * prints the tasks they disagree on.
+     */
+    private static boolean compare(HabitStore[] replicas) {
+        boolean same = true;
+        for (int day = 0; day < DAYS; day++) {
+            LocalDate date = LocalDate.now().minusDays(day);
+            for (String habit : HABITS) {
+                List<String> states = new ArrayList<>();
+                for (HabitStore replica : replicas) {
+                    states.add(describe(replica.getRecord(date, habit)));
+                }
+                if (states.stream().distinct().count() > 1) {
+                    System.out.println("  " + date + " " + habit + ": " + states);
+                    same = false;
+                }
+            }
+        }
+        return same;
+    }
+
+    private static String describe(HabitRecord record) {
+        return record == null ? "not scheduled"
+                : record.getSteps() + " steps, " + record.getProgress() + "%, " + record.getStatus();
+    }
+
+    private static void delete(File directory) {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
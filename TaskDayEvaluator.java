@@ -0,0 +1,95 @@
+import java.awt.Color;
+import java.awt.Component;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Date;
+
+import javax.swing.JComponent;
+
+import com.toedter.calendar.IDateEvaluator;
+import com.toedter.calendar.JDayChooser;
+
+/**
+ * The TaskDayEvaluator class decorates the days of a JCalendar that have
+ * tasks: green when all of them are completed, orange when some are and blue
+ * when none are yet. The tooltip of the day gives the counts.
+ *
+ * The counts come from the {@link MonthAggregate} of the month in the
+ * {@link HabitStore}, so drawing a month costs one lookup per day.
+ *
+ * JCalendar asks {@link #isSpecial(Date)} for each day of the month in order
+ * and then, for a special day, the colors and the tooltip; those are the ones
+ * of the day asked for last. It does not clear the tooltips of the days that
+ * are not special, so they are cleared when the first day is asked for.
+ */
+class TaskDayEvaluator implements IDateEvaluator {
+
+    private static final Color DONE_BACKGROUND = new Color(200, 230, 201);
+    private static final Color PARTLY_DONE_BACKGROUND = new Color(255, 224, 178);
+    private static final Color NOT_DONE_BACKGROUND = new Color(187, 222, 251);
+
+    private final HabitStore store;
+    private final JDayChooser dayChooser;
+
+    // The day asked for last
+    private int taskCount;
+    private int completedCount;
+
+    TaskDayEvaluator(HabitStore store, JDayChooser dayChooser) {
+        this.store = store;
+        this.dayChooser = dayChooser;
+    }
+
+    @Override
+    public boolean isSpecial(Date day) {
+        LocalDate date = day.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        if (date.getDayOfMonth() == 1) {
+            for (Component button : dayChooser.getDayPanel().getComponents()) {
+                ((JComponent) button).setToolTipText(null); // Left over from the month drawn before
+            }
+        }
+        MonthAggregate aggregate = store.getMonthAggregate(YearMonth.from(date));
+        taskCount = aggregate.getTaskCount(date);
+        completedCount = aggregate.getCompletedCount(date);
+        return taskCount > 0;
+    }
+
+    @Override
+    public Color getSpecialForegroundColor() {
+        return Color.BLACK;
+    }
+
+    @Override
+    public Color getSpecialBackroundColor() {
+        if (completedCount == taskCount) {
+            return DONE_BACKGROUND;
+        }
+        return completedCount > 0 ? PARTLY_DONE_BACKGROUND : NOT_DONE_BACKGROUND;
+    }
+
+    @Override
+    public String getSpecialTooltip() {
+        return taskCount + (taskCount == 1 ? " task, " : " tasks, ") + completedCount + " completed";
+    }
+
+    @Override
+    public boolean isInvalid(Date day) {
+        return false;
+    }
+
+    @Override
+    public Color getInvalidForegroundColor() {
+        return null;
+    }
+
+    @Override
+    public Color getInvalidBackroundColor() {
+        return null;
+    }
+
+    @Override
+    public String getInvalidTooltip() {
+        return null;
+    }
+}
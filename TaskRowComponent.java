@@ -0,0 +1,253 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Cursor;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JComponent;
+
+/**
+ * The TaskRowComponent class is one task row of the Today panel: the task
+ * name, the "Completed", "Skipped" and "1" buttons, the progress bar, the
+ * status and the "Remove Task" button.
+ *
+ * The row is a single component that paints all of this itself and finds the
+ * button under the mouse by its bounds, instead of a dozen nested panels,
+ * labels and buttons with layouts of their own. Everything is drawn from the
+ * {@link TaskRowModel}, so a change to the model shows on the next repaint.
+ * The fonts, colors and strokes are shared by all rows.
+ */
+class TaskRowComponent extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Receives the clicks on the buttons of a row.
+     */
+    interface Actions {
+        void complete(TaskRowModel row);
+
+        void skip(TaskRowModel row);
+
+        void addStep(TaskRowModel row);
+
+        void remove(TaskRowModel row);
+    }
+
+    // Shared by all rows; fonts, colors and strokes are immutable
+    private static final Font NAME_FONT = new Font("Arial", Font.BOLD, 25);
+    private static final Font BUTTON_FONT = new Font("Arial", Font.BOLD, 14);
+    private static final Font REMOVE_FONT = new Font("Arial", Font.BOLD, 25);
+    private static final Font STATUS_FONT = new Font("Arial", Font.PLAIN, 14);
+    private static final Color BUTTON_COLOR = new Color(51, 122, 183);
+    private static final Color BUTTON_PRESSED_COLOR = BUTTON_COLOR.darker();
+    private static final Color REMOVE_COLOR = new Color(255, 105, 97);
+    private static final Color REMOVE_PRESSED_COLOR = REMOVE_COLOR.darker();
+    private static final Color DISABLED_COLOR = new Color(184, 207, 229);
+    private static final Color PROGRESS_COLOR = new Color(99, 130, 191);
+    private static final Color PROGRESS_TRACK_COLOR = new Color(238, 238, 238);
+    private static final Color BORDER_COLOR = Color.GRAY;
+    private static final Stroke BORDER_STROKE = new BasicStroke(1f);
+    private static final Cursor HAND_CURSOR = Cursor.getPredefinedCursor(Cursor.HAND_CURSOR);
+    private static final Dimension PREFERRED_SIZE = new Dimension(600, 160);
+    private static final Dimension MINIMUM_SIZE = new Dimension(400, 160);
+    private static final Dimension MAXIMUM_SIZE = new Dimension(Integer.MAX_VALUE, 160);
+
+    // Geometry of the row, in pixels
+    private static final int NAME_TOP = 0;
+    private static final int NAME_HEIGHT = 40;
+    private static final int BUTTONS_TOP = 43;
+    private static final int BUTTONS_HEIGHT = 40;
+    private static final int STATUS_TOP = 86;
+    private static final int STATUS_HEIGHT = 20;
+    private static final int REMOVE_TOP = 109;
+    private static final int REMOVE_HEIGHT = 45;
+    private static final int REMOVE_WIDTH = 200;
+    private static final int GAP = 3;
+
+    // The clickable parts of the row
+    private static final int NONE = -1;
+    private static final int COMPLETE = 0;
+    private static final int SKIP = 1;
+    private static final int STEP = 2;
+    private static final int REMOVE = 3;
+    private static final String[] BUTTON_LABELS = { "Completed", "Skipped", "1", "Remove Task" };
+
+    private final TaskRowModel row;
+    private final Actions actions;
+    private int pressed = NONE;
+
+    // The progress text is only formatted again when the progress changes
+    private float formattedProgress = Float.NaN;
+    private String progressText;
+
+    /**
+     * Constructs the row of a task.
+     *
+     * @param row     The row model to draw.
+     * @param actions The receiver of the button clicks.
+     */
+    TaskRowComponent(TaskRowModel row, Actions actions) {
+        this.row = row;
+        this.actions = actions;
+        setOpaque(true);
+        putClientProperty("taskName", row.getName()); // Lets change events find the row
+
+        MouseAdapter mouseHandler = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                pressed = hitTest(e.getX(), e.getY());
+                if (pressed != NONE) {
+                    repaint();
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                int button = pressed;
+                pressed = NONE;
+                if (button != NONE) {
+                    repaint();
+                    if (hitTest(e.getX(), e.getY()) == button) {
+                        click(button);
+                    }
+                }
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent e) {
+                setCursor(hitTest(e.getX(), e.getY()) != NONE ? HAND_CURSOR : null);
+            }
+        };
+        addMouseListener(mouseHandler);
+        addMouseMotionListener(mouseHandler);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return PREFERRED_SIZE;
+    }
+
+    @Override
+    public Dimension getMinimumSize() {
+        return MINIMUM_SIZE;
+    }
+
+    @Override
+    public Dimension getMaximumSize() {
+        return MAXIMUM_SIZE;
+    }
+
+    private boolean isOpen() {
+        return !row.isCompleted() && !row.isSkipped();
+    }
+
+    private void click(int button) {
+        switch (button) {
+            case COMPLETE:
+                actions.complete(row);
+                break;
+            case SKIP:
+                actions.skip(row);
+                break;
+            case STEP:
+                actions.addStep(row);
+                break;
+            case REMOVE:
+                actions.remove(row);
+                break;
+            default:
+                return;
+        }
+        repaint();
+    }
+
+    /**
+     * @return The enabled button at the given point, or {@code NONE}.
+     */
+    private int hitTest(int x, int y) {
+        if (y >= REMOVE_TOP && y < REMOVE_TOP + REMOVE_HEIGHT) {
+            int left = (getWidth() - REMOVE_WIDTH) / 2;
+            return x >= left && x < left + REMOVE_WIDTH ? REMOVE : NONE;
+        }
+        if (y >= BUTTONS_TOP && y < BUTTONS_TOP + BUTTONS_HEIGHT && isOpen()) {
+            int column = x * 4 / Math.max(1, getWidth());
+            if (column < STEP + 1 && x >= columnLeft(column) && x < columnLeft(column) + columnWidth()) {
+                return column;
+            }
+        }
+        return NONE;
+    }
+
+    private int columnLeft(int column) {
+        return column * getWidth() / 4 + GAP;
+    }
+
+    private int columnWidth() {
+        return getWidth() / 4 - 2 * GAP;
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        Graphics2D g = (Graphics2D) graphics;
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, getWidth(), getHeight());
+
+        g.setColor(Color.BLACK);
+        drawCentered(g, row.getName(), NAME_FONT, 0, NAME_TOP, getWidth(), NAME_HEIGHT);
+
+        boolean open = isOpen();
+        for (int button = COMPLETE; button <= STEP; button++) {
+            Color color = !open ? DISABLED_COLOR : pressed == button ? BUTTON_PRESSED_COLOR : BUTTON_COLOR;
+            drawButton(g, BUTTON_LABELS[button], BUTTON_FONT, color, columnLeft(button), BUTTONS_TOP,
+                    columnWidth(), BUTTONS_HEIGHT);
+        }
+        drawProgress(g, columnLeft(3), BUTTONS_TOP + 10, columnWidth(), BUTTONS_HEIGHT - 20);
+
+        String status = row.isCompleted() ? "Task Completed" : row.isSkipped() ? "Task Skipped" : null;
+        if (status != null) {
+            g.setColor(Color.BLACK);
+            drawCentered(g, status, STATUS_FONT, 0, STATUS_TOP, getWidth(), STATUS_HEIGHT);
+        }
+
+        drawButton(g, BUTTON_LABELS[REMOVE], REMOVE_FONT, pressed == REMOVE ? REMOVE_PRESSED_COLOR : REMOVE_COLOR,
+                (getWidth() - REMOVE_WIDTH) / 2, REMOVE_TOP, REMOVE_WIDTH, REMOVE_HEIGHT);
+    }
+
+    private void drawButton(Graphics2D g, String label, Font font, Color color, int x, int y, int width, int height) {
+        g.setColor(color);
+        g.fillRect(x, y, width, height);
+        g.setColor(Color.WHITE);
+        drawCentered(g, label, font, x, y, width, height);
+    }
+
+    private void drawProgress(Graphics2D g, int x, int y, int width, int height) {
+        float progress = Math.min(100.0f, row.isCompleted() ? 100.0f : row.getProgress());
+        if (progress != formattedProgress) {
+            formattedProgress = progress;
+            progressText = String.format("%.1f%%", progress);
+        }
+        g.setColor(PROGRESS_TRACK_COLOR);
+        g.fillRect(x, y, width, height);
+        g.setColor(PROGRESS_COLOR);
+        g.fillRect(x, y, (int) (width * progress / 100.0f), height);
+        g.setColor(BORDER_COLOR);
+        g.setStroke(BORDER_STROKE);
+        g.drawRect(x, y, width - 1, height - 1);
+        g.setColor(Color.BLACK);
+        drawCentered(g, progressText, BUTTON_FONT, x, y, width, height);
+    }
+
+    private static void drawCentered(Graphics2D g, String text, Font font, int x, int y, int width, int height) {
+        g.setFont(font);
+        FontMetrics metrics = g.getFontMetrics();
+        g.drawString(text, x + (width - metrics.stringWidth(text)) / 2,
+                y + (height - metrics.getHeight()) / 2 + metrics.getAscent());
+    }
+}
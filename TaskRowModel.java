@@ -0,0 +1,72 @@
+import java.time.LocalDate;
+
+/**
+ * The TaskRowModel class holds everything needed to draw one task row of the
+ * Today panel: the date, the task name, the number of steps, the current
+ * progress and the status.
+ *
+ * Row models are built ahead of time by the week cache, so showing a day does
+ * not have to read any file. The row listeners update the model in place when
+ * the user completes, skips or progresses a task.
+ */
+class TaskRowModel {
+
+    private final LocalDate date;
+    private final String name;
+    private final int steps;
+    private float progress;
+    private String status;
+
+    /**
+     * Constructs a new row model.
+     *
+     * @param date     The date of the task.
+     * @param name     The name of the task.
+     * @param steps    The number of times the task has to be done.
+     * @param progress The current progress in percent.
+     * @param status   The status of the task, or null if it has none.
+     */
+    TaskRowModel(LocalDate date, String name, int steps, float progress, String status) {
+        this.date = date;
+        this.name = name;
+        this.steps = Math.max(1, steps);
+        this.progress = progress;
+        this.status = status;
+    }
+
+    LocalDate getDate() {
+        return date;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getSteps() {
+        return steps;
+    }
+
+    float getProgress() {
+        return progress;
+    }
+
+    void setProgress(float progress) {
+        this.progress = progress;
+    }
+
+    String getStatus() {
+        return status;
+    }
+
+    void setStatus(String status) {
+        this.status = status;
+    }
+
+    boolean isCompleted() {
+        return progress >= 100.0f || "Completed".equals(status);
+    }
+
+    boolean isSkipped() {
+        return !isCompleted() && "Skipped".equals(status);
+    }
+}
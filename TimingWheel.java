@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The TimingWheel class is a hashed timing wheel: a ring of slots, each holding
+ * the timeouts that expire when the wheel's hand reaches it. A timeout further
+ * away than one turn of the wheel also counts the turns it still has to wait.
+ *
+ * Scheduling and cancelling are O(1), and a tick only visits the timeouts of
+ * one slot, so thousands of timeouts cost no more per tick than a handful and
+ * need no thread each.
+ *
+ * The wheel itself is driven by a single thread through {@link #advanceTo}.
+ * Timeouts may be scheduled and cancelled from any thread; new ones are queued
+ * and placed into their slot on the next tick.
+ */
+class TimingWheel {
+
+    /**
+     * A scheduled task that can be cancelled until it runs.
+     */
+    static final class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<List<Timeout>> slots;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startMillis;
+    private long currentTick; // Last tick processed; only touched by the driving thread
+    private int size;
+
+    /**
+     * Constructs an empty wheel.
+     *
+     * @param slotCount   The number of slots in one turn of the wheel.
+     * @param tickMillis  The time one slot covers.
+     * @param startMillis The time of tick 0.
+     */
+    TimingWheel(int slotCount, long tickMillis, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.startMillis = startMillis;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedules a task. A deadline in the past runs on the next tick.
+     *
+     * @param deadlineMillis The time to run the task at.
+     * @param task           The task; it runs on the thread that drives the wheel.
+     * @return The timeout, to cancel the task.
+     */
+    Timeout schedule(long deadlineMillis, Runnable task) {
+        Timeout timeout = new Timeout(deadlineMillis, task);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return The number of timeouts in the wheel, not counting ones scheduled
+     *         since the last tick.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Moves the hand up to the given time and runs every task that is due. If
+     * the driving thread was held up, for example while the computer slept,
+     * the missed ticks are caught up.
+     *
+     * @param nowMillis The current time.
+     * @return The number of tasks run.
+     */
+    int advanceTo(long nowMillis) {
+        long targetTick = (nowMillis - startMillis) / tickMillis;
+        placePending();
+        int fired = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            fired += expire(slots.get((int) (currentTick % slots.size())));
+            if (size == 0 && pending.isEmpty()) {
+                currentTick = targetTick;
+            }
+        }
+        return fired;
+    }
+
+    private void placePending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long ticks = Math.max(currentTick + 1, (timeout.deadline - startMillis + tickMillis - 1) / tickMillis);
+            timeout.remainingRounds = (ticks - currentTick - 1) / slots.size();
+            slots.get((int) (ticks % slots.size())).add(timeout);
+            size++;
+        }
+    }
+
+    private int expire(List<Timeout> slot) {
+        int fired = 0;
+        List<Runnable> due = null;
+        for (Iterator<Timeout> iterator = slot.iterator(); iterator.hasNext();) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+                size--;
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                iterator.remove();
+                size--;
+                if (due == null) {
+                    due = new ArrayList<>();
+                }
+                due.add(timeout.task);
+            }
+        }
+        // Run after the slot is updated, since a task may schedule again
+        if (due != null) {
+            for (Runnable task : due) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                fired++;
+            }
+            placePending();
+        }
+        return fired;
+    }
+}
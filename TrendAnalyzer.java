@@ -0,0 +1,440 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The TrendAnalyzer class computes the {@link HabitTrends} of every habit on a
+ * fork-join pool.
+ *
+ * The work is split twice: by habit, so the habits are analyzed side by side,
+ * and by date range within a habit, so the weekday counts and each step of
+ * the forecast model are summed over chunks of days in parallel. The analysis
+ * runs on a {@link HabitHistory} snapshot of each habit taken on the event
+ * dispatch thread, so the store can change while it runs.
+ *
+ * The probability of completing a habit today comes from a logistic
+ * regression fitted to the habit's own history by gradient descent. Each
+ * scheduled day is one example; its features are the weekday, whether the
+ * habit was completed the day before, and the completion rates of the 7 and
+ * 30 days before it.
+ */
+class TrendAnalyzer {
+
+    // Ranges of fewer days than this are not split any further
+    static final int DAY_THRESHOLD = 512;
+
+    private static final int FEATURES = 10; // Bias, Tuesday to Sunday, previous day, 7-day rate, 30-day rate
+    private static final int EPOCHS = 200;
+    private static final double LEARNING_RATE = 0.5;
+    private static final double REGULARIZATION = 0.001;
+
+    /**
+     * The days a habit was scheduled and completed, from its first day up to
+     * today, as bit sets indexed by the days since the first day.
+     */
+    static final class HabitHistory {
+        private final String name;
+        private final LocalDate firstDay;
+        private final int length; // Days from the first day up to today, both included
+        private final BitSet scheduled;
+        private final BitSet completed;
+
+        private HabitHistory(String name, LocalDate firstDay, int length) {
+            this.name = name;
+            this.firstDay = firstDay;
+            this.length = length;
+            this.scheduled = new BitSet(length);
+            this.completed = new BitSet(length);
+        }
+
+        /**
+         * Takes a snapshot of a habit. The summary is read, so this has to run
+         * where the summaries are changed.
+         *
+         * @param summary The summary of the habit.
+         * @param today   The current date; later days are left out.
+         * @return The history, or null if the habit has no days up to today.
+         */
+        static HabitHistory of(HabitSummary summary, LocalDate today) {
+            Collection<HabitRollup> rollups = summary.getRollups();
+            LocalDate firstDay = null;
+            if (!rollups.isEmpty()) {
+                firstDay = rollups.iterator().next().getMonth().atDay(1);
+            } else if (!summary.getDates().isEmpty()) {
+                firstDay = summary.getDates().first();
+            }
+            if (firstDay == null || firstDay.isAfter(today)) {
+                return null;
+            }
+            HabitHistory history = new HabitHistory(summary.getName(), firstDay,
+                    (int) ChronoUnit.DAYS.between(firstDay, today) + 1);
+            for (HabitRollup rollup : rollups) {
+                YearMonth month = rollup.getMonth();
+                for (int day = 1; day <= month.lengthOfMonth(); day++) {
+                    LocalDate date = month.atDay(day);
+                    if (rollup.isScheduled(date) && !date.isAfter(today)) {
+                        int index = history.indexOf(date);
+                        history.scheduled.set(index);
+                        if (rollup.isCompleted(date)) {
+                            history.completed.set(index);
+                        }
+                    }
+                }
+            }
+            for (LocalDate date : summary.getDates().headSet(today, true)) {
+                int index = history.indexOf(date);
+                history.scheduled.set(index);
+                if (summary.isCompleted(date)) {
+                    history.completed.set(index);
+                }
+            }
+            return history;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        private int indexOf(LocalDate date) {
+            return (int) ChronoUnit.DAYS.between(firstDay, date);
+        }
+
+        private DayOfWeek weekdayOf(int index) {
+            return firstDay.getDayOfWeek().plus(index);
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructs an analyzer that runs on the given pool.
+     *
+     * @param pool The fork-join pool to run on.
+     */
+    TrendAnalyzer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Takes a snapshot of every habit in the store.
+     *
+     * @param summaries The habit summaries.
+     * @param today     The current date.
+     * @return The histories of the habits with days up to today.
+     */
+    static List<HabitHistory> snapshot(Collection<HabitSummary> summaries, LocalDate today) {
+        long start = System.nanoTime();
+        List<HabitHistory> histories = new ArrayList<>(summaries.size());
+        for (HabitSummary summary : summaries) {
+            HabitHistory history = HabitHistory.of(summary, today);
+            if (history != null) {
+                histories.add(history);
+            }
+        }
+        Metrics.recordSince("stats.trendsSnapshot", start);
+        return histories;
+    }
+
+    /**
+     * Analyzes the habits on the pool, split by habit and by date range.
+     *
+     * @param histories The histories of the habits.
+     * @return The trends, in the order of the histories.
+     */
+    List<HabitTrends> analyze(List<HabitHistory> histories) {
+        long start = System.nanoTime();
+        List<HabitTrends> trends = pool.invoke(new HabitsTask(histories, 0, histories.size(), true));
+        Metrics.recordSince("stats.trends", start);
+        return trends;
+    }
+
+    /**
+     * Analyzes the habits one after another on the calling thread. The
+     * results are the same as those of {@link #analyze(List)}.
+     *
+     * @param histories The histories of the habits.
+     * @return The trends, in the order of the histories.
+     */
+    List<HabitTrends> analyzeSequentially(List<HabitHistory> histories) {
+        return new HabitsTask(histories, 0, histories.size(), false).compute();
+    }
+
+    /**
+     * Analyzes a range of habits, splitting it in halves down to single
+     * habits.
+     */
+    private static final class HabitsTask extends RecursiveTask<List<HabitTrends>> {
+        private static final long serialVersionUID = 1L;
+        private final List<HabitHistory> histories;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+
+        HabitsTask(List<HabitHistory> histories, int from, int to, boolean parallel) {
+            this.histories = histories;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected List<HabitTrends> compute() {
+            if (!parallel || to - from <= 1) {
+                List<HabitTrends> trends = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    trends.add(analyzeHabit(histories.get(i), parallel));
+                }
+                return trends;
+            }
+            int middle = (from + to) >>> 1;
+            HabitsTask left = new HabitsTask(histories, from, middle, true);
+            left.fork();
+            List<HabitTrends> trends = new ArrayList<>(new HabitsTask(histories, middle, to, true).compute());
+            trends.addAll(0, left.join());
+            return trends;
+        }
+    }
+
+    /**
+     * Analyzes one habit. The date-range tasks are computed on the calling
+     * thread; in parallel they fork their halves onto the pool it runs on.
+     */
+    private static HabitTrends analyzeHabit(HabitHistory history, boolean parallel) {
+        int length = history.length;
+        // Running counts: scheduledBefore[i] and completedBefore[i] count the days before day i
+        int[] scheduledBefore = new int[length + 1];
+        int[] completedBefore = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            scheduledBefore[i + 1] = scheduledBefore[i] + (history.scheduled.get(i) ? 1 : 0);
+            completedBefore[i + 1] = completedBefore[i] + (history.completed.get(i) ? 1 : 0);
+        }
+        Model model = new Model(history, scheduledBefore, completedBefore);
+
+        double rate7 = model.rate(length - 7, length);
+        double rate30 = model.rate(length - 30, length);
+
+        int[] weekdayCounts = new WeekdayTask(history, 0, length, parallel).compute();
+        DayOfWeek best = null;
+        DayOfWeek worst = null;
+        double bestRate = -1;
+        double worstRate = 2;
+        for (DayOfWeek weekday : DayOfWeek.values()) {
+            int scheduled = weekdayCounts[weekday.ordinal()];
+            if (scheduled == 0) {
+                continue;
+            }
+            double rate = (double) weekdayCounts[7 + weekday.ordinal()] / scheduled;
+            if (rate > bestRate) {
+                bestRate = rate;
+                best = weekday;
+            }
+            if (rate < worstRate) {
+                worstRate = rate;
+                worst = weekday;
+            }
+        }
+
+        // The model is fitted to the scheduled days before today; today is not decided yet
+        int examples = model.prepareExamples(length - 1);
+        double todayProbability = Double.NaN;
+        if (examples > 0) {
+            double[] weights = new double[FEATURES];
+            for (int epoch = 0; epoch < EPOCHS; epoch++) {
+                double[] gradient = new GradientTask(model, weights, 0, examples, parallel).compute();
+                for (int f = 0; f < FEATURES; f++) {
+                    double penalty = f == 0 ? 0 : REGULARIZATION * weights[f];
+                    weights[f] -= LEARNING_RATE * (gradient[f] / examples + penalty);
+                }
+            }
+            double[] features = new double[FEATURES];
+            model.features(length - 1, features);
+            todayProbability = sigmoid(dot(weights, features));
+        }
+        return new HabitTrends(history.name, rate7, rate30, best, worst, todayProbability);
+    }
+
+    /**
+     * The features of the days of one habit, computed from its running
+     * counts. The features of the examples are computed once, before the
+     * first epoch, into one row of {@code FEATURES} values per example.
+     */
+    private static final class Model {
+        private final HabitHistory history;
+        private final int[] scheduledBefore;
+        private final int[] completedBefore;
+        private double[] examples; // Features of the scheduled days before today, one row per day
+        private double[] labels; // 1 if the day of the row was completed
+
+        Model(HabitHistory history, int[] scheduledBefore, int[] completedBefore) {
+            this.history = history;
+            this.scheduledBefore = scheduledBefore;
+            this.completedBefore = completedBefore;
+        }
+
+        /**
+         * Computes the features of the scheduled days before the given day.
+         *
+         * @param today The index of today.
+         * @return The number of examples.
+         */
+        int prepareExamples(int today) {
+            int count = scheduledBefore[today];
+            examples = new double[count * FEATURES];
+            labels = new double[count];
+            double[] features = new double[FEATURES];
+            int n = 0;
+            for (int day = history.scheduled.nextSetBit(0); day >= 0 && day < today;
+                    day = history.scheduled.nextSetBit(day + 1), n++) {
+                features(day, features);
+                System.arraycopy(features, 0, examples, n * FEATURES, FEATURES);
+                labels[n] = history.completed.get(day) ? 1 : 0;
+            }
+            return count;
+        }
+
+        /**
+         * @return The completion rate of the scheduled days from {@code from}
+         *         up to {@code to}, exclusive, or NaN if none was scheduled.
+         */
+        double rate(int from, int to) {
+            from = Math.max(0, from);
+            int scheduled = scheduledBefore[to] - scheduledBefore[from];
+            return scheduled == 0 ? Double.NaN : (double) (completedBefore[to] - completedBefore[from]) / scheduled;
+        }
+
+        void features(int day, double[] features) {
+            Arrays.fill(features, 0);
+            features[0] = 1;
+            int weekday = history.weekdayOf(day).ordinal();
+            if (weekday > 0) {
+                features[weekday] = 1; // Monday is the base the bias stands for
+            }
+            features[7] = day > 0 && history.completed.get(day - 1) ? 1 : 0;
+            features[8] = orHalf(rate(day - 7, day));
+            features[9] = orHalf(rate(day - 30, day));
+        }
+
+        private static double orHalf(double rate) {
+            return Double.isNaN(rate) ? 0.5 : rate;
+        }
+    }
+
+    /**
+     * Counts the scheduled and the completed days of each weekday in a range
+     * of days: indexes 0 to 6 hold the scheduled days from Monday, 7 to 13
+     * the completed days.
+     */
+    private static final class WeekdayTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+        private final HabitHistory history;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+
+        WeekdayTask(HabitHistory history, int from, int to, boolean parallel) {
+            this.history = history;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (!parallel || to - from <= DAY_THRESHOLD) {
+                int[] counts = new int[14];
+                for (int i = history.scheduled.nextSetBit(from); i >= 0 && i < to;
+                        i = history.scheduled.nextSetBit(i + 1)) {
+                    int weekday = history.weekdayOf(i).ordinal();
+                    counts[weekday]++;
+                    if (history.completed.get(i)) {
+                        counts[7 + weekday]++;
+                    }
+                }
+                return counts;
+            }
+            int middle = (from + to) >>> 1;
+            WeekdayTask left = new WeekdayTask(history, from, middle, true);
+            left.fork();
+            int[] counts = new WeekdayTask(history, middle, to, true).compute();
+            int[] leftCounts = left.join();
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += leftCounts[i];
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Sums the gradient of the log loss over a range of the examples, which
+     * are the scheduled days in date order.
+     */
+    private static final class GradientTask extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+        private final Model model;
+        private final double[] weights;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+
+        GradientTask(Model model, double[] weights, int from, int to, boolean parallel) {
+            this.model = model;
+            this.weights = weights;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (!parallel || to - from <= DAY_THRESHOLD) {
+                double[] gradient = new double[FEATURES];
+                double[] examples = model.examples;
+                for (int n = from; n < to; n++) {
+                    int row = n * FEATURES;
+                    double sum = 0;
+                    for (int f = 0; f < FEATURES; f++) {
+                        sum += weights[f] * examples[row + f];
+                    }
+                    double error = sigmoid(sum) - model.labels[n];
+                    for (int f = 0; f < FEATURES; f++) {
+                        gradient[f] += error * examples[row + f];
+                    }
+                }
+                return gradient;
+            }
+            int middle = (from + to) >>> 1;
+            GradientTask left = new GradientTask(model, weights, from, middle, true);
+            left.fork();
+            double[] gradient = new GradientTask(model, weights, middle, to, true).compute();
+            double[] leftGradient = left.join();
+            for (int f = 0; f < FEATURES; f++) {
+                gradient[f] += leftGradient[f];
+            }
+            return gradient;
+        }
+    }
+
+    private static double dot(double[] weights, double[] features) {
+        double sum = 0;
+        for (int f = 0; f < FEATURES; f++) {
+            sum += weights[f] * features[f];
+        }
+        return sum;
+    }
+
+    private static double sigmoid(double x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+}
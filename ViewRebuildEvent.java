@@ -0,0 +1,48 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event emitted each time a view of the Wellnest application
+ * is rebuilt or refreshed.
+ */
+@Name("wellnest.ViewRebuild")
+@Label("View Rebuild")
+@Category({ "Wellnest", "UI" })
+@Description("A rebuild or refresh of a Wellnest view")
+class ViewRebuildEvent extends Event {
+
+    @Label("View")
+    String view;
+
+    @Label("Components")
+    int components;
+
+    /**
+     * Creates the event and starts its timer.
+     *
+     * @param view The name of the view, for example "refreshTodayPanel".
+     * @return The started event.
+     */
+    static ViewRebuildEvent start(String view) {
+        ViewRebuildEvent event = new ViewRebuildEvent();
+        event.begin();
+        event.view = view;
+        return event;
+    }
+
+    /**
+     * Stops the timer and commits the event if a recording wants it.
+     *
+     * @param components The number of top-level components of the rebuilt view.
+     */
+    void finish(int components) {
+        end();
+        if (shouldCommit()) {
+            this.components = components;
+            commit();
+        }
+    }
+}
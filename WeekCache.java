@@ -0,0 +1,88 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The WeekCache class keeps the row models of the last few weeks shown in the
+ * Today panel, keyed by the Sunday the week starts on.
+ *
+ * The cache is small and evicts the least recently used week, so it holds the
+ * visible week and its prefetched neighbours and not much more.
+ */
+class WeekCache {
+
+    private static final int MAX_WEEKS = 5;
+
+    private final Map<LocalDate, Map<LocalDate, List<TaskRowModel>>> weeks = new LinkedHashMap<>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDate, Map<LocalDate, List<TaskRowModel>>> eldest) {
+            return size() > MAX_WEEKS;
+        }
+    };
+
+    /**
+     * Returns the Sunday starting the week that contains the given date.
+     *
+     * @param date Any date of the week.
+     * @return The first day of the week.
+     */
+    static LocalDate weekStart(LocalDate date) {
+        return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
+    }
+
+    boolean containsWeek(LocalDate weekStart) {
+        return weeks.containsKey(weekStart);
+    }
+
+    /**
+     * @param weekStart The first day of the week.
+     * @return The row models of each day of the week, or null if not cached.
+     */
+    Map<LocalDate, List<TaskRowModel>> getWeek(LocalDate weekStart) {
+        return weeks.get(weekStart);
+    }
+
+    void putWeek(LocalDate weekStart, Map<LocalDate, List<TaskRowModel>> days) {
+        weeks.put(weekStart, days);
+    }
+
+    /**
+     * @param date The day to look up.
+     * @return The row models of the day, or null if its week is not cached.
+     */
+    List<TaskRowModel> getDay(LocalDate date) {
+        Map<LocalDate, List<TaskRowModel>> week = weeks.get(weekStart(date));
+        return week != null ? week.get(date) : null;
+    }
+
+    void clear() {
+        weeks.clear();
+    }
+
+    /**
+     * Adds the estimated size of the cached weeks to a memory report, as
+     * {@code ui.weekCache}.
+     *
+     * @param report The report.
+     */
+    void reportMemory(MemoryReport report) {
+        long bytes = MemoryReport.linkedHashMap(weeks.size());
+        int rows = 0;
+        for (Map.Entry<LocalDate, Map<LocalDate, List<TaskRowModel>>> week : weeks.entrySet()) {
+            bytes += report.date(week.getKey()) + MemoryReport.hashMap(week.getValue().size());
+            for (Map.Entry<LocalDate, List<TaskRowModel>> day : week.getValue().entrySet()) {
+                bytes += report.date(day.getKey()) + MemoryReport.ARRAY_LIST_BYTES
+                        + MemoryReport.array(day.getValue().size(), MemoryReport.REFERENCE_BYTES);
+                for (TaskRowModel row : day.getValue()) {
+                    bytes += MemoryReport.RECORD_BYTES + report.date(row.getDate()) + report.string(row.getName())
+                            + report.string(row.getStatus());
+                    rows++;
+                }
+            }
+        }
+        report.add("ui.weekCache", rows, bytes);
+    }
+}
@@ -2,24 +2,40 @@ import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 
 import com.toedter.calendar.JCalendar;
+import com.toedter.calendar.JDateChooser;
 
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
-import java.time.temporal.TemporalAdjusters;
+import java.time.format.TextStyle;
 import java.util.Stack;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The Wellnest class represents the main application window for the Wellnest
@@ -60,19 +76,38 @@ public class Wellnest extends JFrame {
     private Stack<JPanel> panelStack; // Stack to keep track of panels
     private JPanel currentPanel;
     private LocalDate currentDate; // Variable to store the current date
-    private Map<String, Float> taskProgressDatabase;
-    private Map<String, String> taskStatusDatabase;
+    private LocalDate selectedDate; // Day shown in the Today panel
+    private JLabel[] weekDateLabels; // Date cells of the week strip
 
     private int sidebarWidth = 200;
     private boolean isSidebarExpanded = true;
+    private SidebarAnimator sidebarAnimator; // Created on the first toggle
 
-    // File path for the tasks database
-    private static final String TASKS_FILE_PATH = "tasks.txt";
-    private static final String TASK_COMPLETED_FILE_PATH = "TaskCompleted.txt";
-    private static final String TASK_PROGRESS_FILE_PATH = "TaskProgress.txt";
+    // Habit database, persisted by its engine in habits.db in the working directory
+    private HabitStore store;
 
-    // Task database
-    private Map<LocalDate, List<String>> taskDatabase;
+    // Fires the habit reminders and rolls the Today panel over at midnight
+    private ReminderScheduler reminderScheduler;
+
+    // Row models of the visible week and its prefetched neighbours
+    private WeekCache weekCache = new WeekCache();
+    private Set<LocalDate> weeksBeingPrefetched = new HashSet<>();
+
+    // Cached views compare against the data version of the store
+    private PanelCache panelCache = new PanelCache();
+
+    // State the views derive from the change events of the store
+    private int completedTaskCount;
+    private JPanel todayTaskListPanel; // Rows of the day shown in the Today panel
+    private TaskRowActions taskRowActions = new TaskRowActions(); // Shared by all task rows
+    private Map<String, JLabel[]> allHabitsRowLabels = new HashMap<>(); // Habit name -> figure labels
+    private static final String ALL_HABITS_VIEW = "allHabits";
+
+    // Habit trends of the Stats panel, computed off the EDT and kept until the data version changes
+    private TrendAnalyzer trendAnalyzer; // Created when the Stats panel is first shown
+    private JLabel trendsLabel;
+    private long trendsPendingVersion = -1; // Data version being analyzed, or -1
+    private static final String TRENDS_VIEW = "trends";
 
     /**
      * Constructs a new instance of the Wellnest application.
@@ -100,28 +135,43 @@ public class Wellnest extends JFrame {
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        // Initialize task database
-        taskDatabase = new HashMap<>();
-        taskStatusDatabase = new HashMap<>();
-        taskProgressDatabase = new HashMap<>();
+        // Load the habit database, migrating the older task files if needed
+        store = new HabitStore(new File("."));
+        store.load();
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                // The time to the first frame, from the start of the JVM
+                Metrics.setGauge("startup.firstFrameMillis",
+                        System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+            }
 
-        // Load tasks from file
-        loadTasksFromFile();
-        loadTaskProgressFromFile();
-        loadTaskStatusFromFile();
+            @Override
+            public void windowClosing(WindowEvent e) {
+                // Stop the sync and close the database engine before exiting
+                reminderScheduler.stop();
+                store.close();
+            }
+        });
+        completedTaskCount = store.getCompletedCount();
 
         // Initialize panel stack
         panelStack = new Stack<>();
 
         // Get the current date
         currentDate = LocalDate.now();
+        selectedDate = currentDate;
 
         homePanel = new JPanel(new BorderLayout());
         homePanel.setBackground(Color.GRAY);
 
+        // Only the first view is built before the window is shown; the Stats and
+        // All Habits panels are built when they are first navigated to
         todayPanel = createTodayPanel();
-        statsPanel = createStatsPanel();
-        allHabitsPanel = createAllHabitsPanel();
+
+        store.getEventBus().addListener(new TodayViewUpdater());
+        store.getEventBus().addListener(new StatsUpdater());
+        store.getEventBus().addListener(new AllHabitsUpdater());
 
         sidebarPanel = createSidebarPanel();
 
@@ -135,26 +185,34 @@ public class Wellnest extends JFrame {
 
         panelStack.push(todayPanel); // Initially, todayPanel is the current panel
         currentPanel = todayPanel;
+
+        reminderScheduler = new ReminderScheduler(store, new File("."), new ReminderNotifier());
+        reminderScheduler.start();
+
+        // The report walks the caches of the window, so it is made on the EDT
+        Metrics.setMemoryReporter(this::createMemoryReportOnEdt);
     }
 
     /**
-     * Creates and configures the panel for displaying tasks for the current date.
+     * Creates and configures the panel for displaying tasks for the selected date.
+     * 
+     * This method constructs a panel with a calendar strip for the week of the
+     * selected date and a list of tasks for that date. The arrows move between
+     * weeks and clicking a date shows its tasks. Each date shows how many of its
+     * tasks are completed.
      * 
-     * This method constructs a panel with a calendar view for the current week
-     * and a list of tasks for the current date. If there are tasks for the current
-     * date, it creates task item panels for each task and adds them to the task
-     * list.
-     * If there are no tasks for the current date, it displays a message indicating
-     * that there are no tasks.
+     * The rows are built from the week cache, so switching days and weeks does
+     * not read any file once the week has been prefetched.
      * 
-     * @return The panel for displaying tasks for the current date.
+     * @return The panel for displaying tasks for the selected date.
      */
     private JPanel createTodayPanel() {
+        long start = System.nanoTime();
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBackground(Color.WHITE);
 
-        // Get the tasks for the current date
-        List<String> tasksForCurrentDate = taskDatabase.get(currentDate);
+        LocalDate startOfWeek = WeekCache.weekStart(selectedDate);
+        Map<LocalDate, List<TaskRowModel>> week = getWeekModels(startOfWeek);
 
         // Create a panel to hold the calendar and tasks
         JPanel mainPanel = new JPanel(new BorderLayout());
@@ -171,281 +229,218 @@ public class Wellnest extends JFrame {
             calendarPanel.add(dayLabel);
         }
 
-        // Get the start of the current week (Sunday)
-        LocalDate startOfWeek = currentDate.with(TemporalAdjusters.previousOrSame(DayOfWeek.SUNDAY));
-
-        // Add labels for the dates in the current week
+        // Add labels for the dates in the week
+        weekDateLabels = new JLabel[7];
         for (int i = 0; i < 7; i++) {
             LocalDate date = startOfWeek.plusDays(i);
-            JLabel dateLabel = new JLabel(Integer.toString(date.getDayOfMonth()), SwingConstants.CENTER);
+            JLabel dateLabel = new JLabel("", SwingConstants.CENTER);
             dateLabel.setOpaque(true);
+            dateLabel.setBackground(Color.WHITE);
             dateLabel.setBorder(BorderFactory.createLineBorder(Color.BLACK));
+            dateLabel.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
 
-            // Highlight the current date
-            if (date.equals(currentDate)) {
+            // Highlight the selected date and mark the current date
+            if (date.equals(selectedDate)) {
                 dateLabel.setBackground(Color.YELLOW);
+            }
+            if (date.equals(currentDate)) {
                 dateLabel.setForeground(Color.RED);
             }
 
+            dateLabel.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    selectDate(date);
+                }
+            });
+
+            weekDateLabels[i] = dateLabel;
             calendarPanel.add(dateLabel);
         }
+        refreshWeekBadges();
 
-        // Add the calendar panel to the main panel
-        mainPanel.add(calendarPanel, BorderLayout.NORTH);
+        JButton previousWeekButton = new JButton("<");
+        JButton nextWeekButton = new JButton(">");
+        previousWeekButton.setFocusPainted(false);
+        nextWeekButton.setFocusPainted(false);
+        previousWeekButton.addActionListener(e -> selectDate(selectedDate.minusWeeks(1)));
+        nextWeekButton.addActionListener(e -> selectDate(selectedDate.plusWeeks(1)));
+
+        JPanel weekPanel = new JPanel(new BorderLayout());
+        weekPanel.setBackground(Color.WHITE);
+        weekPanel.add(previousWeekButton, BorderLayout.WEST);
+        weekPanel.add(calendarPanel, BorderLayout.CENTER);
+        weekPanel.add(nextWeekButton, BorderLayout.EAST);
+
+        // Add the week panel to the main panel
+        mainPanel.add(weekPanel, BorderLayout.NORTH);
 
         // Create a panel for the tasks
-        JPanel taskPanel = new JPanel();
-        taskPanel.setLayout(new BoxLayout(taskPanel, BoxLayout.Y_AXIS));
-        taskPanel.setBackground(Color.WHITE);
+        todayTaskListPanel = new JPanel();
+        todayTaskListPanel.setLayout(new BoxLayout(todayTaskListPanel, BoxLayout.Y_AXIS));
+        todayTaskListPanel.setBackground(Color.WHITE);
 
         // Add task panels to the task panel
-        if (tasksForCurrentDate != null && !tasksForCurrentDate.isEmpty()) {
-            for (String task : tasksForCurrentDate) {
-                System.out.println("Task: " + task); // Debug print
-                // Split the task string to extract the task name and progress
-                String[] taskParts = task.split("\\|");
-                if (taskParts.length >= 2) { // Check if taskParts has at least two elements
-                    String taskName = taskParts[0];
-                    int progress = Integer.parseInt(taskParts[1]); // Assuming progress is an integer
-        
-                    // Create task item panel with progress value
-                    JPanel taskItemPanel = createTaskItemPanel(currentDate.toString(), taskName, progress);
-                    taskPanel.add(taskItemPanel);
-                } else {
-                    // Handle tasks without progress value
-                    System.out.println("Task format is incorrect: " + task);
-                }
+        List<TaskRowModel> rows = week.get(selectedDate);
+        if (rows != null) {
+            for (TaskRowModel row : rows) {
+                todayTaskListPanel.add(createTaskRow(row));
             }
         }
 
         // Add the task panel to the main panel
-        mainPanel.add(new JScrollPane(taskPanel), BorderLayout.CENTER); // Add a scroll pane for tasks
+        mainPanel.add(new JScrollPane(todayTaskListPanel), BorderLayout.CENTER); // Add a scroll pane for tasks
 
         // Add the main panel to the panel
         panel.add(mainPanel, BorderLayout.CENTER);
 
+        // Have the neighbouring weeks ready before the user asks for them
+        prefetchWeek(startOfWeek.minusWeeks(1));
+        prefetchWeek(startOfWeek.plusWeeks(1));
+
+        Metrics.recordSince("ui.createTodayPanel", start);
         return panel;
     }
 
     /**
-     * Creates a panel representing a task item.
-     * 
-     * This method constructs a panel that displays information about a task,
-     * including its name, progress, and buttons for completing, skipping, and
-     * updating progress. It also includes a button for removing the task.
+     * Shows the tasks of the given date in the Today panel.
      * 
-     * @param date     The date of the task.
-     * @param taskName The name of the task.
-     * @return The panel representing the task item.
+     * @param date The date to show.
      */
-    private JPanel createTaskItemPanel(String date, String taskName, int progress) {
-        JPanel taskPanel = new JPanel();
-        taskPanel.setLayout(new BoxLayout(taskPanel, BoxLayout.Y_AXIS));
-        taskPanel.setBackground(Color.WHITE);
-    
-        JPanel nameStatusPanel = new JPanel(new GridBagLayout());
-        nameStatusPanel.setPreferredSize(new Dimension(600, 50));
-    
-        // Create GridBagConstraints for positioning components
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        gbc.fill = GridBagConstraints.HORIZONTAL;
-        gbc.anchor = GridBagConstraints.CENTER;
-        gbc.weightx = 1.0; // Allow the components to expand horizontally
-    
-        // Create a label for the task name
-        JLabel nameLabel = new JLabel(taskName, SwingConstants.CENTER);
-        nameLabel.setFont(new Font("Arial", Font.BOLD, 25));
-        taskPanel.add(nameLabel);
-    
-        // Create a panel for the buttons and progress bar with fixed size
-        JPanel buttonPanel = new JPanel(new GridBagLayout());
-        buttonPanel.setPreferredSize(new Dimension(600, 50));
-        buttonPanel.setMinimumSize(new Dimension(600, 50));
-        buttonPanel.setMaximumSize(new Dimension(111111100, 50));
-    
-        GridBagConstraints gbcButtons = new GridBagConstraints();
-        gbcButtons.fill = GridBagConstraints.HORIZONTAL;
-        gbcButtons.insets = new Insets(3, 3, 3, 3); // Add some padding
-    
-        // Create buttons for the task item
-        JButton completedButton = new JButton("Completed");
-        JButton skippedButton = new JButton("Skipped");
-        JButton button1 = new JButton("1");
-        JButton removeButton = new JButton("Remove Task");
-    
-        completedButton.setBackground(new Color(51, 122, 183));
-        completedButton.setForeground(Color.WHITE);
-        completedButton.setFocusPainted(false);
-        completedButton.setFont(new Font("Arial", Font.BOLD, 14));
-    
-        skippedButton.setBackground(new Color(51, 122, 183));
-        skippedButton.setForeground(Color.WHITE);
-        skippedButton.setFocusPainted(false);
-        skippedButton.setFont(new Font("Arial", Font.BOLD, 14));
-    
-        button1.setBackground(new Color(51, 122, 183));
-        button1.setForeground(Color.WHITE);
-        button1.setFocusPainted(false);
-        button1.setFont(new Font("Arial", Font.BOLD, 14));
-    
-        removeButton.setBackground(new Color(255, 105, 97));
-        removeButton.setForeground(Color.WHITE);
-        removeButton.setFocusPainted(false);
-        removeButton.setFont(new Font("Arial", Font.BOLD, 25));
-        removeButton.setPreferredSize(new Dimension(200, 50));
-    
-        // Create a progress bar for the task item
-        JProgressBar progressBar = new JProgressBar();
-        progressBar.setStringPainted(true);
-    
-        // Create a JTextField to store the float progress value
-        JTextField progressField = new JTextField("0.0");
-        progressField.setEditable(false);
-    
-        // Get progress value from the database
-        float initialProgressValue = getTaskProgressValue(date, taskName);
-        progressBar.setValue((int) initialProgressValue);
-        progressBar.setString(String.format("%.1f%%", initialProgressValue));
-        progressField.setText(String.valueOf(initialProgressValue));
-    
-        // Get total steps from the database
-        int[] progressData = getTaskProgress(date, taskName);
-        int totalSteps = progressData[1];
-    
-        // Get the current task status from the database
-        String taskStatus = getTaskStatus(date, taskName);
-    
-        // Create a status label
-        JLabel statusLabel = new JLabel("", SwingConstants.CENTER);
-    
-        // If the initial progress is 100% or status is "Completed", disable the buttons and add completion status
-        if (initialProgressValue >= 100.0f || "Completed".equals(taskStatus)) {
-            completedButton.setEnabled(false);
-            skippedButton.setEnabled(false);
-            button1.setEnabled(false);
-            statusLabel.setText("Task Completed");
-        } else if ("Skipped".equals(taskStatus)) {
-            completedButton.setEnabled(false);
-            skippedButton.setEnabled(false);
-            button1.setEnabled(false);
-            statusLabel.setText("Task Skipped");
+    private void selectDate(LocalDate date) {
+        selectedDate = date;
+        refreshTodayPanel();
+    }
+
+    /**
+     * Updates the completion badge of each date in the week strip from the
+     * cached row models. A date shows "done/total", or a check mark once all its
+     * tasks are completed.
+     */
+    private void refreshWeekBadges() {
+        if (weekDateLabels == null) {
+            return;
         }
-    
-        // Add action listeners to the buttons
-        completedButton.addActionListener(e -> {
-            progressBar.setValue(100); // Set progress to 100%
-            progressBar.setString("100%");
-            completedButton.setEnabled(false);
-            skippedButton.setEnabled(false);
-            button1.setEnabled(false);
-            statusLabel.setText("Task Completed");
-            taskPanel.revalidate();
-            taskPanel.repaint();
-            saveTaskStatus(date, taskName, "Completed");
-            updateTaskProgress(date, taskName, 100.0f);
-        });
-    
-        skippedButton.addActionListener(e -> {
-            statusLabel.setText("Task Skipped");
-            completedButton.setEnabled(false);
-            skippedButton.setEnabled(false);
-            button1.setEnabled(false);
-            taskPanel.revalidate();
-            taskPanel.repaint();
-            saveTaskStatus(date, taskName, "Skipped");
-        });
-    
-        button1.addActionListener(e -> {
-            float progressValue = Float.parseFloat(progressField.getText());
-            if (progressValue < 100) {
-                float increment = 100.0f / totalSteps;
-    
-                // Add the increment to the current value
-                float newProgressValue = progressValue + increment;
-    
-                // Ensure newProgressValue doesn't exceed 100
-                if (newProgressValue > 100.0f) {
-                    newProgressValue = 100.0f;
-                }
-    
-                // Update the JTextField with the new progress
-                progressField.setText(String.valueOf(newProgressValue));
-    
-                // Set the progress bar's value and update its display text with float precision
-                progressBar.setValue((int) newProgressValue);
-                progressBar.setString(String.format("%.1f%%", newProgressValue)); // Update progress text with one decimal place
-    
-                // Check if the progress is now complete
-                if (newProgressValue >= 100.0f) {
-                    statusLabel.setText("Task Completed");
-                    completedButton.setEnabled(false);
-                    skippedButton.setEnabled(false);
-                    button1.setEnabled(false);
-                    // Repaint the task panel
-                    taskPanel.revalidate();
-                    taskPanel.repaint();
-                    saveTaskStatus(date, taskName, "Completed");
+        LocalDate startOfWeek = WeekCache.weekStart(selectedDate);
+        Map<LocalDate, List<TaskRowModel>> week = weekCache.getWeek(startOfWeek);
+        for (int i = 0; i < 7; i++) {
+            LocalDate date = startOfWeek.plusDays(i);
+            List<TaskRowModel> rows = week != null ? week.get(date) : null;
+            String badge = "";
+            if (rows != null && !rows.isEmpty()) {
+                int done = 0;
+                for (TaskRowModel row : rows) {
+                    if (row.isCompleted()) {
+                        done++;
+                    }
                 }
-    
-                updateTaskProgress(date, taskName, newProgressValue);
+                badge = done == rows.size() ? "\u2713" : done + "/" + rows.size();
             }
-        });
-    
-        removeButton.addActionListener(e -> {
-            // Call the removeTask method with date, taskName, and taskPanel
-            removeTask(LocalDate.parse(date), taskName, taskPanel);
-        });
-    
-        // Add components to the button panel with proper constraints
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        gbc.weightx = 0.25;
-        gbc.anchor = GridBagConstraints.CENTER;
-        buttonPanel.add(completedButton, gbc);
-    
-        gbc.gridx = 1;
-        buttonPanel.add(skippedButton, gbc);
-    
-        gbc.gridx = 2;
-        buttonPanel.add(button1, gbc);
-    
-        gbc.gridx = 3;
-        buttonPanel.add(progressBar, gbc);
-    
-        // Add the button panel to the task panel
-        taskPanel.add(buttonPanel);
-    
-        // Add the status label below the button panel
-        taskPanel.add(statusLabel);
-    
-        // Add the remove button below the status label
-        taskPanel.add(removeButton);
+            weekDateLabels[i].setText("<html><center>" + date.getDayOfMonth() + "<br><small>" + badge
+                    + "</small></center></html>");
+        }
+    }
 
-        nameStatusPanel.add(nameLabel);
-        nameStatusPanel.add(statusLabel);
-        nameStatusPanel.add(removeButton);
+    /**
+     * Returns the row models of a week, building them on the spot if the week
+     * has not been prefetched yet.
+     * 
+     * @param startOfWeek The Sunday the week starts on.
+     * @return The row models of each day of the week.
+     */
+    private Map<LocalDate, List<TaskRowModel>> getWeekModels(LocalDate startOfWeek) {
+        Map<LocalDate, List<TaskRowModel>> week = weekCache.getWeek(startOfWeek);
+        if (week == null) {
+            week = buildWeekModels(startOfWeek);
+            weekCache.putWeek(startOfWeek, week);
+        }
+        return week;
+    }
 
-        nameStatusPanel.add(nameLabel, gbc);
+    /**
+     * Builds the row models of a week after the current frame has been painted
+     * and stores them in the week cache.
+     * 
+     * @param startOfWeek The Sunday the week starts on.
+     */
+    private void prefetchWeek(LocalDate startOfWeek) {
+        if (weekCache.containsWeek(startOfWeek) || !weeksBeingPrefetched.add(startOfWeek)) {
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            weeksBeingPrefetched.remove(startOfWeek);
+            getWeekModels(startOfWeek);
+        });
+    }
 
-        // Update GridBagConstraints for statusLabel
-        gbc.gridy = 1; // Move to the next row
-        gbc.insets = new Insets(5, 0, 0, 0); // Add some top padding
+    /**
+     * Builds the row models of a week from the records of the habit store.
+     * 
+     * @param startOfWeek The Sunday the week starts on.
+     * @return The row models of each day of the week.
+     */
+    private Map<LocalDate, List<TaskRowModel>> buildWeekModels(LocalDate startOfWeek) {
+        Map<LocalDate, List<TaskRowModel>> week = new HashMap<>();
+        for (int i = 0; i < 7; i++) {
+            LocalDate date = startOfWeek.plusDays(i);
+            List<TaskRowModel> rows = new ArrayList<>();
+            for (HabitRecord record : store.getRecords(date)) {
+                rows.add(new TaskRowModel(date, record.getName(), record.getSteps(), record.getProgress(),
+                        record.getStatus()));
+            }
+            week.put(date, rows);
+        }
+        return week;
+    }
 
-        // Add statusLabel to nameStatusPanel
-        nameStatusPanel.add(statusLabel, gbc);
+    /**
+     * Creates the row of a task item.
+     * 
+     * The row displays the name and the progress of the task, and buttons for
+     * completing, skipping, updating progress and removing the task. It is a
+     * single custom-painted component that draws from the row model.
+     * 
+     * @param row The row model of the task.
+     * @return The component representing the task item.
+     */
+    private TaskRowComponent createTaskRow(TaskRowModel row) {
+        return new TaskRowComponent(row, taskRowActions);
+    }
 
-        // Update GridBagConstraints for removeButton
-        gbc.gridy = 2; // Move to the next row
-        gbc.insets = new Insets(5, 0, 0, 0); // Add some top padding
+    /**
+     * Handles the buttons of all task rows. The row model is updated right
+     * away so the row repaints with the new state; the store then persists the
+     * change and publishes it to the other views.
+     */
+    private class TaskRowActions implements TaskRowComponent.Actions {
+        @Override
+        public void complete(TaskRowModel row) {
+            row.setProgress(100.0f);
+            row.setStatus("Completed");
+            store.complete(row.getDate(), row.getName());
+        }
 
-        // Add removeButton to nameStatusPanel
-        nameStatusPanel.add(removeButton, gbc);
+        @Override
+        public void skip(TaskRowModel row) {
+            row.setStatus("Skipped");
+            store.setStatus(row.getDate(), row.getName(), "Skipped");
+        }
 
-        taskPanel.add(nameStatusPanel);
+        @Override
+        public void addStep(TaskRowModel row) {
+            if (row.getProgress() < 100.0f) {
+                float newProgressValue = Math.min(100.0f, row.getProgress() + 100.0f / row.getSteps());
+                row.setProgress(newProgressValue);
+                // Reaching 100% also marks the task completed, in the same write
+                store.setProgress(row.getDate(), row.getName(), newProgressValue);
+            }
+        }
 
-        return taskPanel;
+        @Override
+        public void remove(TaskRowModel row) {
+            // Remove the task; the Today panel follows through the change event
+            store.removeTask(row.getDate(), row.getName());
+        }
     }
 
     /**
@@ -455,6 +450,7 @@ public class Wellnest extends JFrame {
      * @return The JPanel containing the statistics panel components.
      */
     private JPanel createStatsPanel() {
+        long start = System.nanoTime();
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBackground(Color.WHITE);
 
@@ -469,7 +465,7 @@ public class Wellnest extends JFrame {
         streakLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10)); // Add padding
 
         // Create task count label
-        JLabel taskCountLabel = new JLabel("Tasks Completed: " + countCompletedTasks());
+        JLabel taskCountLabel = new JLabel("Tasks Completed: " + completedTaskCount);
         taskCountLabel.setHorizontalAlignment(SwingConstants.CENTER);
         taskCountLabel.setFont(new Font("Arial", Font.BOLD, 16));
         taskCountLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10)); // Add padding
@@ -480,15 +476,38 @@ public class Wellnest extends JFrame {
         // Add task count label to the panel's CENTER position
         panel.add(taskCountLabel, BorderLayout.CENTER);
 
+        // Habit trends fill in once they are computed
+        trendsLabel = new JLabel("Calculating trends...");
+        trendsLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        trendsLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+        trendsLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10)); // Add padding
+        JScrollPane trendsScrollPane = new JScrollPane(trendsLabel);
+        trendsScrollPane.setBorder(null);
+        trendsScrollPane.getViewport().setBackground(Color.WHITE);
+        panel.add(trendsScrollPane, BorderLayout.SOUTH);
+
+        JButton memoryButton = new JButton("Memory Report");
+        memoryButton.addActionListener(e -> showMemoryReport());
+        JPanel memoryButtonPanel = new JPanel(new GridBagLayout());
+        memoryButtonPanel.setBackground(Color.WHITE);
+        memoryButtonPanel.add(memoryButton);
+        panel.add(memoryButtonPanel, BorderLayout.EAST);
+
+        Metrics.recordSince("ui.createStatsPanel", start);
         return panel;
     }
 
     /**
-     * Creates a panel displaying all habits with their respective remove buttons.
+     * Creates a panel displaying one row per habit with its aggregate figures
+     * and a remove button.
+     *
+     * The figures come from the habit summaries kept in memory, so building the
+     * panel does not read any file.
      *
      * @return the JPanel containing all habits with remove buttons
      */
     private JPanel createAllHabitsPanel() {
+        long start = System.nanoTime();
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));  // Set BoxLayout for vertical stacking
         panel.setBackground(Color.WHITE);
@@ -498,8 +517,8 @@ public class Wellnest extends JFrame {
         titleLabel.setAlignmentX(Component.CENTER_ALIGNMENT);  // Center-align the label
         panel.add(titleLabel);
     
-        ArrayList<String> tasks = readTasksFromFile("tasks.txt");
-        for (String task : tasks) {
+        allHabitsRowLabels.clear();
+        for (HabitSummary summary : store.getHabitSummaries()) {
             JPanel taskPanel = new JPanel(new GridBagLayout());
             taskPanel.setBorder(BorderFactory.createLineBorder(Color.BLACK));
             taskPanel.setBackground(Color.WHITE);
@@ -511,9 +530,23 @@ public class Wellnest extends JFrame {
             gbc.anchor = GridBagConstraints.CENTER;
             gbc.weightx = 1.0;
     
-            JLabel nameLabel = new JLabel(task, SwingConstants.CENTER);
+            JLabel nameLabel = new JLabel(summary.getName(), SwingConstants.CENTER);
             nameLabel.setFont(new Font("Arial", Font.BOLD, 25));
             taskPanel.add(nameLabel, gbc);
+
+            JLabel countsLabel = new JLabel("", SwingConstants.CENTER);
+            countsLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+            gbc.gridy++;
+            taskPanel.add(countsLabel, gbc);
+
+            JLabel streakLabel = new JLabel("", SwingConstants.CENTER);
+            streakLabel.setFont(new Font("Arial", Font.PLAIN, 14));
+            gbc.gridy++;
+            taskPanel.add(streakLabel, gbc);
+
+            JLabel[] figureLabels = { countsLabel, streakLabel };
+            updateHabitFigureLabels(summary, figureLabels);
+            allHabitsRowLabels.put(summary.getName(), figureLabels);
     
             JPanel buttonPanel = new JPanel(new GridBagLayout());
             buttonPanel.setPreferredSize(new Dimension(1000, 50));
@@ -524,7 +557,7 @@ public class Wellnest extends JFrame {
             gbcButtons.fill = GridBagConstraints.HORIZONTAL;
             gbcButtons.insets = new Insets(3, 3, 3, 3);
     
-            JButton removeButton = new JButton("Remove Task");
+            JButton removeButton = new JButton("Remove Habit");
     
             removeButton.setBackground(new Color(255, 105, 97));
             removeButton.setForeground(Color.WHITE);
@@ -532,17 +565,21 @@ public class Wellnest extends JFrame {
             removeButton.setFont(new Font("Arial", Font.BOLD, 25));
             removeButton.setPreferredSize(new Dimension(200, 50));
     
-            // Add action listener to the remove button
+            // Remove every occurrence of the habit and persist the change
             removeButton.addActionListener(e -> {
-                // Remove the task from the list of tasks
-                tasks.remove(task);
-                // Update the display
-                panel.remove(taskPanel);
-                panel.revalidate();
-                panel.repaint();
+                store.removeHabit(summary.getName());
             });
-    
+
+            JButton remindersButton = new JButton("Reminders");
+            remindersButton.setBackground(new Color(100, 149, 237));
+            remindersButton.setForeground(Color.WHITE);
+            remindersButton.setFocusPainted(false);
+            remindersButton.setFont(new Font("Arial", Font.BOLD, 25));
+            remindersButton.setPreferredSize(new Dimension(200, 50));
+            remindersButton.addActionListener(e -> editReminders(summary.getName()));
+
             buttonPanel.add(removeButton, gbcButtons);
+            buttonPanel.add(remindersButton, gbcButtons);
     
             gbc.gridy++;
             taskPanel.add(buttonPanel, gbc);
@@ -551,27 +588,25 @@ public class Wellnest extends JFrame {
             panel.add(taskPanel);
         }
     
+        Metrics.recordSince("ui.createAllHabitsPanel", start);
         return panel;
     }
 
     /**
-     * Reads tasks from a file and returns them as an ArrayList of strings.
+     * Sets the text of the figure labels of an All Habits row from the habit
+     * summary.
      *
-     * @param filename the name of the file to read tasks from
-     * @return an ArrayList containing the tasks read from the file
+     * @param summary      The summary of the habit.
+     * @param figureLabels The counts label and the streak label of the row.
      */
-    private ArrayList<String> readTasksFromFile(String filename) {
-        ArrayList<String> tasksList = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                tasksList.add(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            // Handle file reading exception here
-        }
-        return tasksList;
+    private void updateHabitFigureLabels(HabitSummary summary, JLabel[] figureLabels) {
+        figureLabels[0].setText(String.format("Occurrences: %d | Completed: %d | Skipped: %d | Rate: %.1f%%",
+                summary.getOccurrences(), summary.getCompletions(), summary.getSkips(),
+                summary.getCompletionRate()));
+        LocalDate lastDone = summary.getLastDone();
+        figureLabels[1].setText(String.format("Current Streak: %d | Best Streak: %d | Last Done: %s",
+                summary.getCurrentStreak(LocalDate.now()), summary.getBestStreak(),
+                lastDone != null ? lastDone.toString() : "never"));
     }
 
     /**
@@ -706,21 +741,39 @@ public class Wellnest extends JFrame {
         switchPanel(todayPanel);
     }
 
-    private void showStatsPanel() {
-        // Get the stats panel
-        statsPanel = createStatsPanel();
+    /**
+     * Visits every view and comes back to the Today panel, so that the classes
+     * of all of them are loaded; used by the {@link CdsTraining} run.
+     */
+    void showEveryView() {
+        showStatsPanel();
+        showAllHabitsPanel();
+        openCalendarPanel();
+        showTodayPanel();
+    }
 
-        // Update the task count label
-        JLabel taskCountLabel = (JLabel) statsPanel.getComponent(1); // Assuming taskCountLabel is the second component
-        updateTaskCountLabel(taskCountLabel);
+    private void showStatsPanel() {
+        ViewRebuildEvent event = ViewRebuildEvent.start("showStatsPanel");
 
+        // Once built, the stats panel is kept up to date by the StatsUpdater, so it is shown as is
+        if (statsPanel == null) {
+            statsPanel = createStatsPanel();
+        }
         // Set the stats panel as the current panel
         setCurrentPanel(statsPanel);
+        refreshTrends();
+        event.finish(statsPanel.getComponentCount());
     }
 
     private void showAllHabitsPanel() {
+        if (allHabitsPanel == null) {
+            allHabitsPanel = createAllHabitsPanel();
+            panelCache.markCurrent(ALL_HABITS_VIEW, store.getDataVersion());
+        }
         switchPanel(allHabitsPanel);
-        refreshAllHabitsPanel();
+        if (!panelCache.isCurrent(ALL_HABITS_VIEW, store.getDataVersion())) {
+            refreshAllHabitsPanel();
+        }
     }
 
     /**
@@ -728,294 +781,28 @@ public class Wellnest extends JFrame {
      * with a smooth animation.
      * If the sidebar is currently expanded, it collapses it to a width of 0. If
      * it's collapsed, it expands it to its original width.
-     * The animation is achieved using a Timer object to gradually adjust the width
-     * of the sidebar panel.
+     * The animation slides a snapshot of the sidebar over the content, so the
+     * window is only laid out once per toggle however many tasks it shows.
      */
     private void toggleSidebar() {
-        int targetWidth = isSidebarExpanded ? 0 : sidebarWidth;
-        Timer timer = new Timer(10, new ActionListener() {
-            int currentWidth = sidebarPanel.getWidth();
-
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if ((isSidebarExpanded && currentWidth <= targetWidth)
-                        || (!isSidebarExpanded && currentWidth >= targetWidth)) {
-                    ((Timer) e.getSource()).stop();
-                    sidebarPanel.setPreferredSize(new Dimension(targetWidth, getHeight()));
-                    sidebarPanel.revalidate();
-                    sidebarPanel.repaint();
-                    isSidebarExpanded = !isSidebarExpanded;
-                } else {
-                    int step = isSidebarExpanded ? -5 : 5;
-                    currentWidth += step;
-                    sidebarPanel.setPreferredSize(new Dimension(currentWidth, getHeight()));
-                    sidebarPanel.revalidate();
-                    sidebarPanel.repaint();
-                }
-            }
-        });
-        timer.start();
-    }
-
-    /**
-     * Saves the status of a task to a file.
-     *
-     * This method appends a new entry to the task completion file, consisting of
-     * the task's
-     * date, name, and status, separated by "|" (pipe) characters.
-     *
-     * @param date     The date of the task in the format of a string.
-     * @param taskName The name of the task.
-     * @param status   The status of the task (e.g., "Completed", "Skipped").
-     */
-    private void saveTaskStatus(String date, String taskName, String status) {
-        // Load the current entries into the map
-        loadTaskStatusFromFile();
-
-        // Create the key for the new entry
-        String key = date + "|" + taskName;
-
-        // Update the map with the new or updated status
-        taskStatusDatabase.put(key, status);
-
-        // Save the entire map back to the file
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(TASK_COMPLETED_FILE_PATH))) {
-            for (Map.Entry<String, String> entry : taskStatusDatabase.entrySet()) {
-                writer.write(entry.getKey() + "|" + entry.getValue());
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Loads tasks from a file into the task database.
-     *
-     * This method reads each line from the tasks file, splits it into parts using
-     * "|" (pipe) as the delimiter,
-     * parses the date from the first part, and retrieves the task name from the
-     * second part. It then adds the
-     * task to the task database under the corresponding date.
-     *
-     * @throws IOException If an I/O error occurs while reading the file.
-     */
-    private void loadTasksFromFile() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(TASKS_FILE_PATH))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length >= 2) {
-                    LocalDate date = LocalDate.parse(parts[0]);
-                    String task = parts[1];
-                    int progress = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
-                    taskDatabase.computeIfAbsent(date, k -> new ArrayList<>()).add(task + "|" + progress);
-                } else {
-                    System.out.println("Task format is incorrect: " + line);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Loads task statuses from a file into the task status database.
-     *
-     * This method reads each line from the task completed file, splits it into
-     * parts using "|" (pipe) as the delimiter,
-     * and retrieves the date and task name from the first two parts. It then
-     * combines the date and task name to form the key,
-     * and extracts the status from the third part. If the line contains all three
-     * parts, it adds the key-value pair
-     * (date and task name as key, status as value) to the task status database.
-     *
-     * @throws IOException If an I/O error occurs while reading the file.
-     */
-    private void loadTaskStatusFromFile() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(TASK_COMPLETED_FILE_PATH))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 3) {
-                    String key = parts[0] + "|" + parts[1];
-                    String status = parts[2];
-                    taskStatusDatabase.put(key, status);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (sidebarAnimator == null) {
+            sidebarAnimator = new SidebarAnimator(getLayeredPane(), sidebarPanel, sidebarWidth);
         }
-    }
-
-    /**
-     * Method to load task progress from file.
-     * used in the constructor.
-     */
-    private void loadTaskProgressFromFile() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(TASK_PROGRESS_FILE_PATH))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                String key = parts[0] + "|" + parts[1];
-                float value = Float.parseFloat(parts[2]);
-                taskProgressDatabase.put(key, value);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Method to save tasks to task.txt file (db).
-     * used in the addTask and removeTask method.
-     * 
-     * It saves the tasks to a file by iterating through the taskDatabase map
-     * where the key is the date and the value is a list of tasks.
-     */
-    private void saveTasksToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(TASKS_FILE_PATH))) {
-            for (LocalDate date : taskDatabase.keySet()) {
-                List<String> tasks = taskDatabase.get(date);
-                for (String task : tasks) {
-                    writer.write(date.toString() + "|" + task);
-                    writer.newLine();
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Saves the task progress data to the TASK_PROGRESS_FILE_PATH file.
-     * Writes each entry in the taskProgressDatabase to the file with the format:
-     * "date|taskName|progressValue".
-     * If an IOException occurs during the file writing process, it prints the stack
-     * trace.
-     */
-    private void saveTaskProgressToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(TASK_PROGRESS_FILE_PATH))) {
-            for (Map.Entry<String, Float> entry : taskProgressDatabase.entrySet()) {
-                writer.write(entry.getKey() + "|" + entry.getValue());
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * Retrieves the progress data of a task for a specific date from the tasks.txt
-     * file.
-     * 
-     * @param date     The date of the task in the format "yyyy-MM-dd".
-     * @param taskName The name of the task.
-     * @return An array containing the progress data: [currentProgress, totalSteps],
-     *         or [0, 1] if not found.
-     */
-    private int[] getTaskProgress(String date, String taskName) {
-        String filePath = "tasks.txt"; // Adjust this if the file path is different
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 3) {
-                    String fileDate = parts[0];
-                    String fileTaskName = parts[1];
-                    int totalSteps = Integer.parseInt(parts[2]);
-                    if (fileDate.equals(date) && fileTaskName.equals(taskName)) {
-                        return new int[] { 0, totalSteps }; // Progress is initially 0, and the total steps
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return new int[] { 0, 1 }; // Default to 0 progress and 1 step if not found
-    }
-
-    /**
-     * Retrieves the status of a task for a specific date from the
-     * taskStatusDatabase.
-     * 
-     * @param date     The date of the task in the format "yyyy-MM-dd".
-     * @param taskName The name of the task.
-     * @return The status of the task, or null if not found.
-     */
-    private String getTaskStatus(String date, String taskName) {
-        return taskStatusDatabase.get(date + "|" + taskName);
-    }
-
-    /**
-     * Updates the progress of a task for a specific date in the taskProgress.txt
-     * file.
-     * 
-     * @param date        The date of the task in the format "yyyy-MM-dd".
-     * @param taskName    The name of the task.
-     * @param newProgress The new progress value to be updated.
-     */
-    private void updateTaskProgress(String date, String taskName, float newProgress) {
-        String filePath = "taskProgress.txt"; // Adjust this if the file path is different
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            StringBuilder fileContent = new StringBuilder();
-            boolean taskFound = false;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 3) {
-                    String fileDate = parts[0];
-                    String fileTaskName = parts[1];
-                    if (fileDate.equals(date) && fileTaskName.equals(taskName)) {
-                        fileContent.append(date).append("|").append(taskName).append("|").append(newProgress)
-                                .append("\n");
-                        taskFound = true;
-                    } else {
-                        fileContent.append(line).append("\n");
-                    }
-                }
-            }
-            // If task not found, add it to the file
-            if (!taskFound) {
-                fileContent.append(date).append("|").append(taskName).append("|").append(newProgress).append("\n");
-            }
-
-            // Write the updated content back to the file
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
-                writer.write(fileContent.toString());
-            }
-        } catch (IOException ex) {
-            ex.printStackTrace();
+        if (sidebarAnimator.isRunning()) {
+            return;
         }
-    }
-
-    /**
-     * Retrieves the progress value of a task for a specific date from the
-     * taskProgress.txt file.
-     * 
-     * @param date     The date of the task in the format "yyyy-MM-dd".
-     * @param taskName The name of the task.
-     * @return The progress value of the task as a float, or 0.0 if not found or an
-     *         error occurs.
-     */
-    private float getTaskProgressValue(String date, String taskName) {
-        String filePath = "taskProgress.txt"; // Adjust this if the file path is different
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length == 3) {
-                    String fileDate = parts[0];
-                    String fileTaskName = parts[1];
-                    if (fileDate.equals(date) && fileTaskName.equals(taskName)) {
-                        return Float.parseFloat(parts[2]);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        int targetWidth = isSidebarExpanded ? 0 : sidebarWidth;
+        Runnable layout = () -> {
+            sidebarPanel.setPreferredSize(new Dimension(targetWidth, getHeight()));
+            sidebarPanel.revalidate();
+            sidebarPanel.repaint();
+        };
+        if (isSidebarExpanded) {
+            sidebarAnimator.collapse(layout);
+        } else {
+            sidebarAnimator.expand(layout);
         }
-        return 0.0f; // Return 0 if not found or error
+        isSidebarExpanded = !isSidebarExpanded;
     }
 
     // private void openAddPanel() {
@@ -1032,37 +819,8 @@ public class Wellnest extends JFrame {
      * to the application.
      */
     private void openCalendarPanel() {
-        // Create a calendar panel to select the date
-        JPanel calendarPanel = new JPanel(new BorderLayout());
-
-        // Create a label to prompt the user
-        JLabel promptLabel = new JLabel("Select a date to enter the task:");
-        promptLabel.setFont(new Font("Arial", Font.BOLD, 20));
-        promptLabel.setHorizontalAlignment(SwingConstants.CENTER);
-
-        // Create a JCalendar instance
-        JCalendar calendar = new JCalendar();
-
-        // Add a property change listener to the calendar to listen for date selection
-        // changes
-        calendar.getDayChooser().addPropertyChangeListener("day", new PropertyChangeListener() {
-            @Override
-            public void propertyChange(PropertyChangeEvent evt) {
-                // Get the selected date from the calendar
-                LocalDate selectedDate = calendar.getDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-
-                // Prompt the user to input the task details
-                TaskInputDialog taskDialog = new TaskInputDialog(selectedDate);
-                taskDialog.setVisible(true);
-            }
-        });
-
-        // Add the prompt label and the calendar to the panel
-        calendarPanel.add(promptLabel, BorderLayout.NORTH);
-        calendarPanel.add(calendar, BorderLayout.CENTER);
-
         // Show the calendar panel in the add panel
-        setCurrentPanel(calendarPanel);
+        setCurrentPanel(new AddTaskCalendarPanel());
     }
 
     /**
@@ -1076,102 +834,78 @@ public class Wellnest extends JFrame {
      * @return The streak count of consecutive task completions.
      */
     private int calculateStreakCount() {
-        int streakCount = 0;
-        LocalDate today = LocalDate.now();
-        LocalDate previousDate = today.minusDays(1);
-
-        // Check for consecutive completion of tasks
-        while (taskDatabase.containsKey(today) && taskDatabase.containsKey(previousDate)) {
-            streakCount++;
-            today = today.minusDays(1);
-            previousDate = previousDate.minusDays(1);
-        }
-
-        return streakCount;
-    }
-
-    private int countCompletedTasks() {
-        int completedTasks = 0;
-        String filePath = "taskCompleted.txt"; // Adjust this if the file path is different
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Assuming each line represents a completed task
-                completedTasks++;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            // Handle any IOExceptions here
-        }
-
-        return completedTasks;
+        return store.getStreak(LocalDate.now());
     }
 
     private void updateTaskCountLabel(JLabel taskCountLabel) {
         // Get the count of completed tasks and update the label text
-        int completedTasks = countCompletedTasks();
-        taskCountLabel.setText("Tasks Completed: " + completedTasks);
+        taskCountLabel.setText("Tasks Completed: " + completedTaskCount);
     }
 
     /**
-     * Method to remove a task from the panel and the database
-     * used in the removeButton action listener from the createTaskItemPanel method.
-     * 
-     * @param date      of the tast
-     * @param taskName
-     * @param taskPanel
+     * Starts computing the habit trends of the Stats panel in the background,
+     * unless they are current or already being computed for the current data
+     * version. The habits are copied here, on the EDT, and the trends are
+     * shown by {@link #showTrends} once they are done.
      */
-    private void removeTask(LocalDate date, String taskName, JPanel taskPanel) {
-        if (taskPanel != null) {
-            // Remove the task panel from the current panel
-            currentPanel.remove(taskPanel);
-            currentPanel.revalidate();
-            currentPanel.repaint();
+    private void refreshTrends() {
+        long version = store.getDataVersion();
+        if (panelCache.isCurrent(TRENDS_VIEW, version) || trendsPendingVersion == version) {
+            return;
         }
-    
-        // Remove the task from the database
-        List<String> tasksForDate = taskDatabase.get(date);
-        if (tasksForDate != null) {
-            tasksForDate.removeIf(task -> task.startsWith(taskName)); // Remove tasks with matching names
-            if (tasksForDate.isEmpty()) {
-                taskDatabase.remove(date);
-                if (currentPanel.getComponentCount() == 0) {
-                    // If the current panel is empty, refresh it
-                    refreshTodayPanel();
-                }
-            }
-            saveTasksToFile(); // Save the updated task database to file
-    
-            // Refresh the Today panel
-            refreshTodayPanel();
+        if (trendAnalyzer == null) {
+            trendAnalyzer = new TrendAnalyzer(new ForkJoinPool());
         }
+        trendsPendingVersion = version;
+        LocalDate today = currentDate;
+        List<TrendAnalyzer.HabitHistory> histories = TrendAnalyzer.snapshot(store.getHabitSummaries(), today);
+        CompletableFuture.supplyAsync(() -> trendAnalyzer.analyze(histories), trendAnalyzer.getPool())
+                .whenComplete((trends, error) -> SwingUtilities.invokeLater(() -> showTrends(version, today, trends,
+                        error)));
     }
 
-    /**
-     * Method to add a task to the task database and refresh the Today panel.
-     * used in the addButton action listener from the TaskInputDialog class.
-     * 
-     * @param date
-     * @param task
-     * @param progress
-     */
-    private void addTask(LocalDate date, String task, int progress) {
-        // Check if the task name is blank
-        if (task.trim().isEmpty()) {
-            // Task name is blank, do not proceed
+    private void showTrends(long version, LocalDate today, List<HabitTrends> trends, Throwable error) {
+        if (!today.equals(currentDate)) {
+            return; // Computed before midnight; the run for the new day is under way
+        }
+        if (trendsPendingVersion == version) {
+            trendsPendingVersion = -1;
+        }
+        if (error != null) {
+            error.printStackTrace();
+            trendsLabel.setText("Trends could not be calculated.");
             return;
         }
+        StringBuilder text = new StringBuilder("<html><table cellpadding='4'>"
+                + "<tr><th align='left'>Habit</th><th>7 days</th><th>30 days</th><th>Best day</th>"
+                + "<th>Worst day</th><th>Today</th></tr>");
+        for (HabitTrends habit : trends) {
+            text.append("<tr><td>").append(escapeHtml(habit.getName()))
+                    .append("</td><td align='right'>").append(formatRate(habit.getRate7()))
+                    .append("</td><td align='right'>").append(formatRate(habit.getRate30()))
+                    .append("</td><td>").append(formatWeekday(habit.getBestWeekday()))
+                    .append("</td><td>").append(formatWeekday(habit.getWorstWeekday()))
+                    .append("</td><td align='right'>").append(formatRate(habit.getTodayProbability()))
+                    .append("</td></tr>");
+        }
+        text.append("</table></html>");
+        trendsLabel.setText(trends.isEmpty() ? "No habits to show trends for." : text.toString());
+        panelCache.markCurrent(TRENDS_VIEW, version);
+        if (currentPanel == statsPanel) {
+            refreshTrends(); // The data may have changed while the trends were computed
+        }
+    }
 
-        // Add the task to the task database with its progress
-        String taskWithProgress = task + "|" + progress;
-        taskDatabase.computeIfAbsent(date, k -> new ArrayList<>()).add(taskWithProgress);
+    private static String formatRate(double rate) {
+        return Double.isNaN(rate) ? "-" : Math.round(rate * 100) + "%";
+    }
 
-        // Save tasks to file
-        saveTasksToFile();
+    private static String formatWeekday(DayOfWeek weekday) {
+        return weekday == null ? "-" : weekday.getDisplayName(TextStyle.SHORT, Locale.US);
+    }
 
-        // Refresh the Today panel to reflect the new task
-        refreshTodayPanel();
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
     }
 
     /**
@@ -1184,10 +918,114 @@ public class Wellnest extends JFrame {
      * after changes have been made to the tasks or their status.
      */
     private void refreshTodayPanel() {
+        ViewRebuildEvent event = ViewRebuildEvent.start("refreshTodayPanel");
         todayPanel.removeAll(); // Remove all components from the Today panel
         todayPanel.add(createTodayPanel()); // Re-create the Today panel
         todayPanel.revalidate(); // Revalidate the panel to reflect changes
         todayPanel.repaint(); // Repaint the panel
+        event.finish(todayPanel.getComponentCount());
+    }
+
+    /**
+     * Asks for the reminder times of a habit, such as "08:00, 20:30", and
+     * passes them to the reminder scheduler. A blank answer removes the
+     * reminders.
+     *
+     * @param taskName The name of the habit.
+     */
+    private void editReminders(String taskName) {
+        String current = ReminderScheduler.formatTimes(reminderScheduler.getReminderTimes(taskName));
+        String input = JOptionPane.showInputDialog(this,
+                "Reminder times for " + taskName + " (HH:mm, separated by commas):", current);
+        if (input == null) {
+            return; // Cancelled
+        }
+        try {
+            reminderScheduler.setReminderTimes(taskName, ReminderScheduler.parseTimes(input));
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this, "Please enter times like 08:00, 20:30.", "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Estimates the heap the data of the store and the caches of the window
+     * retain and sets the {@code memory.*} gauges. Called on the EDT.
+     *
+     * @return The report.
+     */
+    private MemoryReport createMemoryReport() {
+        MemoryReport report = new MemoryReport();
+        store.reportMemory(report);
+        weekCache.reportMemory(report);
+        report.publish();
+        return report;
+    }
+
+    /**
+     * Makes the memory report for the {@link MetricsMXBean}, which is called on
+     * a thread of the MBean server.
+     *
+     * @return The report as a text table.
+     */
+    private String createMemoryReportOnEdt() {
+        if (SwingUtilities.isEventDispatchThread()) {
+            return createMemoryReport().format();
+        }
+        String[] text = new String[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> text[0] = createMemoryReport().format());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Interrupted";
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            return "The memory report failed: " + e.getCause();
+        }
+        return text[0];
+    }
+
+    /**
+     * Shows the memory report in a dialog.
+     */
+    private void showMemoryReport() {
+        JTextArea text = new JTextArea(createMemoryReport().format());
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        text.setEditable(false);
+        JScrollPane scrollPane = new JScrollPane(text);
+        scrollPane.setPreferredSize(new Dimension(640, 360));
+        JOptionPane.showMessageDialog(this, scrollPane, "Memory Report", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /**
+     * Moves the application to a new day: the Today panel shows the new date if
+     * it was showing the old one, and the streak is recalculated.
+     *
+     * @param today The new date.
+     */
+    private void rollOverDay(LocalDate today) {
+        LocalDate previous = currentDate;
+        currentDate = today;
+        if (selectedDate.equals(previous)) {
+            selectedDate = today;
+        }
+        refreshTodayPanel();
+
+        if (statsPanel != null) {
+            JLabel streakLabel = (JLabel) statsPanel.getComponent(0); // streakLabel is the first component
+            streakLabel.setText("Current Streak: " + calculateStreakCount());
+        }
+
+        // The current streaks of the habits and their trends depend on the date
+        panelCache.invalidate(ALL_HABITS_VIEW);
+        panelCache.invalidate(TRENDS_VIEW);
+        trendsPendingVersion = -1;
+        if (currentPanel == statsPanel) {
+            refreshTrends();
+        }
+        if (currentPanel == allHabitsPanel) {
+            refreshAllHabitsPanel();
+        }
     }
 
     /**
@@ -1195,10 +1033,13 @@ public class Wellnest extends JFrame {
      * and then revalidating and repainting the panel to reflect the changes.
      */
     private void refreshAllHabitsPanel() {
+        ViewRebuildEvent event = ViewRebuildEvent.start("refreshAllHabitsPanel");
         allHabitsPanel.removeAll(); // Remove all components from the Today panel
         allHabitsPanel.add(createAllHabitsPanel()); // Re-create the Today panel
         allHabitsPanel.revalidate(); // Revalidate the panel to reflect changes
         allHabitsPanel.repaint(); // Repaint the panel
+        panelCache.markCurrent(ALL_HABITS_VIEW, store.getDataVersion());
+        event.finish(store.getHabitSummaries().size());
     }
 
     /**
@@ -1246,6 +1087,307 @@ public class Wellnest extends JFrame {
         }
     }
 
+    /**
+     * Keeps the Today panel and the week cache in step with the change events.
+     * Rows of the visible day are added and removed in place, and the week
+     * strip badges are refreshed once per burst.
+     */
+    private class TodayViewUpdater implements HabitChangeListener {
+        private boolean dirty;
+
+        @Override
+        public void taskAdded(HabitChangeEvent.TaskAdded event) {
+            List<TaskRowModel> cachedRows = weekCache.getDay(event.getDate());
+            if (cachedRows != null) {
+                TaskRowModel row = new TaskRowModel(event.getDate(), event.getTaskName(), event.getSteps(), 0.0f, null);
+                cachedRows.add(row);
+                if (event.getDate().equals(selectedDate) && todayTaskListPanel != null) {
+                    todayTaskListPanel.add(createTaskRow(row));
+                }
+            }
+            dirty = true;
+        }
+
+        @Override
+        public void taskRemoved(HabitChangeEvent.TaskRemoved event) {
+            List<TaskRowModel> cachedRows = weekCache.getDay(event.getDate());
+            if (cachedRows != null) {
+                cachedRows.removeIf(row -> row.getName().equals(event.getTaskName()));
+            }
+            if (event.getDate().equals(selectedDate) && todayTaskListPanel != null) {
+                for (Component component : todayTaskListPanel.getComponents()) {
+                    if (event.getTaskName().equals(((JComponent) component).getClientProperty("taskName"))) {
+                        todayTaskListPanel.remove(component);
+                    }
+                }
+            }
+            dirty = true;
+        }
+
+        @Override
+        public void progressChanged(HabitChangeEvent.ProgressChanged event) {
+            TaskRowModel row = findCachedRow(event);
+            if (row != null) {
+                row.setProgress(event.getProgress());
+            }
+            dirty = true;
+        }
+
+        @Override
+        public void statusChanged(HabitChangeEvent.StatusChanged event) {
+            TaskRowModel row = findCachedRow(event);
+            if (row != null) {
+                row.setStatus(event.getStatus());
+            }
+            dirty = true;
+        }
+
+        @Override
+        public void changesApplied() {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            refreshWeekBadges();
+            if (todayTaskListPanel != null) {
+                todayTaskListPanel.revalidate();
+                todayTaskListPanel.repaint();
+            }
+        }
+
+        private TaskRowModel findCachedRow(HabitChangeEvent event) {
+            List<TaskRowModel> cachedRows = weekCache.getDay(event.getDate());
+            if (cachedRows != null) {
+                for (TaskRowModel row : cachedRows) {
+                    if (row.getName().equals(event.getTaskName())) {
+                        return row;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Shows the reminders as notifications of the system tray, or as a small
+     * window in the corner of the screen where there is no tray, and rolls the
+     * views over when the day changes.
+     */
+    private class ReminderNotifier implements ReminderScheduler.Listener {
+        private static final int TOAST_MILLIS = 6000;
+
+        private TrayIcon trayIcon;
+
+        @Override
+        public void remind(String taskName, LocalTime time) {
+            String message = taskName + " is not done yet today.";
+            if (showInTray(message)) {
+                return;
+            }
+            JWindow toast = new JWindow(Wellnest.this);
+            JLabel label = new JLabel(message, SwingConstants.CENTER);
+            label.setFont(new Font("Arial", Font.BOLD, 14));
+            label.setOpaque(true);
+            label.setBackground(new Color(255, 255, 224));
+            label.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createLineBorder(Color.GRAY),
+                    new EmptyBorder(12, 16, 12, 16)));
+            toast.add(label);
+            toast.pack();
+            Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+            toast.setLocation(screen.x + screen.width - toast.getWidth() - 20,
+                    screen.y + screen.height - toast.getHeight() - 20);
+            toast.setVisible(true);
+            Timer timer = new Timer(TOAST_MILLIS, e -> toast.dispose());
+            timer.setRepeats(false);
+            timer.start();
+        }
+
+        @Override
+        public void dayChanged(LocalDate today) {
+            rollOverDay(today);
+        }
+
+        private boolean showInTray(String message) {
+            if (!SystemTray.isSupported()) {
+                return false;
+            }
+            try {
+                if (trayIcon == null) {
+                    BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D g = image.createGraphics();
+                    g.setColor(Color.PINK);
+                    g.fillOval(0, 0, 16, 16);
+                    g.dispose();
+                    trayIcon = new TrayIcon(image, "Wellnest");
+                    trayIcon.setImageAutoSize(true);
+                    SystemTray.getSystemTray().add(trayIcon);
+                }
+                trayIcon.displayMessage("Wellnest reminder", message, TrayIcon.MessageType.INFO);
+                return true;
+            } catch (AWTException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Keeps the completed-task count and the labels of the Stats panel in step
+     * with the change events.
+     */
+    private class StatsUpdater implements HabitChangeListener {
+        private boolean dirty;
+
+        @Override
+        public void taskAdded(HabitChangeEvent.TaskAdded event) {
+            dirty = true; // The streak depends on which days have tasks
+        }
+
+        @Override
+        public void taskRemoved(HabitChangeEvent.TaskRemoved event) {
+            if ("Completed".equals(event.getPreviousStatus())) {
+                completedTaskCount--;
+            }
+            dirty = true;
+        }
+
+        @Override
+        public void statusChanged(HabitChangeEvent.StatusChanged event) {
+            if ("Completed".equals(event.getPreviousStatus())) {
+                completedTaskCount--;
+            }
+            if ("Completed".equals(event.getStatus())) {
+                completedTaskCount++;
+            }
+            dirty = true;
+        }
+
+        @Override
+        public void rollupsRemoved(HabitChangeEvent.RollupsRemoved event) {
+            completedTaskCount -= event.getCompletions();
+            dirty = true;
+        }
+
+        @Override
+        public void changesApplied() {
+            if (currentPanel == statsPanel) {
+                refreshTrends(); // Any change to the data, progress included, can change the trends
+            }
+            if (!dirty || statsPanel == null) {
+                return; // Not built yet; it is built with the current figures
+            }
+            dirty = false;
+            JLabel streakLabel = (JLabel) statsPanel.getComponent(0); // streakLabel is the first component
+            streakLabel.setText("Current Streak: " + calculateStreakCount());
+
+            JLabel taskCountLabel = (JLabel) statsPanel.getComponent(1); // taskCountLabel is the second component
+            updateTaskCountLabel(taskCountLabel);
+        }
+    }
+
+    /**
+     * Keeps the All Habits panel in step with the change events. Rows of
+     * existing habits are patched in place; the panel is only rebuilt when a
+     * habit appears or disappears.
+     */
+    private class AllHabitsUpdater implements HabitChangeListener {
+        private Set<String> dirtyHabits = new HashSet<>();
+
+        @Override
+        public void taskAdded(HabitChangeEvent.TaskAdded event) {
+            dirtyHabits.add(event.getTaskName());
+        }
+
+        @Override
+        public void taskRemoved(HabitChangeEvent.TaskRemoved event) {
+            dirtyHabits.add(event.getTaskName());
+        }
+
+        @Override
+        public void progressChanged(HabitChangeEvent.ProgressChanged event) {
+            dirtyHabits.add(event.getTaskName());
+        }
+
+        @Override
+        public void statusChanged(HabitChangeEvent.StatusChanged event) {
+            dirtyHabits.add(event.getTaskName());
+        }
+
+        @Override
+        public void rollupsRemoved(HabitChangeEvent.RollupsRemoved event) {
+            dirtyHabits.add(event.getTaskName());
+        }
+
+        @Override
+        public void changesApplied() {
+            if (dirtyHabits.isEmpty()) {
+                return;
+            }
+            boolean habitsChanged = false;
+            for (String taskName : dirtyHabits) {
+                HabitSummary summary = store.getHabitSummary(taskName);
+                JLabel[] figureLabels = allHabitsRowLabels.get(taskName);
+                if (summary == null || figureLabels == null) {
+                    habitsChanged = habitsChanged || summary != null || figureLabels != null;
+                } else {
+                    updateHabitFigureLabels(summary, figureLabels);
+                }
+            }
+            dirtyHabits.clear();
+
+            if (!habitsChanged) {
+                panelCache.markCurrent(ALL_HABITS_VIEW, store.getDataVersion());
+            } else if (currentPanel == allHabitsPanel) {
+                refreshAllHabitsPanel();
+            }
+        }
+    }
+
+    /**
+     * The panel for picking the date of a new task, with a JCalendar. It is a
+     * class of its own so that JCalendar is only loaded when a task is added,
+     * not when the window starts.
+     */
+    private class AddTaskCalendarPanel extends JPanel {
+        private static final long serialVersionUID = 1L;
+
+        AddTaskCalendarPanel() {
+            super(new BorderLayout());
+
+            // Create a label to prompt the user
+            JLabel promptLabel = new JLabel("Select a date to enter the task:");
+            promptLabel.setFont(new Font("Arial", Font.BOLD, 20));
+            promptLabel.setHorizontalAlignment(SwingConstants.CENTER);
+
+            // Create a JCalendar instance, its days colored by how many of their tasks are done
+            JCalendar calendar = new JCalendar();
+            calendar.getDayChooser().addDateEvaluator(new TaskDayEvaluator(store, calendar.getDayChooser()));
+            calendar.getDayChooser().setMonth(calendar.getMonthChooser().getMonth()); // Draw the days with it
+
+            // Add a property change listener to the calendar to listen for date selection
+            // changes
+            calendar.getDayChooser().addPropertyChangeListener("day", new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent evt) {
+                    // Get the selected date from the calendar
+                    LocalDate selectedDate = calendar.getDate().toInstant().atZone(ZoneId.systemDefault())
+                            .toLocalDate();
+
+                    // Prompt the user to input the task details
+                    TaskInputDialog taskDialog = new TaskInputDialog(selectedDate);
+                    taskDialog.setVisible(true);
+
+                    // The dialog is modal; show the tasks it added
+                    calendar.getDayChooser().setMonth(calendar.getMonthChooser().getMonth());
+                }
+            });
+
+            // Add the prompt label and the calendar to the panel
+            add(promptLabel, BorderLayout.NORTH);
+            add(calendar, BorderLayout.CENTER);
+        }
+    }
+
     /**
      * A dialog window for adding a new task.
      * 
@@ -1256,10 +1398,14 @@ public class Wellnest extends JFrame {
      * @author: Earl
      */
     private class TaskInputDialog extends JDialog {
+        private static final long serialVersionUID = 1L;
+
         private LocalDate selectedDate;
 
         private JTextField taskNameField;
         private JSpinner progressSpinner;
+        private JDateChooser untilChooser; // Last date of the range, the selected date by default
+        private JCheckBox[] weekdayBoxes; // Monday first
         private JButton addButton;
         private JButton cancelButton;
 
@@ -1271,7 +1417,7 @@ public class Wellnest extends JFrame {
         public TaskInputDialog(LocalDate selectedDate) {
             this.selectedDate = selectedDate;
             setTitle("Add Task");
-            setSize(300, 200);
+            setSize(460, 280);
             setResizable(false);
             setLocationRelativeTo(null);
             setModal(true);
@@ -1293,11 +1439,31 @@ public class Wellnest extends JFrame {
             SpinnerModel spinnerModel = new SpinnerNumberModel(1, 1, 100, 1); // Set minimum value to 0
             progressSpinner = new JSpinner(spinnerModel);
 
-            JPanel inputPanel = new JPanel(new GridLayout(2, 2, 5, 5));
+            // The task is scheduled from the selected date until the chosen date, on the checked weekdays
+            JLabel fromLabel = new JLabel("From:");
+            JLabel fromDateLabel = new JLabel(selectedDate.toString());
+            JLabel untilLabel = new JLabel("Until:");
+            Date from = Date.from(selectedDate.atStartOfDay(ZoneId.systemDefault()).toInstant());
+            untilChooser = new JDateChooser(from, "yyyy-MM-dd");
+            untilChooser.setMinSelectableDate(from);
+
+            JPanel inputPanel = new JPanel(new GridLayout(4, 2, 5, 5));
             inputPanel.add(nameLabel);
             inputPanel.add(taskNameField);
             inputPanel.add(progressLabel);
             inputPanel.add(progressSpinner);
+            inputPanel.add(fromLabel);
+            inputPanel.add(fromDateLabel);
+            inputPanel.add(untilLabel);
+            inputPanel.add(untilChooser);
+
+            JPanel weekdayPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 2, 5));
+            weekdayBoxes = new JCheckBox[7];
+            for (DayOfWeek weekday : DayOfWeek.values()) {
+                JCheckBox box = new JCheckBox(weekday.getDisplayName(TextStyle.SHORT, Locale.US), true);
+                weekdayBoxes[weekday.getValue() - 1] = box;
+                weekdayPanel.add(box);
+            }
 
             // Replace addButton with addTaskButton
             addButton = new JButton("Add Task");
@@ -1305,9 +1471,27 @@ public class Wellnest extends JFrame {
                 // Get task details from input fields
                 String taskName = taskNameField.getText();
                 int progress = (int) progressSpinner.getValue();
-                
-                // Add the task
-                addTask(selectedDate, taskName, progress);
+                LocalDate until = untilChooser.getDate() == null ? selectedDate
+                        : untilChooser.getDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+                Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+                for (DayOfWeek weekday : DayOfWeek.values()) {
+                    if (weekdayBoxes[weekday.getValue() - 1].isSelected()) {
+                        weekdays.add(weekday);
+                    }
+                }
+                if (!HabitRecord.isValidName(taskName)) {
+                    JOptionPane.showMessageDialog(this, "Task names cannot be empty or contain '|' or line breaks.",
+                            "Input Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (until.isBefore(selectedDate) || weekdays.isEmpty()) {
+                    JOptionPane.showMessageDialog(this, "Please choose an end date on or after " + selectedDate
+                            + " and at least one day of the week.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+
+                // Add the task on every day of the range at once
+                store.addTasks(taskName, selectedDate, until, weekdays, progress);
                 
                 // Close the dialog or perform any other necessary actions
                 dispose();
@@ -1334,7 +1518,8 @@ public class Wellnest extends JFrame {
             buttonPanel.add(addButton);
             buttonPanel.add(cancelButton);
 
-            panel.add(inputPanel, BorderLayout.CENTER);
+            panel.add(inputPanel, BorderLayout.NORTH);
+            panel.add(weekdayPanel, BorderLayout.CENTER);
             panel.add(buttonPanel, BorderLayout.SOUTH);
 
             add(panel);
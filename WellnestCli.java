@@ -0,0 +1,389 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * The WellnestCli class runs Wellnest without a window, for scripts and cron
+ * jobs. {@link Main} hands it the command line when there are arguments:
+ *
+ * <pre>
+ * add &lt;task&gt; &lt;from&gt; [&lt;to&gt;] [steps]   schedule a task on every day of a range
+ * progress &lt;task&gt; [&lt;date&gt;] [steps]     do one or more steps of a task
+ * status &lt;task&gt; completed|skipped [&lt;date&gt;]
+ * today [&lt;date&gt;]                        list the tasks of a day
+ * stats                                 print the streak and the habit figures
+ * memory [&lt;max bytes per record&gt;]     print the memory report of the store
+ * run &lt;file&gt;                            run the commands of a script, one per line
+ * </pre>
+ *
+ * Dates are {@code yyyy-MM-dd}, {@code today}, {@code yesterday} or
+ * {@code tomorrow}; the date of a task defaults to today. Task names with
+ * spaces are put in double quotes. In a script, empty lines and lines starting
+ * with {@code #} are ignored.
+ *
+ * {@code memory} fails when the record table retains more bytes per record
+ * than the given maximum, so a build can catch a regression of the footprint
+ * of the store on a sample database. {@link MemoryFootprintCheck} does the
+ * same for both record tables on a synthetic database it builds itself.
+ *
+ * All changes of one invocation are made in memory in one
+ * {@link HabitStore#beginBatch() batch} and written with a single append to the
+ * database at the end, so a script of thousands of updates costs one write. A
+ * command that fails stops the run and aborts the batch: nothing is written
+ * and, with sync on, nothing is sent to the other devices.
+ */
+class WellnestCli {
+
+    /**
+     * A command that cannot be run, with the message to show.
+     */
+    static class CommandException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        CommandException(String message) {
+            super(message);
+        }
+    }
+
+    private final HabitStore store;
+    private final PrintStream out;
+    private final LocalDate today;
+    private int changes;
+
+    WellnestCli(HabitStore store, PrintStream out, LocalDate today) {
+        this.store = store;
+        this.out = out;
+        this.today = today;
+    }
+
+    /**
+     * Loads the store from the working directory, runs the command and writes
+     * its changes. The store is used on the event dispatch thread, like in the
+     * application, so changes made by another process meanwhile are applied
+     * after the batch.
+     *
+     * @param args The command line.
+     * @return The exit status: 0 on success, 1 if the command failed.
+     */
+    static int run(String[] args) {
+        int[] status = new int[1];
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                long start = System.nanoTime();
+                HabitStore store = new HabitStore(new File("."));
+                store.load();
+                try {
+                    WellnestCli cli = new WellnestCli(store, System.out, LocalDate.now());
+                    store.beginBatch();
+                    cli.execute(new ArrayList<>(List.of(args)));
+                    int written = store.commitBatch();
+                    if (cli.changes > 0) {
+                        System.out.println(cli.changes + " changes, " + written + " records written");
+                    }
+                } catch (CommandException e) {
+                    System.err.println(e.getMessage());
+                    status[0] = 1;
+                } finally {
+                    store.abortBatch(); // Does nothing once the batch is committed
+                    store.close();
+                }
+                Metrics.recordSince("cli.run", start);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status[0] = 1;
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace();
+            status[0] = 1;
+        }
+        return status[0];
+    }
+
+    /**
+     * Runs one command.
+     *
+     * @param words The command and its arguments.
+     * @throws CommandException If the command is unknown, its arguments are
+     *                          wrong or its task does not exist.
+     */
+    void execute(List<String> words) throws CommandException {
+        if (words.isEmpty()) {
+            throw new CommandException(usage());
+        }
+        String command = words.remove(0);
+        switch (command) {
+            case "add":
+                add(words);
+                break;
+            case "progress":
+                progress(words);
+                break;
+            case "status":
+                status(words);
+                break;
+            case "today":
+                expectAtMost(words, 1, "today [<date>]");
+                listDay(words.isEmpty() ? today : parseDate(words.get(0)));
+                break;
+            case "stats":
+                expectAtMost(words, 0, "stats");
+                printStats();
+                break;
+            case "memory":
+                expectAtMost(words, 1, "memory [<max bytes per record>]");
+                if (!words.isEmpty() && !isNumber(words.get(0))) {
+                    throw new CommandException("Not a number of bytes: " + words.get(0));
+                }
+                printMemoryReport(words.isEmpty() ? Long.MAX_VALUE : Long.parseLong(words.get(0)));
+                break;
+            case "run":
+                expectAtMost(words, 1, "run <file>");
+                if (words.isEmpty()) {
+                    throw new CommandException("Usage: run <file>");
+                }
+                runScript(new File(words.get(0)));
+                break;
+            case "help":
+                out.println(usage());
+                break;
+            default:
+                throw new CommandException("Unknown command: " + command + "\n" + usage());
+        }
+    }
+
+    /**
+     * add &lt;task&gt; &lt;from&gt; [&lt;to&gt;] [steps]
+     */
+    private void add(List<String> words) throws CommandException {
+        String syntax = "add <task> <from> [<to>] [steps]";
+        if (words.size() < 2 || words.size() > 4) {
+            throw new CommandException("Usage: " + syntax);
+        }
+        String taskName = words.get(0);
+        LocalDate from = parseDate(words.get(1));
+        LocalDate to = from;
+        int steps = 1;
+        if (words.size() == 4) {
+            to = parseDate(words.get(2));
+            steps = parseSteps(words.get(3));
+        } else if (words.size() == 3) {
+            // A date or a step count
+            if (isNumber(words.get(2))) {
+                steps = parseSteps(words.get(2));
+            } else {
+                to = parseDate(words.get(2));
+            }
+        }
+        if (to.isBefore(from)) {
+            throw new CommandException("The range ends before it starts: " + from + " to " + to);
+        }
+        if (!HabitRecord.isValidName(taskName)) {
+            throw new CommandException("Task names cannot be empty or contain '|' or line breaks: " + taskName);
+        }
+        changes += store.addTasks(taskName, from, to, EnumSet.allOf(DayOfWeek.class), steps);
+    }
+
+    /**
+     * progress &lt;task&gt; [&lt;date&gt;] [steps]
+     */
+    private void progress(List<String> words) throws CommandException {
+        String syntax = "progress <task> [<date>] [steps]";
+        if (words.isEmpty() || words.size() > 3) {
+            throw new CommandException("Usage: " + syntax);
+        }
+        LocalDate date = today;
+        int steps = 1;
+        if (words.size() == 3) {
+            date = parseDate(words.get(1));
+            steps = parseSteps(words.get(2));
+        } else if (words.size() == 2) {
+            if (isNumber(words.get(1))) {
+                steps = parseSteps(words.get(1));
+            } else {
+                date = parseDate(words.get(1));
+            }
+        }
+        HabitRecord record = getRecord(date, words.get(0));
+        if (record.getProgress() < 100.0f) {
+            // The same steps as the "1" button; reaching 100% completes the task
+            float progress = Math.min(100.0f, record.getProgress() + steps * 100.0f / record.getSteps());
+            store.setProgress(date, record.getName(), progress);
+            changes++;
+        }
+    }
+
+    /**
+     * status &lt;task&gt; completed|skipped [&lt;date&gt;]
+     */
+    private void status(List<String> words) throws CommandException {
+        if (words.size() < 2 || words.size() > 3) {
+            throw new CommandException("Usage: status <task> completed|skipped [<date>]");
+        }
+        LocalDate date = words.size() == 3 ? parseDate(words.get(2)) : today;
+        HabitRecord record = getRecord(date, words.get(0));
+        switch (words.get(1).toLowerCase()) {
+            case "completed":
+                store.complete(date, record.getName());
+                break;
+            case "skipped":
+                store.setStatus(date, record.getName(), "Skipped");
+                break;
+            default:
+                throw new CommandException("Unknown status: " + words.get(1) + " (completed or skipped)");
+        }
+        changes++;
+    }
+
+    private void listDay(LocalDate date) {
+        List<HabitRecord> records = store.getRecords(date);
+        out.println(date + ": " + (records.isEmpty() ? "no tasks" : records.size() + " tasks"));
+        for (HabitRecord record : records) {
+            String status = record.isCompleted() ? "Completed" : record.getStatus() != null ? record.getStatus() : "";
+            out.printf("  %-30s %5.1f%%  %s%n", record.getName(), Math.min(100.0f, record.getProgress()), status);
+        }
+    }
+
+    private void printStats() {
+        out.println("Current Streak: " + store.getStreak(today));
+        out.println("Tasks Completed: " + store.getCompletedCount());
+        for (HabitSummary summary : store.getHabitSummaries()) {
+            out.printf("  %-30s %5d scheduled %5d completed %5.1f%%  streak %d, best %d%n", summary.getName(),
+                    summary.getOccurrences(), summary.getCompletions(), summary.getCompletionRate(),
+                    summary.getCurrentStreak(today), summary.getBestStreak());
+        }
+    }
+
+    private void printMemoryReport(long maxBytesPerRecord) throws CommandException {
+        MemoryReport report = new MemoryReport();
+        store.reportMemory(report);
+        report.publish();
+        out.print(report.format());
+        if (report.getBytesPerRecord() > maxBytesPerRecord) {
+            throw new CommandException("The records take " + report.getBytesPerRecord() + " bytes each, more than "
+                    + maxBytesPerRecord);
+        }
+    }
+
+    private void runScript(File file) throws CommandException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    List<String> words = split(trimmed);
+                    if (!words.isEmpty() && "run".equals(words.get(0))) {
+                        throw new CommandException("Scripts cannot run other scripts");
+                    }
+                    execute(words);
+                } catch (CommandException e) {
+                    throw new CommandException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new CommandException("Cannot read " + file + ": " + e.getMessage());
+        }
+    }
+
+    private HabitRecord getRecord(LocalDate date, String taskName) throws CommandException {
+        HabitRecord record = store.getRecord(date, taskName);
+        if (record == null) {
+            throw new CommandException("No task " + taskName + " on " + date);
+        }
+        return record;
+    }
+
+    private LocalDate parseDate(String text) throws CommandException {
+        switch (text) {
+            case "today":
+                return today;
+            case "yesterday":
+                return today.minusDays(1);
+            case "tomorrow":
+                return today.plusDays(1);
+            default:
+                try {
+                    return LocalDate.parse(text);
+                } catch (DateTimeParseException e) {
+                    throw new CommandException("Not a date (yyyy-MM-dd, today, yesterday or tomorrow): " + text);
+                }
+        }
+    }
+
+    private static int parseSteps(String text) throws CommandException {
+        if (!isNumber(text) || Integer.parseInt(text) < 1) {
+            throw new CommandException("Not a positive number of steps: " + text);
+        }
+        return Integer.parseInt(text);
+    }
+
+    private static boolean isNumber(String text) {
+        return text.matches("\\d{1,9}");
+    }
+
+    private static void expectAtMost(List<String> words, int count, String syntax) throws CommandException {
+        if (words.size() > count) {
+            throw new CommandException("Usage: " + syntax);
+        }
+    }
+
+    /**
+     * Splits a script line into words at spaces; double quotes keep spaces in
+     * a word.
+     */
+    static List<String> split(String line) throws CommandException {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quoted) {
+            throw new CommandException("Unclosed quote");
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static String usage() {
+        return "Usage:\n"
+                + "  add <task> <from> [<to>] [steps]\n"
+                + "  progress <task> [<date>] [steps]\n"
+                + "  status <task> completed|skipped [<date>]\n"
+                + "  today [<date>]\n"
+                + "  stats\n"
+                + "  memory [<max bytes per record>]\n"
+                + "  run <file>\n"
+                + "Dates are yyyy-MM-dd, today, yesterday or tomorrow.";
+    }
+}